@@ -0,0 +1,272 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread pool whose size is controlled by AIMD (additive increase, multiplicative decrease).
+ * At each interval, the pool grows by one thread while it is busy and healthy, and it is halved
+ * when the API throttled requests, a request timed out, the error rate rose, the latency rose well above
+ * a high percentile of recent intervals, or the heap is nearly full.
+ */
+public class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private static final Logger logger = LogManager.getLogger(AdaptiveThreadPoolExecutor.class);
+
+    /** The ratio of failed tasks above which the pool shrinks. */
+    protected static final double MAX_ERROR_RATE = 0.1;
+
+    /** The ratio of the latency to the baseline above which the pool shrinks. */
+    protected static final double LATENCY_TOLERANCE = 2.0;
+
+    /** The number of recent intervals whose latencies make the baseline. */
+    protected static final int LATENCY_WINDOW = 20;
+
+    /** The number of intervals to observe before the latency is compared with the baseline. */
+    protected static final int LATENCY_WARMUP = 5;
+
+    /** The percentile of the recent latencies used as the baseline. */
+    protected static final double LATENCY_PERCENTILE = 0.9;
+
+    /** The ratio of used heap above which the pool shrinks. */
+    protected static final double MAX_HEAP_USAGE = 0.9;
+
+    /** The minimum number of threads. */
+    protected final int minThreads;
+
+    /** The maximum number of threads. */
+    protected final int maxThreads;
+
+    /** The counter of throttled requests, or null. */
+    protected final LongSupplier throttleCounter;
+
+    /** The scheduler to adjust the concurrency. */
+    protected final ScheduledExecutorService scheduler;
+
+    /** The start time of the task in each thread. */
+    protected final ThreadLocal<Long> startTime = new ThreadLocal<>();
+
+    /** The number of tasks completed in the current interval. */
+    protected final LongAdder completedCount = new LongAdder();
+
+    /** The total latency of tasks completed in the current interval, in milliseconds. */
+    protected final LongAdder latencySum = new LongAdder();
+
+    /** The number of failed tasks in the current interval. */
+    protected final LongAdder errorCount = new LongAdder();
+
+    /** The number of timed out tasks in the current interval. */
+    protected final LongAdder timeoutCount = new LongAdder();
+
+    /** The throttle count at the last adjustment. */
+    protected long lastThrottleCount;
+
+    /** The average latencies of recent intervals in milliseconds, as a ring buffer. */
+    protected final double[] recentLatencies = new double[LATENCY_WINDOW];
+
+    /** The number of intervals recorded in recentLatencies. */
+    protected long latencyIntervals;
+
+    /** The baseline latency in milliseconds, or 0 if unknown. */
+    protected double baselineLatency;
+
+    /** The current concurrency. */
+    protected volatile int concurrency;
+
+    /**
+     * Constructs a new AdaptiveThreadPoolExecutor.
+     * @param minThreads The minimum number of threads.
+     * @param maxThreads The maximum number of threads.
+     * @param initialThreads The initial number of threads.
+     * @param interval The interval of adjustments in milliseconds.
+     * @param throttleCounter The counter of throttled requests, or null.
+     * @param handler The handler of tasks which the queue cannot accept.
+     */
+    public AdaptiveThreadPoolExecutor(final int minThreads, final int maxThreads, final int initialThreads, final long interval,
+            final LongSupplier throttleCounter, final RejectedExecutionHandler handler) {
+        super(clamp(initialThreads, minThreads, maxThreads), clamp(initialThreads, minThreads, maxThreads), 1000L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(1, maxThreads)), handler);
+        this.minThreads = Math.max(1, minThreads);
+        this.maxThreads = Math.max(this.minThreads, maxThreads);
+        this.throttleCounter = throttleCounter;
+        concurrency = getCorePoolSize();
+        lastThrottleCount = throttleCounter != null ? throttleCounter.getAsLong() : 0L;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "AdaptiveThreadPoolExecutor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::adjust, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Concurrency: {} (min={}, max={})", concurrency, this.minThreads, this.maxThreads);
+    }
+
+    private static int clamp(final int value, final int min, final int max) {
+        return Math.max(Math.max(1, min), Math.min(Math.max(min, max), value));
+    }
+
+    @Override
+    protected void beforeExecute(final Thread t, final Runnable r) {
+        super.beforeExecute(t, r);
+        startTime.set(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void afterExecute(final Runnable r, final Throwable t) {
+        super.afterExecute(r, t);
+        final Long start = startTime.get();
+        if (start != null) {
+            latencySum.add(System.currentTimeMillis() - start);
+            completedCount.increment();
+            startTime.remove();
+        }
+        if (t != null) {
+            onError(t);
+        }
+    }
+
+    /**
+     * Records a failed task.
+     * @param t The error of the task.
+     */
+    public void onError(final Throwable t) {
+        errorCount.increment();
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                timeoutCount.increment();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adjusts the concurrency from the statistics of the last interval.
+     */
+    protected void adjust() {
+        try {
+            final long completed = completedCount.sumThenReset();
+            final long latency = latencySum.sumThenReset();
+            final long errors = errorCount.sumThenReset();
+            final long timeouts = timeoutCount.sumThenReset();
+            final long throttleCount = throttleCounter != null ? throttleCounter.getAsLong() : 0L;
+            final long throttles = throttleCount - lastThrottleCount;
+            lastThrottleCount = throttleCount;
+            final Runtime runtime = Runtime.getRuntime();
+            final double heapUsage = (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+            final boolean saturated = getActiveCount() >= concurrency || !getQueue().isEmpty();
+            final int current = concurrency;
+            final int next = nextConcurrency(current, saturated, completed, latency, errors, timeouts, throttles, heapUsage);
+            if (next != current) {
+                setConcurrency(next);
+                logger.info(
+                        "Concurrency: {} -> {} (completed={}, latency={}ms, baseline={}ms, errors={}, timeouts={}, throttled={}, heap={}%)",
+                        current, next, completed, completed > 0 ? latency / completed : 0, (long) baselineLatency, errors, timeouts,
+                        throttles, (int) (heapUsage * 100));
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to adjust the concurrency.", e);
+        }
+    }
+
+    /**
+     * Computes the next concurrency.
+     * @param current The current concurrency.
+     * @param saturated Whether all threads were busy.
+     * @param completed The number of completed tasks.
+     * @param latency The total latency of completed tasks in milliseconds.
+     * @param errors The number of failed tasks.
+     * @param timeouts The number of timed out tasks.
+     * @param throttles The number of throttled requests.
+     * @param heapUsage The ratio of used heap.
+     * @return The next concurrency.
+     */
+    protected int nextConcurrency(final int current, final boolean saturated, final long completed, final long latency, final long errors,
+            final long timeouts, final long throttles, final double heapUsage) {
+        boolean slow = false;
+        if (completed > 0) {
+            final double average = (double) latency / completed;
+            slow = latencyIntervals >= LATENCY_WARMUP && average > baselineLatency * LATENCY_TOLERANCE;
+            recentLatencies[(int) (latencyIntervals % LATENCY_WINDOW)] = average;
+            latencyIntervals++;
+            baselineLatency = getBaselineLatency();
+        }
+        final boolean failing = completed > 0 && (double) errors / completed > MAX_ERROR_RATE;
+        if (throttles > 0 || timeouts > 0 || failing || slow || heapUsage > MAX_HEAP_USAGE) {
+            return Math.max(minThreads, current / 2);
+        }
+        if (saturated && completed > 0) {
+            return Math.min(maxThreads, current + 1);
+        }
+        return current;
+    }
+
+    /**
+     * Returns a high percentile of the latencies of recent intervals.
+     * The files of an interval vary in size, so a percentile is used instead of the minimum:
+     * an interval of small files does not make the usual mix of files look slow.
+     * @return The baseline latency in milliseconds.
+     */
+    protected double getBaselineLatency() {
+        final int size = (int) Math.min(latencyIntervals, LATENCY_WINDOW);
+        if (size == 0) {
+            return 0;
+        }
+        final double[] latencies = Arrays.copyOf(recentLatencies, size);
+        Arrays.sort(latencies);
+        return latencies[(int) Math.ceil(size * LATENCY_PERCENTILE) - 1];
+    }
+
+    /**
+     * Sets the number of threads.
+     * @param value The number of threads.
+     */
+    protected void setConcurrency(final int value) {
+        if (value > getMaximumPoolSize()) {
+            setMaximumPoolSize(value);
+            setCorePoolSize(value);
+        } else {
+            setCorePoolSize(value);
+            setMaximumPoolSize(value);
+        }
+        concurrency = value;
+    }
+
+    /**
+     * Returns the current concurrency.
+     * @return The number of threads.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    protected void terminated() {
+        scheduler.shutdownNow();
+        super.terminated();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.exception.DataStoreException;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpHeaders;
+
+/**
+ * Collects requests from many threads and sends them through the batch endpoint.
+ * A batch is sent when it is full, or when the oldest request has waited for the linger time.
+ */
+public class BatchRequestQueue implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(BatchRequestQueue.class);
+
+    /** Maximum number of calls in a batch allowed by the Drive API. */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /** The factory of batch requests. */
+    protected final Supplier<BatchRequest> batchFactory;
+
+    /** The maximum number of calls in a batch. */
+    protected final int batchSize;
+
+    /** The executor to send batches. */
+    protected final Executor executor;
+
+    /** The scheduler to send batches which are not full. */
+    protected final ScheduledExecutorService scheduler;
+
+    /** The lock of the queued requests, which does not pin virtual threads. */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** The queued requests which are not sent yet. */
+    protected List<Entry<?>> entries = new ArrayList<>();
+
+    /**
+     * Constructs a new BatchRequestQueue.
+     * @param batchFactory The factory of batch requests.
+     * @param batchSize The maximum number of calls in a batch, up to 100.
+     * @param lingerTime The time in milliseconds to wait for more requests before a batch which is not full is sent.
+     * @param executor The executor to send batches.
+     */
+    public BatchRequestQueue(final Supplier<BatchRequest> batchFactory, final int batchSize, final long lingerTime,
+            final Executor executor) {
+        this.batchFactory = batchFactory;
+        this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, batchSize));
+        this.executor = executor;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "BatchRequestQueue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long delay = Math.max(1L, lingerTime);
+        scheduler.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a request.
+     * @param <T> The type of the response.
+     * @param request The request.
+     * @return A future completed with the response.
+     */
+    public <T> CompletableFuture<T> submit(final AbstractGoogleJsonClientRequest<T> request) {
+        final Entry<T> entry = new Entry<>(request);
+        final List<Entry<?>> batch;
+        lock.lock();
+        try {
+            entries.add(entry);
+            batch = entries.size() >= batchSize ? drain() : null;
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return entry.future;
+    }
+
+    /**
+     * Sends the queued requests.
+     */
+    public void flush() {
+        final List<Entry<?>> batch;
+        lock.lock();
+        try {
+            batch = entries.isEmpty() ? null : drain();
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    /**
+     * Takes the queued requests.
+     * @return The queued requests.
+     */
+    protected List<Entry<?>> drain() {
+        final List<Entry<?>> batch = entries;
+        entries = new ArrayList<>();
+        return batch;
+    }
+
+    /**
+     * Sends a batch on the executor.
+     * @param batch The requests in the batch.
+     */
+    protected void send(final List<Entry<?>> batch) {
+        try {
+            executor.execute(() -> execute(batch));
+        } catch (final RejectedExecutionException e) {
+            batch.forEach(entry -> entry.future.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Sends a batch and completes the futures of its requests.
+     * @param batch The requests in the batch.
+     */
+    protected void execute(final List<Entry<?>> batch) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending a batch of {} requests.", batch.size());
+        }
+        try {
+            final BatchRequest request = batchFactory.get();
+            for (final Entry<?> entry : batch) {
+                entry.queue(request);
+            }
+            request.execute();
+        } catch (final Exception e) {
+            final DataStoreException ex = new DataStoreException("Failed to send a batch of " + batch.size() + " requests.", e);
+            batch.forEach(entry -> entry.future.completeExceptionally(ex));
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * A queued request and its future.
+     * @param <T> The type of the response.
+     */
+    protected static class Entry<T> {
+        /** The request. */
+        protected final AbstractGoogleJsonClientRequest<T> request;
+        /** The future completed with the response. */
+        protected final CompletableFuture<T> future = new CompletableFuture<>();
+
+        /**
+         * Constructs a new Entry.
+         * @param request The request.
+         */
+        protected Entry(final AbstractGoogleJsonClientRequest<T> request) {
+            this.request = request;
+        }
+
+        /**
+         * Adds the request to a batch.
+         * @param batch The batch.
+         * @throws IOException If the request cannot be added.
+         */
+        protected void queue(final BatchRequest batch) throws IOException {
+            request.queue(batch, new JsonBatchCallback<T>() {
+                @Override
+                public void onSuccess(final T response, final HttpHeaders responseHeaders) {
+                    future.complete(response);
+                }
+
+                @Override
+                public void onFailure(final GoogleJsonError error, final HttpHeaders responseHeaders) {
+                    future.completeExceptionally(new DataStoreException("Failed to call " + request.getClass().getSimpleName() + ": "
+                            + error.getCode() + " " + error.getMessage()));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded byte buffer between a writer thread and a reader thread.
+ * The writer blocks while the buffer is full, an error of the writer is thrown to the reader,
+ * and closing the reader makes further writes fail so that the writer can stop its transfer.
+ * The writer can be started when the reader first reads, so that no transfer waits for a reader.
+ */
+public class BoundedPipe {
+
+    /** The ring buffer. */
+    protected final byte[] buffer;
+
+    /** The lock of the buffer. */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** Signaled when bytes are written or the writer is closed. */
+    protected final Condition notEmpty = lock.newCondition();
+
+    /** Signaled when bytes are read or the reader is closed. */
+    protected final Condition notFull = lock.newCondition();
+
+    /** The position of the next byte to read. */
+    protected int readPosition;
+
+    /** The number of bytes in the buffer. */
+    protected int count;
+
+    /** Whether the writer finished. */
+    protected boolean writerClosed;
+
+    /** Whether the reader was closed. */
+    protected boolean readerClosed;
+
+    /** The error of the writer, or null. */
+    protected IOException error;
+
+    /** The task which starts the writer on the first read, or null if it was started. */
+    protected volatile Runnable writerStarter;
+
+    /** The input stream of the reader. */
+    protected final InputStream inputStream = new PipeInputStream();
+
+    /** The output stream of the writer. */
+    protected final OutputStream outputStream = new PipeOutputStream();
+
+    /**
+     * Constructs a new BoundedPipe.
+     * @param bufferSize The size of the buffer in bytes.
+     */
+    public BoundedPipe(final int bufferSize) {
+        buffer = new byte[Math.max(1, bufferSize)];
+    }
+
+    /**
+     * Returns the input stream of the reader.
+     * @return The input stream.
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Returns the output stream of the writer. Closing it marks the end of the data.
+     * @return The output stream.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Sets the task which starts the writer. It runs on the first read,
+     * so a stream which waits for its reader or is closed unread holds no transfer.
+     * @param writerStarter The task which starts the writer.
+     */
+    public void setWriterStarter(final Runnable writerStarter) {
+        this.writerStarter = writerStarter;
+    }
+
+    /**
+     * Starts the writer if it has not been started. A failure to start it fails the transfer.
+     */
+    protected void startWriter() {
+        final Runnable starter;
+        lock.lock();
+        try {
+            starter = writerStarter;
+            writerStarter = null;
+        } finally {
+            lock.unlock();
+        }
+        if (starter != null) {
+            try {
+                starter.run();
+            } catch (final RuntimeException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Fails the transfer, so the reader gets the error instead of the end of the data.
+     * @param e The error of the writer.
+     */
+    public void fail(final Exception e) {
+        lock.lock();
+        try {
+            error = e instanceof IOException ioe ? ioe : new IOException(e.getMessage(), e);
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes bytes, waiting while the buffer is full.
+     * @param b The bytes.
+     * @param off The offset of the bytes.
+     * @param len The number of bytes.
+     * @throws IOException If the reader was closed or the thread was interrupted.
+     */
+    protected void write(final byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            while (len > 0) {
+                while (count == buffer.length && !readerClosed) {
+                    notFull.await();
+                }
+                if (readerClosed) {
+                    throw new IOException("The reader of the pipe was closed.");
+                }
+                final int writePosition = (readPosition + count) % buffer.length;
+                final int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePosition));
+                System.arraycopy(b, off, buffer, writePosition, n);
+                count += n;
+                off += n;
+                len -= n;
+                notEmpty.signalAll();
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads bytes, waiting while the buffer is empty.
+     * @param b The buffer to read into.
+     * @param off The offset in the buffer.
+     * @param len The maximum number of bytes.
+     * @return The number of bytes read, or -1 at the end of the data.
+     * @throws IOException If the writer failed or the thread was interrupted.
+     */
+    protected int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (writerStarter != null) {
+            startWriter();
+        }
+        lock.lock();
+        try {
+            while (count == 0 && !writerClosed && error == null) {
+                notEmpty.await();
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (count == 0) {
+                return -1;
+            }
+            final int n = Math.min(len, Math.min(count, buffer.length - readPosition));
+            System.arraycopy(buffer, readPosition, b, off, n);
+            readPosition = (readPosition + n) % buffer.length;
+            count -= n;
+            notFull.signalAll();
+            return n;
+        } catch (final InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes which can be read without blocking.
+     * @return The number of bytes in the buffer.
+     */
+    protected int available() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the data.
+     */
+    protected void closeWriter() {
+        lock.lock();
+        try {
+            writerClosed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the reader, which makes the writer fail.
+     */
+    protected void closeReader() {
+        lock.lock();
+        try {
+            readerClosed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The input stream of the reader.
+     */
+    protected class PipeInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return BoundedPipe.this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return BoundedPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return BoundedPipe.this.available();
+        }
+
+        @Override
+        public void close() {
+            closeReader();
+        }
+    }
+
+    /**
+     * The output stream of the writer.
+     */
+    protected class PipeOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) throws IOException {
+            BoundedPipe.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            BoundedPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeWriter();
+        }
+    }
+}
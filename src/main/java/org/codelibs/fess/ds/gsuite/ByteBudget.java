@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * A budget of bytes held by the files in flight.
+ * A worker reserves the expected size of a file before it is downloaded and releases it when the file is done,
+ * and waits while the reservations of other files would exceed the budget.
+ * A file larger than the whole budget is admitted when no other file is in flight.
+ */
+public class ByteBudget {
+
+    /** The maximum number of reserved bytes. */
+    protected final long capacity;
+
+    /** The lock of the reservations. */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** Signaled when bytes are released. */
+    protected final Condition released = lock.newCondition();
+
+    /** The number of reserved bytes. */
+    protected long reservedBytes;
+
+    /** The waiting reservations in arrival order. */
+    protected final Deque<Object> waiters = new ArrayDeque<>();
+
+    /** The number of reservations which waited for others to be released. */
+    protected long waitCount;
+
+    /**
+     * Constructs a new ByteBudget.
+     * @param capacity The maximum number of reserved bytes.
+     */
+    public ByteBudget(final long capacity) {
+        this.capacity = Math.max(1L, capacity);
+    }
+
+    /**
+     * Reserves bytes, waiting until the budget has room for them.
+     * Reservations are admitted in arrival order, so a large file is not starved by a stream of small ones.
+     * @param bytes The expected number of bytes.
+     * @return The number of reserved bytes, which must be passed to {@link #release(long)}.
+     */
+    public long reserve(final long bytes) {
+        final long weight = Math.max(0L, Math.min(bytes, capacity));
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && fits(weight)) {
+                reservedBytes += weight;
+                return weight;
+            }
+            waitCount++;
+            final Object waiter = new Object();
+            waiters.addLast(waiter);
+            try {
+                while (waiters.peekFirst() != waiter || !fits(weight)) {
+                    released.await();
+                }
+            } finally {
+                waiters.remove(waiter);
+                // the next waiter may fit as well
+                released.signalAll();
+            }
+            reservedBytes += weight;
+            return weight;
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if a reservation fits in the budget.
+     * @param weight The number of bytes to reserve.
+     * @return true if the bytes can be reserved now.
+     */
+    protected boolean fits(final long weight) {
+        return reservedBytes == 0 || reservedBytes + weight <= capacity;
+    }
+
+    /**
+     * Releases reserved bytes.
+     * @param weight The number returned by {@link #reserve(long)}.
+     */
+    public void release(final long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            reservedBytes -= weight;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of reserved bytes.
+     * @return The reserved bytes.
+     */
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "ByteBudget [reserved=" + reservedBytes + ", capacity=" + capacity + ", waitCount=" + waitCount + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.core.stream.StreamUtil;
+import org.codelibs.fess.exception.DataStoreException;
+
+/**
+ * A checkpoint of a crawl, persisted as a properties file on local disk.
+ * Besides the start page token of the Changes API, it journals the progress of a listing:
+ * the token of the first page whose files are not all processed yet, the IDs of files in flight,
+ * and the IDs of files already processed after that page, so an interrupted crawl can resume.
+ */
+public class CrawlCheckpoint {
+
+    private static final Logger logger = LogManager.getLogger(CrawlCheckpoint.class);
+
+    /** Property key for the start page token of the Changes API. */
+    protected static final String START_PAGE_TOKEN = "start_page_token";
+
+    /** Property key for the start page token taken when the current crawl began. */
+    protected static final String PENDING_START_PAGE_TOKEN = "pending_start_page_token";
+
+    /** Property key for the token of the first page which is not completed. */
+    protected static final String PAGE_TOKEN = "page_token";
+
+    /** Property key for the IDs of files in flight. */
+    protected static final String IN_FLIGHT_IDS = "in_flight_ids";
+
+    /** Property key for the IDs of files completed after the page token. */
+    protected static final String COMPLETED_IDS = "completed_ids";
+
+    /** The lock of the progress, which does not pin virtual threads while the checkpoint is written. */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** The pages which are listed but not completed, in listing order. */
+    protected final Deque<PageEntry> pages = new ArrayDeque<>();
+
+    /** The pages of files in flight. */
+    protected final Map<String, PageEntry> inFlightMap = new HashMap<>();
+
+    /** The IDs of files completed after the page token. */
+    protected final Set<String> completedIds = new LinkedHashSet<>();
+
+    /** The minimum interval between writes caused by completed files, in milliseconds. */
+    protected long storeInterval = 10000L;
+
+    /** The time of the last write. */
+    protected long lastStoredTime;
+
+    /** The path of the checkpoint file. */
+    protected final Path path;
+
+    /** The checkpoint values. */
+    protected final Properties properties = new Properties();
+
+    /**
+     * Constructs a new CrawlCheckpoint and loads the existing values if the file exists.
+     * @param path The path of the checkpoint file.
+     */
+    public CrawlCheckpoint(final Path path) {
+        this.path = path;
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            } catch (final IOException e) {
+                throw new DataStoreException("Failed to load a checkpoint from " + path, e);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded checkpoint {}: {}", path, properties);
+            }
+            StreamUtil.split(properties.getProperty(COMPLETED_IDS, StringUtil.EMPTY), ",")
+                    .of(stream -> stream.filter(StringUtil::isNotBlank).forEach(completedIds::add));
+        }
+    }
+
+    /**
+     * Returns whether this checkpoint holds the progress of an interrupted crawl.
+     * @return true if the crawl can be resumed.
+     */
+    public boolean isResumable() {
+        lock.lock();
+        try {
+            return properties.getProperty(PAGE_TOKEN) != null || !completedIds.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the token of the first page which is not completed.
+     * @return The page token, or null to start from the first page.
+     */
+    public String getPageToken() {
+        lock.lock();
+        try {
+            return properties.getProperty(PAGE_TOKEN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of files which were in flight when the checkpoint was written.
+     * @return The file IDs.
+     */
+    public List<String> getInFlightIds() {
+        lock.lock();
+        try {
+            return StreamUtil.split(properties.getProperty(IN_FLIGHT_IDS, StringUtil.EMPTY), ",")
+                    .get(stream -> stream.filter(StringUtil::isNotBlank).collect(Collectors.toList()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a listed page.
+     * Files which were completed before the crawl was interrupted are completed immediately.
+     * @param pageToken The token used to fetch the page.
+     * @param nextPageToken The token of the next page, or null.
+     * @param fileIds The IDs of the files in the page.
+     * @return The IDs of the files to process.
+     */
+    public Set<String> startPage(final String pageToken, final String nextPageToken, final List<String> fileIds) {
+        lock.lock();
+        try {
+            final PageEntry page = new PageEntry(nextPageToken);
+            final Set<String> targetIds = new LinkedHashSet<>();
+            for (final String fileId : fileIds) {
+                page.fileIds.add(fileId);
+                if (completedIds.contains(fileId) || inFlightMap.containsKey(fileId)) {
+                    continue;
+                }
+                page.remainingIds.add(fileId);
+                inFlightMap.put(fileId, page);
+                targetIds.add(fileId);
+            }
+            pages.addLast(page);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Started page {}: {} files, {} to process", pageToken, fileIds.size(), targetIds.size());
+            }
+            advance();
+            return targetIds;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a file as completed, whether it was indexed, skipped or failed.
+     * @param fileId The ID of the file.
+     */
+    public void completeFile(final String fileId) {
+        lock.lock();
+        try {
+            final PageEntry page = inFlightMap.remove(fileId);
+            if (page == null) {
+                return;
+            }
+            page.remainingIds.remove(fileId);
+            completedIds.add(fileId);
+            if (!advance() && System.currentTimeMillis() - lastStoredTime >= storeInterval) {
+                store();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the page token past the completed pages at the head, and writes the checkpoint if it moved.
+     * @return true if the page token moved.
+     */
+    protected boolean advance() {
+        boolean advanced = false;
+        while (!pages.isEmpty() && pages.peekFirst().remainingIds.isEmpty()) {
+            final PageEntry page = pages.pollFirst();
+            completedIds.removeAll(page.fileIds);
+            if (page.nextPageToken != null) {
+                properties.setProperty(PAGE_TOKEN, page.nextPageToken);
+            }
+            advanced = true;
+        }
+        if (advanced) {
+            store();
+        }
+        return advanced;
+    }
+
+    /**
+     * Returns the start page token taken when the current crawl began.
+     * @return The pending start page token, or null.
+     */
+    public String getPendingStartPageToken() {
+        lock.lock();
+        try {
+            return properties.getProperty(PENDING_START_PAGE_TOKEN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the start page token taken when the current crawl began.
+     * @param startPageToken The start page token.
+     */
+    public void setPendingStartPageToken(final String startPageToken) {
+        lock.lock();
+        try {
+            if (StringUtil.isBlank(startPageToken)) {
+                properties.remove(PENDING_START_PAGE_TOKEN);
+            } else {
+                properties.setProperty(PENDING_START_PAGE_TOKEN, startPageToken);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the progress of the listing, so the crawl starts from the first page.
+     * The pending start page token is kept.
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            pages.clear();
+            inFlightMap.clear();
+            completedIds.clear();
+            properties.remove(PAGE_TOKEN);
+            properties.remove(IN_FLIGHT_IDS);
+            properties.remove(COMPLETED_IDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the progress of the crawl after it completed.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            reset();
+            properties.remove(PENDING_START_PAGE_TOKEN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the minimum interval between writes caused by completed files.
+     * @param storeInterval The interval in milliseconds.
+     */
+    public void setStoreInterval(final long storeInterval) {
+        this.storeInterval = storeInterval;
+    }
+
+    /**
+     * Returns the start page token of the Changes API.
+     * @return The start page token, or null if no crawl has completed yet.
+     */
+    public String getStartPageToken() {
+        lock.lock();
+        try {
+            return properties.getProperty(START_PAGE_TOKEN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the start page token of the Changes API.
+     * @param startPageToken The start page token.
+     */
+    public void setStartPageToken(final String startPageToken) {
+        lock.lock();
+        try {
+            if (StringUtil.isBlank(startPageToken)) {
+                properties.remove(START_PAGE_TOKEN);
+            } else {
+                properties.setProperty(START_PAGE_TOKEN, startPageToken);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the checkpoint to the file.
+     * The values are written to a temporary file first and moved into place,
+     * so a crash never leaves a partially written checkpoint.
+     */
+    public void store() {
+        lock.lock();
+        try {
+            if (inFlightMap.isEmpty()) {
+                properties.remove(IN_FLIGHT_IDS);
+            } else {
+                properties.setProperty(IN_FLIGHT_IDS, String.join(",", inFlightMap.keySet()));
+            }
+            if (completedIds.isEmpty()) {
+                properties.remove(COMPLETED_IDS);
+            } else {
+                properties.setProperty(COMPLETED_IDS, String.join(",", completedIds));
+            }
+            lastStoredTime = System.currentTimeMillis();
+            try {
+                final Path parent = path.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+                try (OutputStream out = Files.newOutputStream(tempPath)) {
+                    properties.store(out, null);
+                }
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Stored checkpoint {}: {}", path, properties);
+                }
+            } catch (final IOException e) {
+                throw new DataStoreException("Failed to store a checkpoint to " + path, e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the path of the checkpoint file.
+     * @return The path.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * A listed page whose files are not all completed.
+     */
+    protected static class PageEntry {
+        /** The token of the next page. */
+        protected final String nextPageToken;
+        /** The IDs of all files in the page. */
+        protected final Set<String> fileIds = new HashSet<>();
+        /** The IDs of files in the page which are not completed. */
+        protected final Set<String> remainingIds = new HashSet<>();
+
+        /**
+         * Constructs a new PageEntry.
+         * @param nextPageToken The token of the next page.
+         */
+        protected PageEntry(final String nextPageToken) {
+            this.nextPageToken = nextPageToken;
+        }
+    }
+}
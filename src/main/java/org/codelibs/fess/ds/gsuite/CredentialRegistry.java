@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.timer.TimeoutTask;
+
+import com.google.api.client.http.HttpTransport;
+
+/**
+ * A registry of credentials shared by the clients of a service account in this JVM.
+ * A credential holds the transport, the access token and its refresh task,
+ * and it is closed when the last client which uses it is closed.
+ */
+public class CredentialRegistry {
+
+    private static final Logger logger = LogManager.getLogger(CredentialRegistry.class);
+
+    private static final CredentialRegistry INSTANCE = new CredentialRegistry();
+
+    /** The credentials in use by their keys. */
+    protected final Map<String, Credential> credentials = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the registry of this JVM.
+     * @return The registry.
+     */
+    public static CredentialRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the credential for a key, creating it if no client uses it.
+     * Clients which ask for the same key at the same time wait for a single creation.
+     * @param key The key of the credential.
+     * @param factory The function to create a credential for the key.
+     * @return The credential, which must be released.
+     */
+    public Credential acquire(final String key, final Function<String, Credential> factory) {
+        return credentials.compute(key, (k, credential) -> {
+            if (credential == null) {
+                final Credential newCredential = factory.apply(k);
+                newCredential.refCount = 1;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Created a credential: {}", newCredential);
+                }
+                return newCredential;
+            }
+            credential.refCount++;
+            return credential;
+        });
+    }
+
+    /**
+     * Releases a credential, closing it if no other client uses it.
+     * @param credential The credential.
+     */
+    public void release(final Credential credential) {
+        final AtomicBoolean closed = new AtomicBoolean();
+        credentials.computeIfPresent(credential.key, (k, current) -> {
+            if (current != credential || --credential.refCount > 0) {
+                return current;
+            }
+            closed.set(true);
+            return null;
+        });
+        if (closed.get()) {
+            credential.close();
+        }
+    }
+
+    /**
+     * Returns the number of credentials in use.
+     * @return The number of credentials.
+     */
+    public int size() {
+        return credentials.size();
+    }
+
+    /**
+     * A transport and an access token shared by clients.
+     */
+    public static class Credential implements AutoCloseable {
+        /** The key of the credential. */
+        protected final String key;
+        /** The HTTP transport. */
+        protected final HttpTransport httpTransport;
+        /** The connection pool of the transport, or null. */
+        protected final HttpConnectionPool connectionPool;
+        /** The request initializer which holds the access token. */
+        protected final GSuiteClient.RequestInitializer requestInitializer;
+        /** The task for refreshing the access token, or null. */
+        protected final TimeoutTask refreshTokenTask;
+        /** The number of clients which use the credential. */
+        protected int refCount;
+
+        /**
+         * Constructs a new Credential.
+         * @param key The key of the credential.
+         * @param httpTransport The HTTP transport.
+         * @param connectionPool The connection pool of the transport, or null.
+         * @param requestInitializer The request initializer which holds the access token.
+         * @param refreshTokenTask The task for refreshing the access token, or null.
+         */
+        public Credential(final String key, final HttpTransport httpTransport, final HttpConnectionPool connectionPool,
+                final GSuiteClient.RequestInitializer requestInitializer, final TimeoutTask refreshTokenTask) {
+            this.key = key;
+            this.httpTransport = httpTransport;
+            this.connectionPool = connectionPool;
+            this.requestInitializer = requestInitializer;
+            this.refreshTokenTask = refreshTokenTask;
+        }
+
+        @Override
+        public void close() {
+            if (refreshTokenTask != null) {
+                refreshTokenTask.cancel();
+            }
+            if (connectionPool != null) {
+                connectionPool.close();
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Closed a credential: {}", this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Credential [account=" + key.substring(0, Math.max(0, key.indexOf('\n'))) + ", refCount=" + refCount + "]";
+        }
+    }
+}
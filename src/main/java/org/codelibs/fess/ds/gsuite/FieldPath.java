@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A script expression which is a plain path of names, such as {@code file.name}.
+ * It is resolved by looking up each name in nested maps, as a script engine does for map properties,
+ * so the value is read without calling the engine.
+ */
+public class FieldPath {
+
+    /** The value returned when the path cannot be resolved without a script engine. */
+    public static final Object UNRESOLVED = new Object();
+
+    /** Pattern for a plain path of names. */
+    protected static final Pattern PATH_PATTERN = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*(?:\\.[A-Za-z_$][A-Za-z0-9_$]*)*");
+
+    /** The names in the path. */
+    protected final String[] names;
+
+    /**
+     * Constructs a new FieldPath.
+     * @param names The names in the path.
+     */
+    protected FieldPath(final String[] names) {
+        this.names = names;
+    }
+
+    /**
+     * Parses a script expression.
+     * @param expression The script expression.
+     * @return The path, or null if the expression is not a plain path.
+     */
+    public static FieldPath parse(final String expression) {
+        if (expression == null) {
+            return null;
+        }
+        final String path = expression.trim();
+        if (!PATH_PATTERN.matcher(path).matches()) {
+            return null;
+        }
+        return new FieldPath(path.split("\\."));
+    }
+
+    /**
+     * Resolves the path against the bindings.
+     * The first name must be bound, and each value before the last one must be a map;
+     * otherwise the expression is left to the script engine.
+     * @param bindings The bindings of the script.
+     * @return The value, or {@link #UNRESOLVED} if the path cannot be resolved.
+     */
+    public Object resolve(final Map<String, Object> bindings) {
+        if (!bindings.containsKey(names[0])) {
+            return UNRESOLVED;
+        }
+        Object value = bindings.get(names[0]);
+        for (int i = 1; i < names.length; i++) {
+            if (!(value instanceof Map<?, ?> map)) {
+                return UNRESOLVED;
+            }
+            value = map.get(names[i]);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(".", names);
+    }
+}
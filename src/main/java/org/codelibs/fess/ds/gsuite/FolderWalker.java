@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.exception.DataStoreException;
+
+import com.google.api.services.drive.model.File;
+
+/**
+ * Walks folder trees breadth-first, listing the children of folders in parallel.
+ * Each folder and file is visited once, so folders with multiple parents and shortcuts
+ * pointing back up the tree neither duplicate files nor loop forever.
+ */
+public class FolderWalker {
+
+    private static final Logger logger = LogManager.getLogger(FolderWalker.class);
+
+    /** MIME type of a folder. */
+    public static final String FOLDER_MIMETYPE = "application/vnd.google-apps.folder";
+
+    /** MIME type of a shortcut. */
+    public static final String SHORTCUT_MIMETYPE = "application/vnd.google-apps.shortcut";
+
+    /** The executor to list folders. */
+    protected final Executor executor;
+
+    /** The function listing the children of a folder. */
+    protected final BiConsumer<String, Consumer<File>> childLister;
+
+    /** The function retrieving the target file of a shortcut. */
+    protected final Function<String, File> fileGetter;
+
+    /** The consumer of visited files and folders. */
+    protected final Consumer<File> consumer;
+
+    /** The IDs of visited files and folders. */
+    protected final Set<String> visitedIds = ConcurrentHashMap.newKeySet();
+
+    /** The errors of folders which failed to be listed. */
+    protected final Map<String, Throwable> failureMap = new ConcurrentHashMap<>();
+
+    /** The number of folders queued or being listed, plus one while roots are queued. */
+    protected final AtomicInteger pendingCount = new AtomicInteger();
+
+    /** Completed when no folder is pending. */
+    protected final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    /** The number of listed folders. */
+    protected final AtomicLong folderCount = new AtomicLong();
+
+    /** The number of visited files. */
+    protected final AtomicLong fileCount = new AtomicLong();
+
+    /**
+     * Constructs a new FolderWalker.
+     * @param executor The executor to list folders.
+     * @param childLister The function listing the children of a folder.
+     * @param fileGetter The function retrieving the target file of a shortcut.
+     * @param consumer The consumer of visited files and folders.
+     */
+    public FolderWalker(final Executor executor, final BiConsumer<String, Consumer<File>> childLister,
+            final Function<String, File> fileGetter, final Consumer<File> consumer) {
+        this.executor = executor;
+        this.childLister = childLister;
+        this.fileGetter = fileGetter;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Walks the trees under the root folders and waits until all folders are listed.
+     * @param rootFolderIds The IDs of the root folders.
+     */
+    public void walk(final String... rootFolderIds) {
+        pendingCount.incrementAndGet();
+        try {
+            for (final String folderId : rootFolderIds) {
+                if (visitedIds.add(folderId)) {
+                    submitFolder(folderId);
+                }
+            }
+        } finally {
+            done();
+        }
+        try {
+            completion.get();
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw new DataStoreException("Failed to walk folders.", e.getCause());
+        }
+        logger.info("Walked {} folders and {} files.", folderCount.get(), fileCount.get());
+        if (!failureMap.isEmpty()) {
+            throw new DataStoreException("Failed to list " + failureMap.size() + " of " + folderCount.get() + " folders.");
+        }
+    }
+
+    /**
+     * Queues a folder to be listed.
+     * @param folderId The ID of the folder.
+     */
+    protected void submitFolder(final String folderId) {
+        pendingCount.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    listFolder(folderId);
+                } finally {
+                    done();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            failureMap.put(folderId, e);
+            done();
+        }
+    }
+
+    /**
+     * Lists the children of a folder.
+     * @param folderId The ID of the folder.
+     */
+    protected void listFolder(final String folderId) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Listing folder: {}", folderId);
+        }
+        folderCount.incrementAndGet();
+        try {
+            childLister.accept(folderId, this::visit);
+        } catch (final Exception e) {
+            logger.warn("Failed to list folder: {}", folderId, e);
+            failureMap.put(folderId, e);
+        }
+    }
+
+    /**
+     * Visits a child of a folder.
+     * Subfolders are queued, shortcuts are followed, and the others are passed to the consumer.
+     * @param file The child.
+     */
+    protected void visit(final File file) {
+        if (SHORTCUT_MIMETYPE.equals(file.getMimeType())) {
+            visitShortcut(file);
+            return;
+        }
+        if (!visitedIds.add(file.getId())) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Already visited: {}", file.getId());
+            }
+            return;
+        }
+        if (FOLDER_MIMETYPE.equals(file.getMimeType())) {
+            submitFolder(file.getId());
+        } else {
+            fileCount.incrementAndGet();
+        }
+        consumer.accept(file);
+    }
+
+    /**
+     * Follows a shortcut to its target.
+     * The shortcut details are read as generic data since the Drive model may not define them.
+     * @param shortcut The shortcut.
+     */
+    protected void visitShortcut(final File shortcut) {
+        if (!(shortcut.get("shortcutDetails") instanceof Map<?, ?> details)) {
+            logger.warn("No shortcut details in {}. Add shortcutDetails to the fields.", shortcut.getId());
+            return;
+        }
+        final Object targetId = details.get("targetId");
+        if (!(targetId instanceof String id) || StringUtil.isBlank(id) || !visitedIds.add(id)) {
+            return;
+        }
+        if (FOLDER_MIMETYPE.equals(details.get("targetMimeType"))) {
+            submitFolder(id);
+            return;
+        }
+        try {
+            final File target = fileGetter.apply(id);
+            if (target != null) {
+                fileCount.incrementAndGet();
+                consumer.accept(target);
+            }
+        } catch (final Exception e) {
+            logger.warn("Failed to get the target {} of shortcut {}", id, shortcut.getId(), e);
+        }
+    }
+
+    /**
+     * Marks a pending folder as done, and completes the walk if it was the last one.
+     */
+    protected void done() {
+        if (pendingCount.decrementAndGet() == 0) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * Returns the IDs of folders which failed to be listed.
+     * @return The folder IDs.
+     */
+    public Set<String> getFailedFolderIds() {
+        return failureMap.keySet();
+    }
+}
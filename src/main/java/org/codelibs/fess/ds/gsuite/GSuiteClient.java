@@ -16,9 +16,12 @@
 package org.codelibs.fess.ds.gsuite;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.security.KeyFactory;
@@ -27,20 +30,48 @@ import java.security.PrivateKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.SystemUtils;
+import org.apache.http.HttpHost;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
 import org.codelibs.core.lang.StringUtil;
 import org.codelibs.core.timer.TimeoutManager;
 import org.codelibs.core.timer.TimeoutTarget;
 import org.codelibs.core.timer.TimeoutTask;
 import org.codelibs.fess.Constants;
 import org.codelibs.fess.crawler.exception.CrawlingAccessException;
+import org.codelibs.fess.crawler.exception.MaxLengthExceededException;
 import org.codelibs.fess.crawler.util.TemporaryFileInputStream;
 import org.codelibs.fess.entity.DataStoreParams;
 import org.codelibs.fess.exception.DataStoreException;
@@ -49,13 +80,17 @@ import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.googleapis.GoogleUtils;
 import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
 import com.google.api.client.http.UrlEncodedContent;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport.Builder;
@@ -63,9 +98,16 @@ import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.GenericData;
 import com.google.api.client.util.SecurityUtils;
 import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.DriveRequest;
 import com.google.api.services.drive.Drive.Files.List;
+import com.google.api.services.drive.model.Change;
+import com.google.api.services.drive.model.ChangeList;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
+import com.google.api.services.drive.model.Permission;
+import com.google.api.services.drive.model.PermissionList;
+import com.google.api.services.drive.model.TeamDrive;
+import com.google.api.services.drive.model.TeamDriveList;
 
 /**
  * A client for accessing Google Suite APIs.
@@ -90,18 +132,163 @@ public class GSuiteClient implements AutoCloseable {
     protected static final String PROXY_HOST = "proxy_host";
     /** Parameter key for the refresh token interval. */
     protected static final String REFRESH_TOKEN_INTERVAL = "refresh_token_interval";
+    /** Parameter key for the time before the expiry of an access token at which it is refreshed. */
+    protected static final String TOKEN_REFRESH_MARGIN = "token_refresh_margin";
+    /** Parameter key for sharing the transport and the access token with other clients of the same service account. */
+    protected static final String SHARE_CREDENTIALS = "share_credentials";
     /** Parameter key for the maximum cached content size. */
     protected static final String MAX_CACHED_CONTENT_SIZE = "max_cached_content_size";
+    /** Parameter key for the number of pages fetched ahead of the consumer. */
+    protected static final String PREFETCH_PAGES = "prefetch_pages";
+    /** Parameter key for the number of items per page. */
+    protected static final String PAGE_SIZE = "page_size";
+    /** Parameter key for adapting the page size to the response latency and size. */
+    protected static final String ADAPTIVE_PAGE_SIZE = "adaptive_page_size";
+    /** Parameter key for the target latency of a page in milliseconds. */
+    protected static final String TARGET_PAGE_LATENCY = "target_page_latency";
+    /** Parameter key for the target size of a page in bytes. */
+    protected static final String TARGET_PAGE_BYTES = "target_page_bytes";
+    /** Parameter key for the HTTP transport: net or pooled. */
+    protected static final String HTTP_TRANSPORT = "http_transport";
+    /** Parameter key for the maximum number of pooled connections. */
+    protected static final String MAX_CONNECTIONS = "max_connections";
+    /** Parameter key for the time in milliseconds after which an idle pooled connection is evicted. */
+    protected static final String IDLE_CONNECTION_TIMEOUT = "idle_connection_timeout";
+    /** Parameter key for the file size above which a file is downloaded in parallel ranges. */
+    protected static final String RANGED_DOWNLOAD_THRESHOLD = "ranged_download_threshold";
+    /** Parameter key for the size of a range of a ranged download. */
+    protected static final String RANGED_DOWNLOAD_CHUNK_SIZE = "ranged_download_chunk_size";
+    /** Parameter key for the number of ranges of a file downloaded at the same time. */
+    protected static final String RANGED_DOWNLOAD_THREADS = "ranged_download_threads";
+    /** Parameter key for how file contents are passed to the extractor: buffer or pipe. */
+    protected static final String DOWNLOAD_MODE = "download_mode";
+    /** Parameter key for the size of the buffer between a download and the extractor in pipe mode. */
+    protected static final String PIPE_BUFFER_SIZE = "pipe_buffer_size";
+    /** Parameter key for the pattern of mime types which are buffered in pipe mode, because their extractors need random access. */
+    protected static final String RANDOM_ACCESS_MIMETYPES = "random_access_mimetypes";
+
+    /** Download mode which buffers a file in memory or in a temporary file before extraction. */
+    protected static final String DOWNLOAD_MODE_BUFFER = "buffer";
+    /** Download mode which streams a file into the extractor while it is downloaded. */
+    protected static final String DOWNLOAD_MODE_PIPE = "pipe";
+
+    /** Parameter key for the maximum number of calls in a batch request. */
+    protected static final String BATCH_SIZE = "batch_size";
+    /** Parameter key for the time in milliseconds to wait for more calls before a batch is sent. */
+    protected static final String BATCH_LINGER = "batch_linger";
+
+    /** Parameter key for the maximum number of requests per second. */
+    protected static final String RATE_LIMIT_PER_SECOND = "rate_limit_per_second";
+    /** Parameter key for the maximum number of requests per 100 seconds. */
+    protected static final String RATE_LIMIT_PER_100_SECONDS = "rate_limit_per_100_seconds";
+    /** Parameter key for the maximum number of retries of a rate-limited request. */
+    protected static final String MAX_RETRIES = "max_retries";
+    /** Parameter key for the initial backoff time in milliseconds. */
+    protected static final String BACKOFF_INITIAL_INTERVAL = "backoff_initial_interval";
+    /** Parameter key for the maximum backoff time in milliseconds. */
+    protected static final String BACKOFF_MAX_INTERVAL = "backoff_max_interval";
+
+    /** HTTP transport on top of HttpURLConnection. */
+    public static final String HTTP_TRANSPORT_NET = "net";
+    /** HTTP transport with a pool of keep-alive connections. */
+    public static final String HTTP_TRANSPORT_POOLED = "pooled";
 
     /** Constant for all drives. */
     public static final String ALL_DRIVES = "allDrives";
+    /** Constant for a single shared drive. */
+    public static final String DRIVE = "drive";
+    /** Constant for the files of a user. */
+    public static final String USER = "user";
 
     /** Default maximum cached content size in bytes (1MB). */
     protected static final int DEFAULT_MAX_CACHED_CONTENT_SIZE = 1024 * 1024;
 
-    /** Default refresh token interval in seconds (59 minutes). */
+    /** Default number of pages fetched ahead of the consumer. */
+    protected static final int DEFAULT_PREFETCH_PAGES = 2;
+
+    /** Maximum number of items per page allowed by the Drive API. */
+    protected static final int MAX_PAGE_SIZE = 1000;
+
+    /** Minimum number of items per page in the adaptive mode. */
+    protected static final int MIN_ADAPTIVE_PAGE_SIZE = 10;
+
+    /** Initial number of items per page in the adaptive mode. */
+    protected static final int DEFAULT_ADAPTIVE_PAGE_SIZE = 100;
+
+    /** Default target latency of a page in milliseconds (5 seconds). */
+    protected static final long DEFAULT_TARGET_PAGE_LATENCY_MS = 5 * 1000L;
+
+    /** Default target size of a page in bytes (4MB). */
+    protected static final long DEFAULT_TARGET_PAGE_BYTES = 4 * 1024 * 1024L;
+
+    /** Default maximum number of pooled connections. */
+    protected static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    /** Default time after which an idle pooled connection is evicted in milliseconds (1 minute). */
+    protected static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MS = 60 * 1000L;
+
+    /** Default size of a range of a ranged download in bytes (8 MB). */
+    protected static final long DEFAULT_RANGED_DOWNLOAD_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    /** Default number of ranges of a file downloaded at the same time. */
+    protected static final int DEFAULT_RANGED_DOWNLOAD_THREADS = 4;
+
+    /** Default size of the buffer between a download and the extractor in pipe mode (1 MB). */
+    protected static final int DEFAULT_PIPE_BUFFER_SIZE = 1024 * 1024;
+
+    /** Default pattern of mime types whose extractors need random access: PDF, zip-based and OLE2 formats. */
+    protected static final String DEFAULT_RANDOM_ACCESS_MIMETYPES = "application/(pdf|zip|x-zip-compressed|epub\\+zip|java-archive"
+            + "|x-7z-compressed|x-rar-compressed|msword|vnd\\.ms-.*|vnd\\.openxmlformats-.*|vnd\\.oasis\\.opendocument\\..*)";
+
+    /** Default time to wait for more calls before a batch is sent in milliseconds. */
+    protected static final long DEFAULT_BATCH_LINGER_MS = 50L;
+
+    /** URL of the batch endpoint of the Drive API. */
+    protected static final String DRIVE_BATCH_URL = "https://www.googleapis.com/batch/drive/v3";
+
+    /** Fields of permissions used for the roles. */
+    protected static final String PERMISSION_FIELDS = "nextPageToken,permissions(type,emailAddress,deleted)";
+
+    /** Default maximum number of retries of a rate-limited request. */
+    protected static final int DEFAULT_MAX_RETRIES = 5;
+
+    /** Default initial backoff time in milliseconds (1 second). */
+    protected static final long DEFAULT_BACKOFF_INITIAL_INTERVAL_MS = 1000L;
+
+    /** Default maximum backoff time in milliseconds (64 seconds). */
+    protected static final long DEFAULT_BACKOFF_MAX_INTERVAL_MS = 64 * 1000L;
+
+    /** Pattern for the reasons of 403 responses which mean that a rate limit was exceeded. */
+    protected static final Pattern RATE_LIMIT_REASON_PATTERN =
+            Pattern.compile("\"reason\"\\s*:\\s*\"(?:userRateLimitExceeded|rateLimitExceeded)\"");
+
+    /** Maximum number of bytes of an error response read to find its reason. */
+    protected static final int MAX_ERROR_CONTENT_PEEK_SIZE = 64 * 1024;
+
+    /** Default lifetime of an access token in seconds when the token endpoint returns no expires_in (59 minutes). */
     protected static final String DEFAULT_REFRESH_TOKEN_INTERVAL = "3540";
 
+    /** Default time before the expiry of an access token at which it is refreshed, in milliseconds (5 minutes). */
+    protected static final long DEFAULT_TOKEN_REFRESH_MARGIN_MS = 5 * 60 * 1000L;
+
+    /** OAuth2 scope of the Drive API. */
+    public static final String DRIVE_SCOPE = "https://www.googleapis.com/auth/drive";
+
+    /** OAuth2 scope to list the users of a domain. */
+    public static final String DIRECTORY_USER_SCOPE = "https://www.googleapis.com/auth/admin.directory.user.readonly";
+
+    /** URL of the Directory API to list users. */
+    protected static final String DIRECTORY_USERS_URL = "https://admin.googleapis.com/admin/directory/v1/users";
+
+    /** Keys of the parameters which must be equal for clients to share a credential. */
+    protected static final String[] CREDENTIAL_PARAM_KEYS = { CLIENT_EMAIL_PARAM, PRIVATE_KEY_ID_PARAM, HTTP_TRANSPORT, PROXY_HOST,
+            PROXY_PORT, MAX_CONNECTIONS, IDLE_CONNECTION_TIMEOUT, READ_TIMEOUT, CONNECT_TIMEOUT, RATE_LIMIT_PER_SECOND,
+            RATE_LIMIT_PER_100_SECONDS, MAX_RETRIES, BACKOFF_INITIAL_INTERVAL, BACKOFF_MAX_INTERVAL, TOKEN_REFRESH_MARGIN,
+            REFRESH_TOKEN_INTERVAL };
+
+    /** Interval in seconds at which the access token is checked for expiry in the background. */
+    protected static final int TOKEN_CHECK_INTERVAL = 60;
+
     /** Default read timeout in milliseconds (20 seconds). */
     protected static final int DEFAULT_READ_TIMEOUT_MS = 20 * 1000;
 
@@ -114,10 +301,15 @@ public class GSuiteClient implements AutoCloseable {
     /** Pattern for cleaning up PEM-encoded private keys (removes headers, footers, and newlines). */
     protected static final String PEM_CLEANUP_PATTERN = "\\\\n|\\n|-----[A-Z ]+-----";
 
-    /** The Google Drive client. */
-    protected Drive drive;
+    /** The lock of the lazily created Drive client and batch queue, which does not pin virtual threads. */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** The Google Drive client, created on first use. */
+    protected volatile Drive drive;
     /** The HTTP transport. */
-    protected NetHttpTransport httpTransport;
+    protected HttpTransport httpTransport;
+    /** The connection pool of the pooled transport, or null. */
+    protected HttpConnectionPool connectionPool;
     /** The data store parameters. */
     protected DataStoreParams params;
 
@@ -127,41 +319,284 @@ public class GSuiteClient implements AutoCloseable {
     /** The request initializer. */
     protected RequestInitializer requestInitializer;
 
-    /** The task for refreshing the access token. */
-    protected TimeoutTask refreshTokenTask;
+    /** The transport and the access token, which may be shared with other clients. */
+    protected CredentialRegistry.Credential credential;
+
+    /** Whether the credential is registered in the CredentialRegistry. */
+    protected boolean sharedCredential;
+
+    /** The client which owns the transport of this delegated client, or null. */
+    protected GSuiteClient parent;
+
+    /** The user to impersonate, or null for the service account itself. */
+    protected String subject;
+
+    /** The OAuth2 scope of the access token. */
+    protected String scope = DRIVE_SCOPE;
+
+    /** The delegated clients by their subjects and scopes, which are closed with this client. */
+    protected final Map<String, GSuiteClient> delegatedClients = new ConcurrentHashMap<>();
 
     /** The name of the application. */
     protected String applicationName = "Fess DataStore";
 
+    /** The number of pages fetched ahead of the consumer. */
+    protected int prefetchPages = DEFAULT_PREFETCH_PAGES;
+
+    /** The number of items per page, or null to use the default of the Drive API. */
+    protected Integer pageSize;
+
+    /** Whether to adapt the page size to the response latency and size. */
+    protected boolean adaptivePageSize;
+
+    /** The target latency of a page in milliseconds. */
+    protected long targetPageLatency = DEFAULT_TARGET_PAGE_LATENCY_MS;
+
+    /** The target size of a page in bytes. */
+    protected long targetPageBytes = DEFAULT_TARGET_PAGE_BYTES;
+
+    /** The queue of batched calls, created on first use. */
+    protected volatile BatchRequestQueue batchQueue;
+
+    /** The file size above which a file is downloaded in parallel ranges, or 0 to disable ranged downloads. */
+    protected long rangedDownloadThreshold;
+
+    /** Whether files are streamed into the extractor while they are downloaded. */
+    protected boolean pipeDownload;
+
+    /** The size of the buffer between a download and the extractor in pipe mode. */
+    protected int pipeBufferSize = DEFAULT_PIPE_BUFFER_SIZE;
+
+    /** The pattern of mime types which are buffered in pipe mode. */
+    protected Pattern randomAccessMimeTypePattern;
+
+    /** The downloader of files above the threshold, or null. */
+    protected RangedDownloader rangedDownloader;
+
+    /** The executor for fetching ranges of files. */
+    protected ExecutorService downloadExecutor = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "GSuiteClient-RangedDownloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The executor for fetching pages in the background. */
+    protected ExecutorService pageExecutor = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "GSuiteClient-PageFetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Constructs a new GSuiteClient.
      * @param params The data store parameters.
      */
     public GSuiteClient(final DataStoreParams params) {
+        this(params, null, null, DRIVE_SCOPE);
+    }
+
+    /**
+     * Constructs a new GSuiteClient which impersonates a user through domain-wide delegation.
+     * @param params The data store parameters.
+     * @param parent The client whose transport is used, or null to create a transport.
+     * @param subject The user to impersonate, or null for the service account itself.
+     * @param scope The OAuth2 scope of the access token.
+     */
+    protected GSuiteClient(final DataStoreParams params, final GSuiteClient parent, final String subject, final String scope) {
         this.params = params;
-        this.httpTransport = newHttpTransport();
+        this.parent = parent;
+        this.subject = subject;
+        this.scope = scope;
+        if (parent != null) {
+            applicationName = parent.applicationName;
+        }
         final String size = params.getAsString(MAX_CACHED_CONTENT_SIZE);
         if (StringUtil.isNotBlank(size)) {
             maxCachedContentSize = Integer.parseInt(size);
         }
-        requestInitializer = new RequestInitializer(params, httpTransport);
-        refreshTokenTask = TimeoutManager.getInstance()
-                .addTimeoutTarget(requestInitializer,
-                        Integer.parseInt(params.getAsString(REFRESH_TOKEN_INTERVAL, DEFAULT_REFRESH_TOKEN_INTERVAL)), true);
+        final String pages = params.getAsString(PREFETCH_PAGES);
+        if (StringUtil.isNotBlank(pages)) {
+            prefetchPages = Math.max(1, Integer.parseInt(pages));
+        }
+        final String pageSizeStr = params.getAsString(PAGE_SIZE);
+        if (StringUtil.isNotBlank(pageSizeStr)) {
+            pageSize = Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(pageSizeStr)));
+        }
+        adaptivePageSize = Constants.TRUE.equalsIgnoreCase(params.getAsString(ADAPTIVE_PAGE_SIZE, Constants.FALSE));
+        final String targetPageLatencyStr = params.getAsString(TARGET_PAGE_LATENCY);
+        if (StringUtil.isNotBlank(targetPageLatencyStr)) {
+            targetPageLatency = Long.parseLong(targetPageLatencyStr);
+        }
+        final String targetPageBytesStr = params.getAsString(TARGET_PAGE_BYTES);
+        if (StringUtil.isNotBlank(targetPageBytesStr)) {
+            targetPageBytes = Long.parseLong(targetPageBytesStr);
+        }
+        final String rangedDownloadThresholdStr = params.getAsString(RANGED_DOWNLOAD_THRESHOLD);
+        if (StringUtil.isNotBlank(rangedDownloadThresholdStr)) {
+            rangedDownloadThreshold = Long.parseLong(rangedDownloadThresholdStr);
+        }
+        if (rangedDownloadThreshold > 0) {
+            final String chunkSize = params.getAsString(RANGED_DOWNLOAD_CHUNK_SIZE);
+            final String threads = params.getAsString(RANGED_DOWNLOAD_THREADS);
+            final String retries = params.getAsString(MAX_RETRIES);
+            rangedDownloader = new RangedDownloader(downloadExecutor,
+                    StringUtil.isNotBlank(chunkSize) ? Long.parseLong(chunkSize) : DEFAULT_RANGED_DOWNLOAD_CHUNK_SIZE,
+                    StringUtil.isNotBlank(threads) ? Integer.parseInt(threads) : DEFAULT_RANGED_DOWNLOAD_THREADS,
+                    StringUtil.isNotBlank(retries) ? Integer.parseInt(retries) : DEFAULT_MAX_RETRIES);
+        }
+        pipeDownload = DOWNLOAD_MODE_PIPE.equals(params.getAsString(DOWNLOAD_MODE, DOWNLOAD_MODE_BUFFER));
+        if (pipeDownload) {
+            final String pipeBufferSizeStr = params.getAsString(PIPE_BUFFER_SIZE);
+            if (StringUtil.isNotBlank(pipeBufferSizeStr)) {
+                pipeBufferSize = Integer.parseInt(pipeBufferSizeStr);
+            }
+            randomAccessMimeTypePattern = Pattern.compile(params.getAsString(RANDOM_ACCESS_MIMETYPES, DEFAULT_RANDOM_ACCESS_MIMETYPES));
+        }
+        sharedCredential = Constants.TRUE.equalsIgnoreCase(params.getAsString(SHARE_CREDENTIALS, Constants.TRUE));
+        if (sharedCredential) {
+            credential = CredentialRegistry.getInstance().acquire(getCredentialKey(), this::newCredential);
+        } else {
+            credential = newCredential(getCredentialKey());
+        }
+        httpTransport = credential.httpTransport;
+        connectionPool = credential.connectionPool;
+        requestInitializer = credential.requestInitializer;
+    }
+
+    /**
+     * Returns the key of the credential, which is equal for clients which can share it.
+     * @return The key of the credential.
+     */
+    protected String getCredentialKey() {
+        final StringBuilder buf = new StringBuilder();
+        for (final String key : CREDENTIAL_PARAM_KEYS) {
+            if (buf.length() > 0) {
+                buf.append('\n');
+            }
+            buf.append(params.getAsString(key, StringUtil.EMPTY));
+        }
+        buf.append('\n').append(subject != null ? subject : StringUtil.EMPTY).append('\n').append(scope);
+        return buf.toString();
+    }
+
+    /**
+     * Creates a new credential, which exchanges a JWT for an access token.
+     * @param key The key of the credential.
+     * @return A new credential.
+     */
+    protected CredentialRegistry.Credential newCredential(final String key) {
+        if (parent != null) {
+            // a delegated client borrows the transport of its parent
+            final RequestInitializer initializer = new RequestInitializer(params, parent.httpTransport, subject, scope);
+            final TimeoutTask refreshTokenTask = TimeoutManager.getInstance().addTimeoutTarget(initializer, TOKEN_CHECK_INTERVAL, true);
+            return new CredentialRegistry.Credential(key, parent.httpTransport, null, initializer, refreshTokenTask);
+        }
+        final HttpTransport transport = newHttpTransport();
+        try {
+            final RequestInitializer initializer = new RequestInitializer(params, transport, subject, scope);
+            final TimeoutTask refreshTokenTask = TimeoutManager.getInstance().addTimeoutTarget(initializer, TOKEN_CHECK_INTERVAL, true);
+            return new CredentialRegistry.Credential(key, transport, connectionPool, initializer, refreshTokenTask);
+        } catch (final RuntimeException e) {
+            if (connectionPool != null) {
+                connectionPool.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a client which impersonates a user through domain-wide delegation.
+     * The client has its own access token and rate limiter, shares the transport of this client,
+     * and is closed with this client.
+     * @param user The email address of the user.
+     * @param scope The OAuth2 scope of the access token.
+     * @return The delegated client.
+     */
+    public GSuiteClient getDelegatedClient(final String user, final String scope) {
+        return delegatedClients.computeIfAbsent(user + "\n" + scope, k -> new GSuiteClient(params, this, user, scope));
+    }
+
+    /**
+     * Lists the active users of a domain with the Directory API.
+     * This client must impersonate an administrator with {@link #DIRECTORY_USER_SCOPE}.
+     * @param domain The domain.
+     * @param consumer A consumer for the email address of each user.
+     */
+    public void getUsers(final String domain, final Consumer<String> consumer) {
+        final ObjectMapper mapper = new ObjectMapper();
+        String pageToken = null;
+        try {
+            do {
+                final GenericUrl url = new GenericUrl(DIRECTORY_USERS_URL);
+                url.set("domain", domain);
+                url.set("maxResults", 500);
+                url.set("query", "isSuspended=false");
+                url.set("fields", "nextPageToken,users(primaryEmail)");
+                if (pageToken != null) {
+                    url.set("pageToken", pageToken);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Accessing users: {}", url);
+                }
+                final HttpResponse response = httpTransport.createRequestFactory(requestInitializer).buildGetRequest(url).execute();
+                final Map<String, Object> result;
+                try {
+                    result = mapper.readValue(response.getContent(), new TypeReference<Map<String, Object>>() {
+                    });
+                } finally {
+                    response.disconnect();
+                }
+                if (result.get("users") instanceof java.util.List<?> users) {
+                    for (final Object user : users) {
+                        if (user instanceof Map<?, ?> userMap && userMap.get("primaryEmail") instanceof String email) {
+                            consumer.accept(email);
+                        }
+                    }
+                }
+                pageToken = result.get("nextPageToken") instanceof String token ? token : null;
+            } while (pageToken != null);
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to list users in " + domain, e);
+        }
     }
 
     @Override
     public void close() {
-        if (refreshTokenTask != null) {
-            refreshTokenTask.cancel();
+        delegatedClients.values().forEach(GSuiteClient::close);
+        delegatedClients.clear();
+        lock.lock();
+        try {
+            if (batchQueue != null) {
+                batchQueue.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        pageExecutor.shutdownNow();
+        downloadExecutor.shutdownNow();
+        if (requestInitializer != null && parent == null) {
+            logger.info("Closing {}", requestInitializer.rateLimiter);
+        }
+        if (connectionPool != null) {
+            logger.info("Closing {}", connectionPool);
+        }
+        if (credential != null) {
+            if (sharedCredential) {
+                CredentialRegistry.getInstance().release(credential);
+            } else {
+                credential.close();
+            }
         }
     }
 
     /**
-     * Creates a new NetHttpTransport.
-     * @return A new NetHttpTransport.
+     * Creates a new HttpTransport.
+     * @return A new HttpTransport.
      */
-    protected NetHttpTransport newHttpTransport() {
+    protected HttpTransport newHttpTransport() {
+        if (HTTP_TRANSPORT_POOLED.equals(params.getAsString(HTTP_TRANSPORT, HTTP_TRANSPORT_NET))) {
+            return newPooledHttpTransport();
+        }
         try {
             final Builder builder = new NetHttpTransport.Builder().trustCertificates(GoogleUtils.getCertificateTrustStore());
             final String proxyHost = params.getAsString(PROXY_HOST);
@@ -175,6 +610,45 @@ public class GSuiteClient implements AutoCloseable {
         }
     }
 
+    /**
+     * Creates a new HttpTransport with a pool of keep-alive connections.
+     * @return A new HttpTransport.
+     */
+    protected HttpTransport newPooledHttpTransport() {
+        try {
+            final String proxyHost = params.getAsString(PROXY_HOST);
+            final String proxyPort = params.getAsString(PROXY_PORT);
+            final HttpHost proxy = StringUtil.isNotBlank(proxyHost) && StringUtil.isNotBlank(proxyPort)
+                    ? new HttpHost(proxyHost, Integer.parseInt(proxyPort)) : null;
+            final String maxConnections = params.getAsString(MAX_CONNECTIONS);
+            final String idleTimeout = params.getAsString(IDLE_CONNECTION_TIMEOUT);
+            connectionPool = new HttpConnectionPool(GoogleUtils.getCertificateTrustStore(),
+                    StringUtil.isNotBlank(maxConnections) ? Math.max(1, Integer.parseInt(maxConnections)) : DEFAULT_MAX_CONNECTIONS,
+                    StringUtil.isNotBlank(idleTimeout) ? Long.parseLong(idleTimeout) : DEFAULT_IDLE_CONNECTION_TIMEOUT_MS, proxy);
+            return connectionPool.newTransport();
+        } catch (final DataStoreException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new DataStoreException("Failed to create a http transport.", e);
+        }
+    }
+
+    /**
+     * Returns the rate limiter shared by the requests of this client.
+     * @return The rate limiter.
+     */
+    public RateLimiter getRateLimiter() {
+        return requestInitializer != null ? requestInitializer.rateLimiter : null;
+    }
+
+    /**
+     * Returns the connection pool of the pooled transport.
+     * @return The connection pool, or null if the pooled transport is not used.
+     */
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
     /**
      * Creates a new Drive client.
      * @return A new Drive client.
@@ -190,10 +664,20 @@ public class GSuiteClient implements AutoCloseable {
      * @return The Drive client.
      */
     protected Drive getDrive() {
-        if (drive == null) {
-            drive = createGlobalDrive();
+        Drive current = drive;
+        if (current == null) {
+            lock.lock();
+            try {
+                current = drive;
+                if (current == null) {
+                    current = createGlobalDrive();
+                    drive = current;
+                }
+            } finally {
+                lock.unlock();
+            }
         }
-        return drive;
+        return current;
     }
 
     /**
@@ -205,45 +689,388 @@ public class GSuiteClient implements AutoCloseable {
      * @param consumer A consumer for each file.
      */
     public void getFiles(final String q, final String corpora, final String spaces, final String fields, final Consumer<File> consumer) {
+        getFiles(q, corpora, null, spaces, fields, consumer);
+    }
+
+    /**
+     * Retrieves files from Google Drive.
+     * @param q The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param driveId The ID of the shared drive to search in, or null.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for each file.
+     */
+    public void getFiles(final String q, final String corpora, final String driveId, final String spaces, final String fields,
+            final Consumer<File> consumer) {
+        getFilePages(q, corpora, driveId, spaces, fields, null, (pageToken, page) -> {
+            for (final File file : page.getFiles()) {
+                consumer.accept(file);
+            }
+        });
+    }
+
+    /**
+     * Retrieves pages of files from Google Drive.
+     * @param q The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param driveId The ID of the shared drive to search in, or null.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param startPageToken The token of the page to start from, or null.
+     * @param consumer A consumer for the token used to fetch each page and the page.
+     */
+    public void getFilePages(final String q, final String corpora, final String driveId, final String spaces, final String fields,
+            final String startPageToken, final BiConsumer<String, FileList> consumer) {
         if (logger.isDebugEnabled()) {
-            logger.debug("query: {}, corpora: {}, spaces: {}, fields: {}", q, corpora, spaces, fields);
+            logger.debug("query: {}, corpora: {}, driveId: {}, spaces: {}, fields: {}, startPageToken: {}", q, corpora, driveId, spaces,
+                    fields, startPageToken);
+        }
+        try (final PageIterator<FileList> pages = openFilePages(q, corpora, driveId, spaces, fields, startPageToken)) {
+            while (pages.hasNext()) {
+                final FileList page = pages.next();
+                consumer.accept(pages.getPageToken(), page);
+            }
         }
-        long counter = 1;
+    }
+
+    /**
+     * Returns a stream of files which fetches pages on demand.
+     * At most prefetch_pages pages are fetched ahead of the consumer, so a slow consumer slows down the listing
+     * and the memory for the listing stays bounded. The stream must be closed to stop the background fetch
+     * when it is not consumed to the end.
+     * @param q The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param driveId The ID of the shared drive to search in, or null.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @return A stream of files.
+     */
+    public Stream<File> streamFiles(final String q, final String corpora, final String driveId, final String spaces,
+            final String fields) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("query: {}, corpora: {}, driveId: {}, spaces: {}, fields: {}", q, corpora, driveId, spaces, fields);
+        }
+        return streamItems(openFilePages(q, corpora, driveId, spaces, fields, null), FileList::getFiles);
+    }
+
+    /**
+     * Returns a stream of the items in pages, which closes the pages when the stream is closed.
+     * @param <T> The type of a page.
+     * @param <R> The type of an item.
+     * @param pages The pages.
+     * @param itemsFunc A function returning the items in a page, or null.
+     * @return A stream of items.
+     */
+    protected static <T, R> Stream<R> streamItems(final PageIterator<T> pages, final Function<T, Collection<R>> itemsFunc) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(page -> {
+                    final Collection<R> items = itemsFunc.apply(page);
+                    return items != null ? items.stream() : Stream.empty();
+                })
+                .onClose(pages::close);
+    }
+
+    /**
+     * Starts fetching pages of files in the background.
+     * @param q The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param driveId The ID of the shared drive to search in, or null.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param startPageToken The token of the page to start from, or null.
+     * @return An iterator of pages, which must be closed.
+     */
+    protected PageIterator<FileList> openFilePages(final String q, final String corpora, final String driveId, final String spaces,
+            final String fields, final String startPageToken) {
+        final PageSizeController pageSizeController = adaptivePageSize ? newPageSizeController() : null;
+        return new PageIterator<>(pageExecutor, prefetchPages, (pageToken, counter) -> {
+            final List list = createFileListRequest(q, corpora, driveId, spaces, fields).setPageToken(pageToken);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Accessing files: {}=>{}", counter, pageToken);
+            }
+            final FileList result;
+            if (pageSizeController != null) {
+                list.setPageSize(pageSizeController.getPageSize());
+                final long startTime = System.currentTimeMillis();
+                final HttpResponse response = list.executeUnparsed();
+                try (final CountingInputStream in = new CountingInputStream(response.getContent())) {
+                    result = getDrive().getObjectParser().parseAndClose(in, response.getContentCharset(), FileList.class);
+                    pageSizeController.update(System.currentTimeMillis() - startTime, in.getByteCount());
+                } finally {
+                    response.disconnect();
+                }
+            } else {
+                result = list.execute();
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("filelist: {}", result);
+            }
+            return result;
+        }, FileList::getNextPageToken, startPageToken, "Failed to access files.");
+    }
+
+    /**
+     * Counts files up to a limit by listing their IDs.
+     * @param q The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param spaces The spaces to search in.
+     * @param limit The maximum count.
+     * @return The number of files, or the limit if there are more files.
+     */
+    public int countFiles(final String q, final String corpora, final String spaces, final int limit) {
+        int count = 0;
         String pageToken = null;
         try {
             do {
-                final List list = getDrive().files().list().setPageToken(pageToken);
-                if (StringUtil.isNotBlank(q)) {
-                    list.setQ(q);
-                }
-                if (StringUtil.isNotBlank(fields)) {
-                    list.setFields(fields);
+                final FileList result = createFileListRequest(q, corpora, null, spaces, "nextPageToken,files(id)")
+                        .setPageSize(Math.min(MAX_PAGE_SIZE, limit - count))
+                        .setPageToken(pageToken)
+                        .execute();
+                count += result.getFiles().size();
+                pageToken = result.getNextPageToken();
+            } while (pageToken != null && count < limit);
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to count files.", e);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("query: {}, count: {}", q, count);
+        }
+        return Math.min(count, limit);
+    }
+
+    /**
+     * Creates a request for files.list.
+     * @param q The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param driveId The ID of the shared drive to search in, or null.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @return A request for files.list.
+     * @throws IOException If the request cannot be created.
+     */
+    protected List createFileListRequest(final String q, final String corpora, final String driveId, final String spaces,
+            final String fields) throws IOException {
+        final List list = getDrive().files().list();
+        if (StringUtil.isNotBlank(q)) {
+            list.setQ(q);
+        }
+        if (StringUtil.isNotBlank(fields)) {
+            list.setFields(fields);
+        }
+        if (StringUtil.isNotBlank(corpora)) {
+            list.setCorpora(corpora);
+        }
+        if (ALL_DRIVES.equals(corpora) || StringUtil.isNotBlank(driveId)) {
+            list.setIncludeTeamDriveItems(true);
+            list.setSupportsTeamDrives(true);
+        }
+        if (StringUtil.isNotBlank(driveId)) {
+            list.setTeamDriveId(driveId);
+        }
+        if (StringUtil.isNotBlank(spaces)) {
+            list.setSpaces(spaces);
+        }
+        if (pageSize != null) {
+            list.setPageSize(pageSize);
+        }
+        return list;
+    }
+
+    /**
+     * Creates a controller of the page size for a listing.
+     * @return A new PageSizeController.
+     */
+    protected PageSizeController newPageSizeController() {
+        return new PageSizeController(pageSize != null ? pageSize : DEFAULT_ADAPTIVE_PAGE_SIZE, MIN_ADAPTIVE_PAGE_SIZE, MAX_PAGE_SIZE,
+                targetPageLatency, targetPageBytes);
+    }
+
+    /**
+     * Retrieves shared drives from Google Drive.
+     * @param consumer A consumer for each shared drive.
+     */
+    public void getDrives(final Consumer<TeamDrive> consumer) {
+        String pageToken = null;
+        try {
+            do {
+                final TeamDriveList result = getDrive().teamdrives()
+                        .list()
+                        .setPageSize(100)
+                        .setFields("nextPageToken,teamDrives(id,name)")
+                        .setPageToken(pageToken)
+                        .execute();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("drivelist: {}", result);
                 }
-                if (StringUtil.isNotBlank(corpora)) {
-                    list.setCorpora(corpora);
+                for (final TeamDrive teamDrive : result.getTeamDrives()) {
+                    consumer.accept(teamDrive);
                 }
-                if (ALL_DRIVES.equals(corpora)) {
-                    list.setIncludeTeamDriveItems(true);
-                    list.setSupportsTeamDrives(true);
+                pageToken = result.getNextPageToken();
+            } while (pageToken != null);
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to access shared drives.", e);
+        }
+    }
+
+    /**
+     * Returns the token for listing future changes.
+     * @return The start page token.
+     */
+    public String getStartPageToken() {
+        try {
+            final String startPageToken =
+                    getDrive().changes().getStartPageToken().setSupportsTeamDrives(true).execute().getStartPageToken();
+            if (logger.isDebugEnabled()) {
+                logger.debug("startPageToken: {}", startPageToken);
+            }
+            return startPageToken;
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to get a start page token.", e);
+        }
+    }
+
+    /**
+     * Retrieves changes from Google Drive.
+     * @param startPageToken The token to start listing changes from.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each page of changes.
+     * @param consumer A consumer for each change.
+     * @return The start page token for the next crawl.
+     */
+    public String getChanges(final String startPageToken, final String spaces, final String fields, final Consumer<Change> consumer) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("startPageToken: {}, spaces: {}, fields: {}", startPageToken, spaces, fields);
+        }
+        String newStartPageToken = null;
+        try (final PageIterator<ChangeList> pages = new PageIterator<>(pageExecutor, prefetchPages, (pageToken, counter) -> {
+            final Drive.Changes.List list = getDrive().changes()
+                    .list(pageToken)
+                    .setIncludeRemoved(true)
+                    .setIncludeTeamDriveItems(true)
+                    .setSupportsTeamDrives(true);
+            if (StringUtil.isNotBlank(fields)) {
+                list.setFields(fields);
+            }
+            if (StringUtil.isNotBlank(spaces)) {
+                list.setSpaces(spaces);
+            }
+            if (pageSize != null) {
+                list.setPageSize(pageSize);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Accessing changes: {}=>{}", counter, pageToken);
+            }
+            final ChangeList result = list.execute();
+            if (logger.isDebugEnabled()) {
+                logger.debug("changelist: {}", result);
+            }
+            return result;
+        }, ChangeList::getNextPageToken, startPageToken, "Failed to access changes.")) {
+            while (pages.hasNext()) {
+                final ChangeList result = pages.next();
+                for (final Change change : result.getChanges()) {
+                    consumer.accept(change);
                 }
-                if (StringUtil.isNotBlank(spaces)) {
-                    list.setSpaces(spaces);
+                if (result.getNewStartPageToken() != null) {
+                    newStartPageToken = result.getNewStartPageToken();
                 }
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Accessing files: {}=>{}", counter, pageToken);
+            }
+        }
+        return newStartPageToken;
+    }
+
+    /**
+     * Retrieves the metadata of a file.
+     * @param id The ID of the file.
+     * @param fields The fields to retrieve, or null for the default fields.
+     * @return The file.
+     */
+    public File getFile(final String id, final String fields) {
+        try {
+            final Drive.Files.Get request = getDrive().files().get(id).setSupportsTeamDrives(true);
+            if (StringUtil.isNotBlank(fields)) {
+                request.setFields(fields);
+            }
+            return request.execute();
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to get a file: " + id, e);
+        }
+    }
+
+    /**
+     * Returns the queue of batched calls.
+     * @return The batch request queue.
+     */
+    protected BatchRequestQueue getBatchQueue() {
+        BatchRequestQueue current = batchQueue;
+        if (current == null) {
+            lock.lock();
+            try {
+                current = batchQueue;
+                if (current == null) {
+                    final String batchSize = params.getAsString(BATCH_SIZE);
+                    final String batchLinger = params.getAsString(BATCH_LINGER);
+                    current = new BatchRequestQueue(() -> getDrive().batch().setBatchUrl(new GenericUrl(DRIVE_BATCH_URL)),
+                            StringUtil.isNotBlank(batchSize) ? Integer.parseInt(batchSize) : BatchRequestQueue.MAX_BATCH_SIZE,
+                            StringUtil.isNotBlank(batchLinger) ? Long.parseLong(batchLinger) : DEFAULT_BATCH_LINGER_MS, pageExecutor);
+                    batchQueue = current;
                 }
-                final FileList result = list.execute();
-                if (logger.isDebugEnabled()) {
-                    logger.debug("filelist: {}", result);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Queues a call to be sent in a batch request.
+     * Calls from many threads are combined into one HTTP request of up to batch_size calls.
+     * @param <T> The type of the response.
+     * @param request The request of the call.
+     * @return A future completed with the response.
+     */
+    public <T> CompletableFuture<T> queue(final DriveRequest<T> request) {
+        return getBatchQueue().submit(request);
+    }
+
+    /**
+     * Retrieves the permissions of a file in a batch request.
+     * @param id The ID of the file.
+     * @return A future completed with the permissions.
+     */
+    public CompletableFuture<java.util.List<Permission>> getPermissionsAsync(final String id) {
+        try {
+            final Drive.Permissions.List request =
+                    getDrive().permissions().list(id).setSupportsTeamDrives(true).setPageSize(100).setFields(PERMISSION_FIELDS);
+            return queue(request).thenApply(result -> {
+                final java.util.List<Permission> permissions = new ArrayList<>();
+                if (result.getPermissions() != null) {
+                    permissions.addAll(result.getPermissions());
                 }
-                for (final File file : result.getFiles()) {
-                    consumer.accept(file);
+                String pageToken = result.getNextPageToken();
+                try {
+                    while (pageToken != null) {
+                        // rare, so the remaining pages are fetched directly
+                        final PermissionList next = getDrive().permissions()
+                                .list(id)
+                                .setSupportsTeamDrives(true)
+                                .setPageSize(100)
+                                .setFields(PERMISSION_FIELDS)
+                                .setPageToken(pageToken)
+                                .execute();
+                        if (next.getPermissions() != null) {
+                            permissions.addAll(next.getPermissions());
+                        }
+                        pageToken = next.getNextPageToken();
+                    }
+                } catch (final IOException e) {
+                    throw new DataStoreException("Failed to get permissions of " + id, e);
                 }
-                pageToken = result.getNextPageToken();
-                counter++;
-            } while (pageToken != null);
+                return permissions;
+            });
         } catch (final IOException e) {
-            throw new DataStoreException("Failed to access files.", e);
+            throw new DataStoreException("Failed to get permissions of " + id, e);
         }
     }
 
@@ -254,9 +1081,45 @@ public class GSuiteClient implements AutoCloseable {
      * @return The text of the file.
      */
     public String extractFileText(final String id, final String mimeType) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            getDrive().files().export(id, mimeType).executeMediaAndDownloadTo(out);
-            return out.toString(Constants.UTF_8);
+        return extractFileText(id, mimeType, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Extracts the text from a file, decoding the export while it is downloaded.
+     * The download stops as soon as the text exceeds the maximum length.
+     * @param id The ID of the file.
+     * @param mimeType The mime type of the export.
+     * @param maxLength The maximum number of characters.
+     * @param truncate true to return the first maxLength characters of a longer text, or false to reject it.
+     * @return The text of the file.
+     * @throws MaxLengthExceededException If the text is longer than maxLength and truncate is false.
+     */
+    public String extractFileText(final String id, final String mimeType, final long maxLength, final boolean truncate) {
+        try {
+            final HttpResponse response = getDrive().files().export(id, mimeType).executeMedia();
+            try (Reader reader = new InputStreamReader(response.getContent(), Constants.UTF_8)) {
+                final StringBuilder buf = new StringBuilder();
+                final char[] chars = new char[8192];
+                int n;
+                while ((n = reader.read(chars)) != -1) {
+                    if (buf.length() + n > maxLength) {
+                        if (!truncate) {
+                            throw new MaxLengthExceededException("The exported text of " + id + " is over " + maxLength + " characters.");
+                        }
+                        buf.append(chars, 0, (int) (maxLength - buf.length()));
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Truncated the exported text of {} at {} characters.", id, maxLength);
+                        }
+                        break;
+                    }
+                    buf.append(chars, 0, n);
+                }
+                return buf.toString();
+            } finally {
+                response.disconnect();
+            }
+        } catch (final MaxLengthExceededException e) {
+            throw e;
         } catch (final Exception e) {
             throw new CrawlingAccessException("Failed to extract a text from " + id, e);
         }
@@ -268,6 +1131,36 @@ public class GSuiteClient implements AutoCloseable {
      * @return An input stream for the file.
      */
     public InputStream getFileInputStream(final String id) {
+        return getFileInputStream(id, null);
+    }
+
+    /**
+     * Returns an input stream for a file, downloading it in parallel ranges if it is larger than ranged_download_threshold.
+     * @param id The ID of the file.
+     * @param size The size of the file in bytes, or null if unknown.
+     * @return An input stream for the file.
+     */
+    public InputStream getFileInputStream(final String id, final Long size) {
+        return getFileInputStream(id, size, null);
+    }
+
+    /**
+     * Returns an input stream for a file.
+     * A file larger than ranged_download_threshold is downloaded in parallel ranges.
+     * In pipe mode, a file whose extractor reads it sequentially is streamed while it is downloaded.
+     * Other files are buffered in memory, or in a temporary file above max_cached_content_size.
+     * @param id The ID of the file.
+     * @param size The size of the file in bytes, or null if unknown.
+     * @param mimeType The mime type of the file, or null if unknown.
+     * @return An input stream for the file.
+     */
+    public InputStream getFileInputStream(final String id, final Long size, final String mimeType) {
+        if (rangedDownloader != null && size != null && size > rangedDownloadThreshold) {
+            return getFileInputStreamByRange(id, size);
+        }
+        if (pipeDownload && mimeType != null && !randomAccessMimeTypePattern.matcher(mimeType).matches()) {
+            return getFileInputStreamByPipe(id);
+        }
         try (final DeferredFileOutputStream dfos =
                 new DeferredFileOutputStream(maxCachedContentSize, "crawler-GSuiteClient-", ".out", SystemUtils.getJavaIoTmpDir())) {
             getDrive().files().get(id).executeMediaAndDownloadTo(dfos);
@@ -282,6 +1175,303 @@ public class GSuiteClient implements AutoCloseable {
         }
     }
 
+    /**
+     * Streams a file through a bounded buffer while it is downloaded in the background.
+     * The download starts when the extractor first reads the stream, so the number of running downloads
+     * is bounded by the number of extracting threads, and no connection waits for a busy extractor.
+     * An error of the download is thrown to the reader, and closing the stream stops the download.
+     * @param id The ID of the file.
+     * @return An input stream for the file.
+     */
+    protected InputStream getFileInputStreamByPipe(final String id) {
+        final BoundedPipe pipe = new BoundedPipe(pipeBufferSize);
+        pipe.setWriterStarter(() -> downloadExecutor.execute(() -> {
+            try {
+                getDrive().files().get(id).executeMediaAndDownloadTo(pipe.getOutputStream());
+                pipe.getOutputStream().close();
+            } catch (final Exception e) {
+                pipe.fail(e);
+            }
+        }));
+        return pipe.getInputStream();
+    }
+
+    /**
+     * Downloads a file in parallel ranges into a temporary file.
+     * @param id The ID of the file.
+     * @param size The size of the file in bytes.
+     * @return An input stream for the file.
+     */
+    protected InputStream getFileInputStreamByRange(final String id, final long size) {
+        java.io.File tempFile = null;
+        try {
+            tempFile = java.io.File.createTempFile("crawler-GSuiteClient-", ".out", SystemUtils.getJavaIoTmpDir());
+            rangedDownloader.download((start, end, out) -> {
+                final Drive.Files.Get request = getDrive().files().get(id);
+                request.getRequestHeaders().setRange("bytes=" + start + "-" + end);
+                final HttpResponse response = request.executeMedia();
+                try {
+                    if (response.getStatusCode() != 206 && (start > 0 || end < size - 1)) {
+                        throw new IOException("The range request was not accepted: " + response.getStatusCode());
+                    }
+                    response.download(out);
+                } finally {
+                    response.disconnect();
+                }
+            }, size, tempFile);
+            return new TemporaryFileInputStream(tempFile);
+        } catch (final Exception e) {
+            if (tempFile != null && !tempFile.delete()) {
+                logger.warn("Failed to delete {}", tempFile.getAbsolutePath());
+            }
+            throw new CrawlingAccessException("Failed to create an input stream from " + id, e);
+        }
+    }
+
+    /**
+     * A function to fetch a page.
+     * @param <T> The type of a page.
+     */
+    @FunctionalInterface
+    protected interface PageFetcher<T> {
+        /**
+         * Fetches a page.
+         * @param pageToken The token of the page, or null for the first page.
+         * @param counter The number of the page, starting from 1.
+         * @return The page.
+         * @throws IOException If the page cannot be fetched.
+         */
+        T fetch(String pageToken, long counter) throws IOException;
+    }
+
+    /**
+     * An iterator over pages which fetches the following pages in the background.
+     * At most the given number of pages are buffered ahead of the consumer.
+     * @param <T> The type of a page.
+     */
+    protected static class PageIterator<T> implements Iterator<T>, AutoCloseable {
+
+        /** The buffered pages. */
+        protected final BlockingQueue<PageResult<T>> queue;
+
+        /** The background task fetching pages. */
+        protected final Future<?> future;
+
+        /** The message of an exception thrown on a failure. */
+        protected final String errorMessage;
+
+        /** The page returned by the next call of next(). */
+        protected PageResult<T> nextResult;
+
+        /** Whether the last page was consumed. */
+        protected boolean finished;
+
+        /** The token of the page returned by the last call of next(). */
+        protected String pageToken;
+
+        /**
+         * Constructs a new PageIterator and starts fetching pages.
+         * @param executor The executor to fetch pages on.
+         * @param bufferSize The maximum number of buffered pages.
+         * @param fetcher The function to fetch a page.
+         * @param nextPageTokenFunc The function to get the next page token from a page.
+         * @param startPageToken The token of the first page, or null.
+         * @param errorMessage The message of an exception thrown on a failure.
+         */
+        protected PageIterator(final ExecutorService executor, final int bufferSize, final PageFetcher<T> fetcher,
+                final Function<T, String> nextPageTokenFunc, final String startPageToken, final String errorMessage) {
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+            this.errorMessage = errorMessage;
+            this.future = executor.submit(() -> {
+                String pageToken = startPageToken;
+                long counter = 1;
+                PageResult<T> terminal = new PageResult<>(null, null, null);
+                try {
+                    do {
+                        final T page = fetcher.fetch(pageToken, counter);
+                        queue.put(new PageResult<>(page, pageToken, null));
+                        pageToken = nextPageTokenFunc.apply(page);
+                        counter++;
+                    } while (pageToken != null);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    terminal = new PageResult<>(null, null, e);
+                } catch (final Throwable t) {
+                    terminal = new PageResult<>(null, null, t);
+                } finally {
+                    publish(terminal);
+                }
+            });
+        }
+
+        /**
+         * Publishes the end marker or the error after the fetched pages, so that the consumer never waits forever.
+         * If the task was interrupted, the oldest buffered pages are dropped to make room:
+         * the iterator was closed, or the consumer stops at the error.
+         * @param terminal The end marker or the error.
+         */
+        protected void publish(final PageResult<T> terminal) {
+            if (!Thread.currentThread().isInterrupted()) {
+                try {
+                    queue.put(terminal);
+                    return;
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            while (!queue.offer(terminal)) {
+                queue.poll();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextResult == null && !finished) {
+                try {
+                    nextResult = queue.take();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedRuntimeException(e);
+                }
+                if (nextResult.error != null) {
+                    final Throwable error = nextResult.error;
+                    nextResult = null;
+                    finished = true;
+                    if (error instanceof DataStoreException e) {
+                        throw e;
+                    }
+                    if (error instanceof InterruptedException e) {
+                        throw new InterruptedRuntimeException(e);
+                    }
+                    throw new DataStoreException(errorMessage, error);
+                }
+                if (nextResult.page == null) {
+                    nextResult = null;
+                    finished = true;
+                }
+            }
+            return nextResult != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final T page = nextResult.page;
+            pageToken = nextResult.pageToken;
+            nextResult = null;
+            return page;
+        }
+
+        /**
+         * Returns the token used to fetch the page returned by the last call of next().
+         * @return The page token, or null for the first page.
+         */
+        public String getPageToken() {
+            return pageToken;
+        }
+
+        @Override
+        public void close() {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * A page or an error passed from the background task.
+     * @param <T> The type of a page.
+     */
+    protected static class PageResult<T> {
+        /** The page, or null at the end. */
+        protected final T page;
+        /** The token used to fetch the page. */
+        protected final String pageToken;
+        /** The error, or null. */
+        protected final Throwable error;
+
+        /**
+         * Constructs a new PageResult.
+         * @param page The page.
+         * @param pageToken The token used to fetch the page.
+         * @param error The error.
+         */
+        protected PageResult(final T page, final String pageToken, final Throwable error) {
+            this.page = page;
+            this.pageToken = pageToken;
+            this.error = error;
+        }
+    }
+
+    /**
+     * A controller of the page size which shrinks pages that are slow or large,
+     * and grows them again while pages are cheap.
+     */
+    protected static class PageSizeController {
+
+        /** The minimum page size. */
+        protected final int minPageSize;
+
+        /** The maximum page size. */
+        protected final int maxPageSize;
+
+        /** The target latency of a page in milliseconds. */
+        protected final long targetLatency;
+
+        /** The target size of a page in bytes. */
+        protected final long targetBytes;
+
+        /** The current page size. */
+        protected volatile int pageSize;
+
+        /**
+         * Constructs a new PageSizeController.
+         * @param initialPageSize The initial page size.
+         * @param minPageSize The minimum page size.
+         * @param maxPageSize The maximum page size.
+         * @param targetLatency The target latency of a page in milliseconds.
+         * @param targetBytes The target size of a page in bytes.
+         */
+        protected PageSizeController(final int initialPageSize, final int minPageSize, final int maxPageSize, final long targetLatency,
+                final long targetBytes) {
+            this.minPageSize = minPageSize;
+            this.maxPageSize = maxPageSize;
+            this.targetLatency = targetLatency;
+            this.targetBytes = targetBytes;
+            this.pageSize = Math.max(minPageSize, Math.min(maxPageSize, initialPageSize));
+        }
+
+        /**
+         * Returns the page size for the next request.
+         * @return The page size.
+         */
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        /**
+         * Updates the page size from the cost of a page.
+         * The page size is halved when a target is exceeded, and grows by a quarter
+         * when the page took less than half of both targets.
+         * @param latency The latency of the page in milliseconds.
+         * @param bytes The size of the page in bytes.
+         */
+        public void update(final long latency, final long bytes) {
+            final int current = pageSize;
+            final int next;
+            if (latency > targetLatency || bytes > targetBytes) {
+                next = Math.max(minPageSize, current / 2);
+            } else if (latency < targetLatency / 2 && bytes < targetBytes / 2) {
+                next = Math.min(maxPageSize, current + Math.max(1, current / 4));
+            } else {
+                next = current;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("page size: {} -> {} (latency: {}ms, bytes: {})", current, next, latency, bytes);
+            }
+            pageSize = next;
+        }
+    }
+
     /**
      * A response from the token endpoint.
      */
@@ -331,7 +1521,7 @@ public class GSuiteClient implements AutoCloseable {
     protected static class RequestInitializer implements HttpRequestInitializer, TimeoutTarget {
 
         /** The HTTP transport. */
-        protected NetHttpTransport httpTransport;
+        protected HttpTransport httpTransport;
 
         /** The private key in PEM format. */
         protected String privateKeyPem;
@@ -339,20 +1529,55 @@ public class GSuiteClient implements AutoCloseable {
         protected String privateKeyId;
         /** The client email. */
         protected String clientEmail;
+        /** The user to impersonate, which is the service account itself by default. */
+        protected String subject;
+        /** The OAuth2 scope of the access token. */
+        protected String scope = DRIVE_SCOPE;
         /** The access token. */
-        protected String accessToken;
+        protected volatile String accessToken;
+        /** The time at which the access token is refreshed, in milliseconds. */
+        protected volatile long refreshAt;
+        /** The time before the expiry of an access token at which it is refreshed, in milliseconds. */
+        protected long refreshMargin = DEFAULT_TOKEN_REFRESH_MARGIN_MS;
+        /** The maximum lifetime of an access token in milliseconds, or 0 to use expires_in of the token endpoint. */
+        protected long maxTokenLifetime;
+        /** The lock to refresh the access token in one thread at a time. */
+        protected final ReentrantLock refreshLock = new ReentrantLock();
+        /** The algorithm to sign JWTs with the private key, created on first use. */
+        protected volatile Algorithm algorithm;
         /** The read timeout in milliseconds. */
         protected int readTimeout = DEFAULT_READ_TIMEOUT_MS;
         /** The connect timeout in milliseconds. */
         protected int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MS;
+        /** The rate limiter shared by all requests. */
+        protected RateLimiter rateLimiter;
+        /** The maximum number of retries of a rate-limited request. */
+        protected int maxRetries = DEFAULT_MAX_RETRIES;
+        /** The initial backoff time in milliseconds. */
+        protected long backoffInitialInterval = DEFAULT_BACKOFF_INITIAL_INTERVAL_MS;
+        /** The maximum backoff time in milliseconds. */
+        protected long backoffMaxInterval = DEFAULT_BACKOFF_MAX_INTERVAL_MS;
 
         /**
          * Constructs a new RequestInitializer.
          * @param params The data store parameters.
          * @param httpTransport The HTTP transport.
          */
-        protected RequestInitializer(final DataStoreParams params, final NetHttpTransport httpTransport) {
+        protected RequestInitializer(final DataStoreParams params, final HttpTransport httpTransport) {
+            this(params, httpTransport, null, DRIVE_SCOPE);
+        }
+
+        /**
+         * Constructs a new RequestInitializer which impersonates a user.
+         * @param params The data store parameters.
+         * @param httpTransport The HTTP transport.
+         * @param subject The user to impersonate, or null for the service account itself.
+         * @param scope The OAuth2 scope of the access token.
+         */
+        protected RequestInitializer(final DataStoreParams params, final HttpTransport httpTransport, final String subject,
+                final String scope) {
             this.httpTransport = httpTransport;
+            this.scope = scope;
 
             privateKeyPem = params.getAsString(PRIVATE_KEY_PARAM, StringUtil.EMPTY);
             privateKeyId = params.getAsString(PRIVATE_KEY_ID_PARAM, StringUtil.EMPTY);
@@ -363,6 +1588,7 @@ public class GSuiteClient implements AutoCloseable {
                         PRIVATE_KEY_ID_PARAM + "', '" + //
                         CLIENT_EMAIL_PARAM + "' is required");
             }
+            this.subject = StringUtil.isNotBlank(subject) ? subject : clientEmail;
             final String readTimeoutStr = params.getAsString(READ_TIMEOUT);
             if (StringUtil.isNotBlank(readTimeoutStr)) {
                 readTimeout = Integer.parseInt(readTimeoutStr);
@@ -371,7 +1597,71 @@ public class GSuiteClient implements AutoCloseable {
             if (StringUtil.isNotBlank(connectTimeoutStr)) {
                 connectTimeout = Integer.parseInt(connectTimeoutStr);
             }
-            refreshToken();
+            rateLimiter = new RateLimiter(Double.parseDouble(params.getAsString(RATE_LIMIT_PER_SECOND, "0")),
+                    Double.parseDouble(params.getAsString(RATE_LIMIT_PER_100_SECONDS, "0")));
+            final String maxRetriesStr = params.getAsString(MAX_RETRIES);
+            if (StringUtil.isNotBlank(maxRetriesStr)) {
+                maxRetries = Math.max(0, Integer.parseInt(maxRetriesStr));
+            }
+            final String backoffInitialIntervalStr = params.getAsString(BACKOFF_INITIAL_INTERVAL);
+            if (StringUtil.isNotBlank(backoffInitialIntervalStr)) {
+                backoffInitialInterval = Long.parseLong(backoffInitialIntervalStr);
+            }
+            final String backoffMaxIntervalStr = params.getAsString(BACKOFF_MAX_INTERVAL);
+            if (StringUtil.isNotBlank(backoffMaxIntervalStr)) {
+                backoffMaxInterval = Long.parseLong(backoffMaxIntervalStr);
+            }
+            final String refreshMarginStr = params.getAsString(TOKEN_REFRESH_MARGIN);
+            if (StringUtil.isNotBlank(refreshMarginStr)) {
+                refreshMargin = Long.parseLong(refreshMarginStr) * 1000L;
+            }
+            final String refreshTokenIntervalStr = params.getAsString(REFRESH_TOKEN_INTERVAL);
+            if (StringUtil.isNotBlank(refreshTokenIntervalStr)) {
+                maxTokenLifetime = Long.parseLong(refreshTokenIntervalStr) * 1000L;
+            }
+            if (httpTransport != null) {
+                refreshToken(null);
+            }
+        }
+
+        /**
+         * Returns the access token, refreshing it first if it is about to expire.
+         * @return The access token.
+         */
+        protected String getAccessToken() {
+            final String token = accessToken;
+            if (token != null && !isExpiring(System.currentTimeMillis())) {
+                return token;
+            }
+            refreshToken(token);
+            return accessToken;
+        }
+
+        /**
+         * Returns whether the access token should be refreshed.
+         * @param now The current time in milliseconds.
+         * @return true if the token is about to expire.
+         */
+        protected boolean isExpiring(final long now) {
+            return now >= refreshAt;
+        }
+
+        /**
+         * Refreshes the access token unless another thread has already replaced the stale one.
+         * Threads which need a new token at the same time wait for a single refresh.
+         * @param staleToken The token which expired or was rejected, or null.
+         */
+        protected void refreshToken(final String staleToken) {
+            refreshLock.lock();
+            try {
+                final String current = accessToken;
+                if (current != null && !current.equals(staleToken) && !isExpiring(System.currentTimeMillis())) {
+                    return;
+                }
+                refreshToken();
+            } finally {
+                refreshLock.unlock();
+            }
         }
 
         /**
@@ -380,7 +1670,8 @@ public class GSuiteClient implements AutoCloseable {
          * 1. Creates a JWT (JSON Web Token) signed with the service account's private key
          * 2. Sends the JWT to Google's token endpoint
          * 3. Receives and stores the access token for API requests
-         * The access token is automatically refreshed periodically based on the configured interval.
+         * The token is refreshed again before expires_in of the response elapses, minus the refresh margin.
+         * If the response has no expires_in, the token is assumed to live for the default refresh token interval.
          */
         protected void refreshToken() {
             if (httpTransport == null) {
@@ -396,12 +1687,12 @@ public class GSuiteClient implements AutoCloseable {
                 final String jwt = JWT.create() //
                         .withKeyId(privateKeyId) // Service account key ID
                         .withIssuer(clientEmail) // Service account email (issuer)
-                        .withSubject(clientEmail) // Service account email (subject)
+                        .withSubject(subject) // Service account email, or the user to impersonate
                         .withAudience("https://www.googleapis.com/oauth2/v4/token") // Google's token endpoint
-                        .withClaim("scope", "https://www.googleapis.com/auth/drive") // Request Drive API access
+                        .withClaim("scope", scope) // Request Drive API access
                         .withIssuedAt(new Date(now)) // Current timestamp
                         .withExpiresAt(new Date(now + JWT_TOKEN_VALIDITY_MS)) // JWT expires in 1 hour
-                        .sign(Algorithm.RSA256(null, (RSAPrivateKey) getPrivateKey())); // Sign with private key
+                        .sign(getAlgorithm()); // Sign with private key
                 if (logger.isDebugEnabled()) {
                     logger.debug("jwt: {}", jwt);
                 }
@@ -429,7 +1720,20 @@ public class GSuiteClient implements AutoCloseable {
                                         : "null",
                                 newToken != null ? newToken.substring(newToken.length() - Math.min(4, newToken.length())) : "null");
                     }
+                    if (StringUtil.isBlank(token.getAccessToken())) {
+                        throw new DataStoreException("No access token: " + token.getError() + " " + token.getErrorDescription());
+                    }
+                    long lifetime = token.getExpiresIn() != null ? token.getExpiresIn() * 1000L
+                            : Long.parseLong(DEFAULT_REFRESH_TOKEN_INTERVAL) * 1000L;
+                    if (maxTokenLifetime > 0) {
+                        lifetime = Math.min(lifetime, maxTokenLifetime);
+                    }
+                    // a short-lived token is refreshed at the latest halfway through its lifetime
+                    refreshAt = now + lifetime - Math.min(refreshMargin, lifetime / 2);
                     accessToken = token.getAccessToken();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("The access token expires in {} ms.", lifetime);
+                    }
                 } finally {
                     response.disconnect();
                 }
@@ -438,6 +1742,21 @@ public class GSuiteClient implements AutoCloseable {
             }
         }
 
+        /**
+         * Returns the algorithm to sign JWTs, parsing the private key only once.
+         * @return The algorithm.
+         * @throws NoSuchAlgorithmException If the RSA algorithm is not available.
+         * @throws InvalidKeySpecException If the key specification is invalid.
+         */
+        protected Algorithm getAlgorithm() throws NoSuchAlgorithmException, InvalidKeySpecException {
+            Algorithm value = algorithm;
+            if (value == null) {
+                value = Algorithm.RSA256(null, (RSAPrivateKey) getPrivateKey());
+                algorithm = value;
+            }
+            return value;
+        }
+
         /**
          * Returns the private key.
          * Parses a PEM-encoded private key by removing header/footer lines and newlines,
@@ -475,8 +1794,12 @@ public class GSuiteClient implements AutoCloseable {
 
         @Override
         public void expired() {
+            final String token = accessToken;
+            if (token == null || !isExpiring(System.currentTimeMillis())) {
+                return;
+            }
             try {
-                refreshToken();
+                refreshToken(token);
             } catch (final Exception e) {
                 logger.warn("Failed to refresh an access token.", e);
             }
@@ -484,11 +1807,179 @@ public class GSuiteClient implements AutoCloseable {
 
         @Override
         public void initialize(final HttpRequest request) throws IOException {
-            request.getHeaders().setAuthorization("Bearer " + accessToken);
             request.setReadTimeout(readTimeout);
             request.setConnectTimeout(connectTimeout);
+            final HttpExecuteInterceptor interceptor = request.getInterceptor();
+            request.setInterceptor(r -> {
+                rateLimiter.acquire();
+                // set on each attempt so that a retry uses a refreshed token
+                r.getHeaders().setAuthorization("Bearer " + getAccessToken());
+                if (interceptor != null) {
+                    interceptor.intercept(r);
+                }
+            });
+            // one more attempt for a retry with a refreshed token
+            request.setNumberOfRetries(maxRetries + 1);
+            request.setUnsuccessfulResponseHandler(new BackoffHandler(rateLimiter, maxRetries, backoffInitialInterval, backoffMaxInterval,
+                    this::refreshToken, request.getUnsuccessfulResponseHandler()));
+        }
+
+    }
+
+    /**
+     * Retries requests which exceeded a rate limit or were rejected with an expired access token.
+     * A 429 response or a 403 response with a rate limit reason throttles the shared rate limiter
+     * for the time in Retry-After, or an exponentially growing time with jitter, and the request is retried.
+     * A 401 response refreshes the access token and the request is retried once.
+     */
+    protected static class BackoffHandler implements HttpUnsuccessfulResponseHandler {
+
+        /** The rate limiter to throttle. */
+        protected final RateLimiter rateLimiter;
+        /** The maximum number of retries of a rate-limited request. */
+        protected final int maxRetries;
+        /** The initial backoff time in milliseconds. */
+        protected final long initialInterval;
+        /** The maximum backoff time in milliseconds. */
+        protected final long maxInterval;
+        /** The function to refresh a rejected access token, or null. */
+        protected final Consumer<String> tokenRefresher;
+        /** The handler of other responses, or null. */
+        protected final HttpUnsuccessfulResponseHandler delegate;
+        /** The number of retries so far. */
+        protected int retryCount;
+        /** Whether the request was retried with a refreshed access token. */
+        protected boolean tokenRefreshed;
+
+        /**
+         * Constructs a new BackoffHandler.
+         * @param rateLimiter The rate limiter to throttle.
+         * @param maxRetries The maximum number of retries of a rate-limited request.
+         * @param initialInterval The initial backoff time in milliseconds.
+         * @param maxInterval The maximum backoff time in milliseconds.
+         * @param tokenRefresher The function to refresh a rejected access token, or null.
+         * @param delegate The handler of other responses, or null.
+         */
+        protected BackoffHandler(final RateLimiter rateLimiter, final int maxRetries, final long initialInterval, final long maxInterval,
+                final Consumer<String> tokenRefresher, final HttpUnsuccessfulResponseHandler delegate) {
+            this.rateLimiter = rateLimiter;
+            this.maxRetries = maxRetries;
+            this.initialInterval = initialInterval;
+            this.maxInterval = maxInterval;
+            this.tokenRefresher = tokenRefresher;
+            this.delegate = delegate;
         }
 
+        @Override
+        public boolean handleResponse(final HttpRequest request, final HttpResponse response, final boolean supportsRetry)
+                throws IOException {
+            final int statusCode = response.getStatusCode();
+            if (statusCode == 401 && supportsRetry && tokenRefresher != null && !tokenRefreshed) {
+                tokenRefreshed = true;
+                final String authorization = request.getHeaders().getAuthorization();
+                logger.info("Unauthorized: refreshing the access token and retrying {}.", request.getUrl().getRawPath());
+                tokenRefresher.accept(authorization != null && authorization.startsWith("Bearer ") ? authorization.substring(7) : null);
+                return true;
+            }
+            if (statusCode == 403) {
+                if (!isRateLimited(response)) {
+                    return false;
+                }
+            } else if (statusCode != 429) {
+                return delegate != null && delegate.handleResponse(request, response, supportsRetry);
+            }
+            if (!supportsRetry || retryCount >= maxRetries) {
+                return false;
+            }
+            final long delay = getDelay(response.getHeaders().getFirstHeaderStringValue("Retry-After"), System.currentTimeMillis());
+            retryCount++;
+            logger.info("Rate limit exceeded ({}): retrying {} in {} ms ({} of {}).", statusCode, request.getUrl().getRawPath(), delay,
+                    retryCount, maxRetries);
+            rateLimiter.throttle(delay);
+            return true;
+        }
+
+        /**
+         * Returns true if a 403 response reports an exceeded rate limit.
+         * The content is peeked, so the caller still gets the error with its details.
+         * @param response The response.
+         * @return true if a rate limit was exceeded.
+         * @throws IOException if the content cannot be read.
+         */
+        protected boolean isRateLimited(final HttpResponse response) throws IOException {
+            final InputStream in = response.getContent();
+            if (in == null) {
+                return false;
+            }
+            final byte[] head;
+            if (in.markSupported()) {
+                in.mark(MAX_ERROR_CONTENT_PEEK_SIZE);
+                try {
+                    head = in.readNBytes(MAX_ERROR_CONTENT_PEEK_SIZE);
+                } finally {
+                    in.reset();
+                }
+            } else {
+                head = in.readNBytes(MAX_ERROR_CONTENT_PEEK_SIZE);
+                restoreContent(response, new SequenceInputStream(new ByteArrayInputStream(head), in));
+            }
+            return RATE_LIMIT_REASON_PATTERN.matcher(new String(head, response.getContentCharset())).find();
+        }
+
+        /**
+         * Puts back the peeked content of a response, because HttpResponse returns the same stream to every reader.
+         * If it fails, the error thrown to the caller has no details.
+         * @param response The response.
+         * @param content The whole content.
+         */
+        protected void restoreContent(final HttpResponse response, final InputStream content) {
+            try {
+                final Field field = HttpResponse.class.getDeclaredField("content");
+                field.setAccessible(true);
+                field.set(response, content);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                logger.debug("Failed to restore the content of the response.", e);
+            }
+        }
+
+        /**
+         * Returns the time to wait before the next retry.
+         * @param retryAfter The value of the Retry-After header, or null.
+         * @param now The current time in milliseconds.
+         * @return The time in milliseconds.
+         */
+        protected long getDelay(final String retryAfter, final long now) {
+            final long retryAfterDelay = parseRetryAfter(retryAfter, now);
+            if (retryAfterDelay >= 0) {
+                return retryAfterDelay;
+            }
+            final long interval = Math.min(maxInterval, initialInterval << Math.min(retryCount, 30));
+            // equal jitter: half of the interval plus a random part of the other half
+            return interval / 2 + ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+        }
+
+        /**
+         * Parses a Retry-After header in seconds or as an HTTP date.
+         * @param retryAfter The value of the header, or null.
+         * @param now The current time in milliseconds.
+         * @return The time to wait in milliseconds, or -1 if the value is invalid.
+         */
+        protected static long parseRetryAfter(final String retryAfter, final long now) {
+            if (StringUtil.isBlank(retryAfter)) {
+                return -1;
+            }
+            try {
+                return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000L);
+            } catch (final NumberFormatException e) {
+                // not in seconds
+            }
+            try {
+                final long time = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, time - now);
+            } catch (final DateTimeParseException e) {
+                return -1;
+            }
+        }
     }
 
     /**
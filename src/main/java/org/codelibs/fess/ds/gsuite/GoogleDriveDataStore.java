@@ -15,21 +15,41 @@
  */
 package org.codelibs.fess.ds.gsuite;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.apache.commons.lang3.SystemUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codelibs.core.exception.InterruptedRuntimeException;
@@ -45,6 +65,7 @@ import org.codelibs.fess.ds.AbstractDataStore;
 import org.codelibs.fess.ds.callback.IndexUpdateCallback;
 import org.codelibs.fess.entity.DataStoreParams;
 import org.codelibs.fess.exception.DataStoreCrawlingException;
+import org.codelibs.fess.exception.DataStoreException;
 import org.codelibs.fess.helper.CrawlerStatsHelper;
 import org.codelibs.fess.helper.CrawlerStatsHelper.StatsAction;
 import org.codelibs.fess.helper.CrawlerStatsHelper.StatsKeyObject;
@@ -54,6 +75,8 @@ import org.codelibs.fess.util.ComponentUtil;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.drive.model.Change;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.Permission;
 import com.google.api.services.drive.model.User;
@@ -68,9 +91,12 @@ public class GoogleDriveDataStore extends AbstractDataStore {
     /** Default maximum size of a file to be indexed. */
     protected static final long DEFAULT_MAX_SIZE = 10000000L; // 10m
 
-    /** Default thread pool termination timeout in seconds. */
+    /** Interval in seconds at which the progress of the executor is logged while waiting for its termination. */
     protected static final long DEFAULT_THREAD_POOL_TIMEOUT_SECONDS = 60L;
 
+    /** Pattern for extracting the file fields from a files.list fields mask. */
+    protected static final Pattern FILES_FIELDS_PATTERN = Pattern.compile("(?:^|,)\\s*files\\((.*)\\)");
+
     /** Pattern for matching Google Apps MIME types. */
     protected static final Pattern GOOGLE_APPS_MIMETYPE_PATTERN = Pattern.compile("application/vnd\\.google-apps\\.(.*)");
 
@@ -89,10 +115,131 @@ public class GoogleDriveDataStore extends AbstractDataStore {
     protected static final String EXCLUDE_PATTERN = "exclude_pattern";
     /** Parameter key for the URL filter. */
     protected static final String URL_FILTER = "url_filter";
+    /** Configuration key for the script expressions compiled for a crawl. */
+    protected static final String COMPILED_SCRIPTS = "compiled_scripts";
+    /** Configuration key for the fields mask of files.list, derived from the scripts once for a crawl. */
+    protected static final String LIST_FIELDS = "list_fields";
+    /** Configuration key for the snapshot of the parameters of a crawl, which is never modified. */
+    protected static final String CRAWL_PARAMS = "crawl_params";
     /** Parameter key for default permissions. */
     protected static final String DEFAULT_PERMISSIONS = "default_permissions";
     /** Parameter key for the number of threads. */
     protected static final String NUMBER_OF_THREADS = "number_of_threads";
+    /** Parameter key for enabling incremental crawling with the Changes API. */
+    protected static final String INCREMENTAL = "incremental";
+    /** Parameter key for the directory to store crawl checkpoints. */
+    protected static final String CHECKPOINT_DIR = "checkpoint_dir";
+    /** Parameter key for journaling the progress of a crawl to resume it. */
+    protected static final String RESUMABLE = "resumable";
+    /** Parameter key for the minimum interval between checkpoint writes in milliseconds. */
+    protected static final String CHECKPOINT_INTERVAL = "checkpoint_interval";
+    /** Parameter key for the maximum number of modifiedTime partitions. */
+    protected static final String MAX_PARTITIONS = "max_partitions";
+    /** Parameter key for the number of files above which a partition is split. */
+    protected static final String PARTITION_SIZE = "partition_size";
+    /** Parameter key for the minimum interval of a partition in milliseconds. */
+    protected static final String PARTITION_MIN_INTERVAL = "partition_min_interval";
+    /** Parameter key for the start of the partitioned range in RFC 3339. */
+    protected static final String PARTITION_START = "partition_start";
+    /** Parameter key for the listing mode. */
+    protected static final String LISTING_MODE = "listing_mode";
+    /** Parameter key for the maximum number of concurrent listings. */
+    protected static final String MAX_CONCURRENT_LISTINGS = "max_concurrent_listings";
+    /** Parameter key for the comma-separated IDs of the folders to crawl. */
+    protected static final String ROOT_FOLDER_IDS = "root_folder_ids";
+    /** Parameter key for fetching permissions in batch requests if files.list does not return them. */
+    protected static final String FETCH_PERMISSIONS = "fetch_permissions";
+    /** Parameter key for the executor of file processing: fixed, adaptive, staged or virtual. */
+    protected static final String EXECUTOR = "executor";
+    /** Parameter key for the minimum number of threads in the adaptive executor. */
+    protected static final String MIN_THREADS = "min_threads";
+    /** Parameter key for the maximum number of threads in the adaptive executor. */
+    protected static final String MAX_THREADS = "max_threads";
+    /** Parameter key for the interval of concurrency adjustments in milliseconds. */
+    protected static final String CONCURRENCY_ADJUST_INTERVAL = "concurrency_adjust_interval";
+    /** Parameter key for the comma-separated users to impersonate through domain-wide delegation. */
+    protected static final String DELEGATED_USERS = "delegated_users";
+    /** Parameter key for the maximum number of bytes of the files in flight. */
+    protected static final String MAX_IN_FLIGHT_BYTES = "max_in_flight_bytes";
+    /** Parameter key for the expected size of a Google Apps export in bytes. */
+    protected static final String EXPORT_SIZE_ESTIMATE = "export_size_estimate";
+    /** Parameter key for truncating Google Apps exports at max_size instead of rejecting them. */
+    protected static final String TRUNCATE_EXPORTS = "truncate_exports";
+    /** Parameter key for the number of threads of the download stage. */
+    protected static final String DOWNLOAD_THREADS = "download_threads";
+    /** Parameter key for the number of threads of the extraction stage. */
+    protected static final String EXTRACTION_THREADS = "extraction_threads";
+    /** Parameter key for the number of threads of the indexing stage. */
+    protected static final String INDEXING_THREADS = "indexing_threads";
+    /** Parameter key for running the download stage on virtual threads. */
+    protected static final String VIRTUAL_DOWNLOADS = "virtual_downloads";
+    /** Parameter key for the maximum number of files processed at the same time on virtual threads. */
+    protected static final String MAX_CONCURRENCY = "max_concurrency";
+    /** Parameter key for the capacity of the queue of each stage. */
+    protected static final String STAGE_QUEUE_SIZE = "stage_queue_size";
+    /** Parameter key for the interval to log the queue depths of the stages in milliseconds. */
+    protected static final String STAGE_REPORT_INTERVAL = "stage_report_interval";
+    /** Parameter key for the maximum time in milliseconds to wait for the queued files after listing. */
+    protected static final String SHUTDOWN_TIMEOUT = "shutdown_timeout";
+    /** Parameter key for the domain whose users are impersonated through domain-wide delegation. */
+    protected static final String DELEGATED_DOMAIN = "delegated_domain";
+    /** Parameter key for the administrator to impersonate to list the users of the domain. */
+    protected static final String DELEGATED_ADMIN = "delegated_admin";
+
+    // executors
+    /** Executor with a fixed number of threads. */
+    protected static final String EXECUTOR_FIXED = "fixed";
+    /** Executor whose number of threads is adjusted by AIMD. */
+    protected static final String EXECUTOR_ADAPTIVE = "adaptive";
+    /** Executor which downloads, extracts and indexes files in separate stages. */
+    protected static final String EXECUTOR_STAGED = "staged";
+    /** Executor which processes each file on a virtual thread. */
+    protected static final String EXECUTOR_VIRTUAL = "virtual";
+
+    // listing modes
+    /** Listing mode which lists My Drive and each shared drive in parallel. */
+    protected static final String LISTING_MODE_DRIVE = "drive";
+    /** Listing mode which lists modifiedTime partitions in parallel. */
+    protected static final String LISTING_MODE_MODIFIED_TIME = "modified_time";
+
+    /** Default maximum time to wait for the queued files after listing in milliseconds (6 hours). */
+    protected static final long DEFAULT_SHUTDOWN_TIMEOUT_MS = 6 * 60 * 60 * 1000L;
+
+    /** Default minimum interval between checkpoint writes in milliseconds (10 seconds). */
+    protected static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 10 * 1000L;
+
+    /** Default maximum number of modifiedTime partitions. */
+    protected static final int DEFAULT_MAX_PARTITIONS = 32;
+
+    /** Default number of files above which a partition is split. */
+    protected static final int DEFAULT_PARTITION_SIZE = 1000;
+
+    /** Default minimum interval of a partition in milliseconds (1 hour). */
+    protected static final long DEFAULT_PARTITION_MIN_INTERVAL_MS = 60 * 60 * 1000L;
+
+    /** Default start of the partitioned range. */
+    protected static final String DEFAULT_PARTITION_START = "2006-01-01T00:00:00Z";
+
+    /** Default maximum number of threads in the adaptive executor. */
+    protected static final int DEFAULT_MAX_THREADS = 32;
+
+    /** Default interval of concurrency adjustments in milliseconds (5 seconds). */
+    protected static final long DEFAULT_CONCURRENCY_ADJUST_INTERVAL_MS = 5 * 1000L;
+
+    /** Default maximum number of files processed at the same time on virtual threads. */
+    protected static final int DEFAULT_MAX_CONCURRENCY = 100;
+
+    /** Default number of threads of the indexing stage. */
+    protected static final int DEFAULT_INDEXING_THREADS = 2;
+
+    /** Default capacity of the queue of each stage. */
+    protected static final int DEFAULT_STAGE_QUEUE_SIZE = 100;
+
+    /** Default interval to log the queue depths of the stages in milliseconds (1 minute). */
+    protected static final long DEFAULT_STAGE_REPORT_INTERVAL_MS = 60 * 1000L;
+
+    /** Default maximum number of concurrent listings. */
+    protected static final int DEFAULT_MAX_CONCURRENT_LISTINGS = 4;
 
     // scripts
     /** Script key for the file object. */
@@ -209,6 +356,122 @@ public class GoogleDriveDataStore extends AbstractDataStore {
     /** The fields to retrieve for files. */
     protected static final String FILE_FIELDS = "*";
 
+    /** The file fields always required for filtering and processing a file. */
+    protected static final String BASE_FILE_FIELDS = "id,name,mimeType,webContentLink,size,trashed";
+
+    /** Pattern for matching references to the file object in script expressions. */
+    protected static final Pattern FILE_REFERENCE_PATTERN =
+            Pattern.compile("\\bfile\\b(?:\\s*\\.\\s*(\\w+)|\\s*\\[\\s*[\"'](\\w+)[\"']\\s*\\])?");
+
+    /** The Drive file fields required by each script key. */
+    protected static final Map<String, String> FILE_FIELD_MAP = Map.ofEntries(//
+            Map.entry(FILE_NAME, "name"), //
+            Map.entry(FILE_DESCRIPTION, "description"), //
+            Map.entry(FILE_CONTENTS, StringUtil.EMPTY), //
+            Map.entry(FILE_MIMETYPE, "mimeType"), //
+            Map.entry(FILE_FILETYPE, "mimeType"), //
+            Map.entry(FILE_THUMBNAIL_LINK, "thumbnailLink"), //
+            Map.entry(FILE_WEB_VIEW_LINK, "webViewLink"), //
+            Map.entry(FILE_WEB_CONTENT_LINK, "webContentLink"), //
+            Map.entry(FILE_CREATED_TIME, "createdTime"), //
+            Map.entry(FILE_MODIFIED_TIME, "modifiedTime"), //
+            Map.entry(FILE_WRITERS_CAN_SHARE, "writersCanShare"), //
+            Map.entry(FILE_VIEWERS_CAN_COPY_CONTENT, "viewersCanCopyContent"), //
+            Map.entry(FILE_VIEWED_BY_ME_TIME, "viewedByMeTime"), //
+            Map.entry(FILE_VIEWED_BY_ME, "viewedByMe"), //
+            Map.entry(FILE_VIDEO_MEDIA_METADATA, "videoMediaMetadata"), //
+            Map.entry(FILE_VERSION, "version"), //
+            Map.entry(FILE_TRASHING_USER, "trashingUser"), //
+            Map.entry(FILE_TRASHED_TIME, "trashedTime"), //
+            Map.entry(FILE_TRASHED, "trashed"), //
+            Map.entry(FILE_THUMBNAIL_VERSION, "thumbnailVersion"), //
+            Map.entry(FILE_TEAM_DRIVE_ID, "teamDriveId"), //
+            Map.entry(FILE_SHARED, "shared"), //
+            Map.entry(FILE_QUOTA_BYTES_USED, "quotaBytesUsed"), //
+            Map.entry(FILE_PARENTS, "parents"), //
+            Map.entry(FILE_OWNERS, "owners"), //
+            Map.entry(FILE_OWNED_BY_ME, "ownedByMe"), //
+            Map.entry(FILE_ORIGINAL_FILENAME, "originalFilename"), //
+            Map.entry(FILE_MODIFIED_BY_ME_TIME, "modifiedByMeTime"), //
+            Map.entry(FILE_MODIFIED_BY_ME, "modifiedByMe"), //
+            Map.entry(FILE_MD5_CHECKSUM, "md5Checksum"), //
+            Map.entry(FILE_LAST_MODIFYING_USER, "lastModifyingUser"), //
+            Map.entry(FILE_KIND, "kind"), //
+            Map.entry(FILE_IS_APP_AUTHORIZED, "isAppAuthorized"), //
+            Map.entry(FILE_IMAGE_MEDIA_METADATA, "imageMediaMetadata"), //
+            Map.entry(FILE_ID, "id"), //
+            Map.entry(FILE_ICON_LINK, "iconLink"), //
+            Map.entry(FILE_HEAD_REVISION_ID, "headRevisionId"), //
+            Map.entry(FILE_HAS_THUMBNAIL, "hasThumbnail"), //
+            Map.entry(FILE_HAS_AUGMENTED_PERMISSIONS, "hasAugmentedPermissions"), //
+            Map.entry(FILE_FULL_FILE_EXTENSION, "fullFileExtension"), //
+            Map.entry(FILE_FOLDER_COLOR_RGB, "folderColorRgb"), //
+            Map.entry(FILE_FILE_EXTENSION, "fileExtension"), //
+            Map.entry(FILE_EXPORT_LINKS, "exportLinks"), //
+            Map.entry(FILE_EXPLICITLY_TRASHED, "explicitlyTrashed"), //
+            Map.entry(FILE_COPY_REQUIRES_WRITER_PERMISSION, "copyRequiresWriterPermission"), //
+            Map.entry(FILE_APP_PROPERTIES, "appProperties"), //
+            Map.entry(FILE_CAPABILITIES, "capabilities"), //
+            Map.entry(FILE_CONTENT_HINTS, "contentHints"), //
+            Map.entry(FILE_CLASS_INFO, StringUtil.EMPTY), //
+            Map.entry(FILE_URL, StringUtil.EMPTY), //
+            Map.entry(FILE_SIZE, StringUtil.EMPTY), //
+            Map.entry(FILE_ROLES, "permissions(type,emailAddress,deleted),owners(emailAddress)"));
+
+    /** The functions which read the fields of the file map from a file. */
+    protected static final Map<String, Function<FileMap, Object>> FILE_MAP_FIELDS = Map.ofEntries(//
+            Map.entry(FILE_NAME, m -> m.file.getName()), //
+            Map.entry(FILE_DESCRIPTION, m -> m.file.getDescription() != null ? m.file.getDescription() : ""), //
+            Map.entry(FILE_CONTENTS, m -> m.content), //
+            Map.entry(FILE_MIMETYPE, m -> m.file.getMimeType()), //
+            Map.entry(FILE_FILETYPE, m -> m.getFileType()), //
+            Map.entry(FILE_SIZE, m -> m.size), //
+            Map.entry(FILE_WEB_VIEW_LINK, m -> m.file.getWebViewLink()), //
+            Map.entry(FILE_WEB_CONTENT_LINK, m -> m.file.getWebContentLink()), //
+            Map.entry(FILE_URL, m -> m.url), //
+            Map.entry(FILE_CLASS_INFO, m -> m.file.getClassInfo()), //
+            Map.entry(FILE_CONTENT_HINTS, m -> m.file.getContentHints()), //
+            Map.entry(FILE_CAPABILITIES, m -> m.file.getCapabilities()), //
+            Map.entry(FILE_APP_PROPERTIES, m -> m.file.getAppProperties()), //
+            Map.entry(FILE_COPY_REQUIRES_WRITER_PERMISSION, m -> m.file.getCopyRequiresWriterPermission()), //
+            Map.entry(FILE_EXPLICITLY_TRASHED, m -> m.file.getExplicitlyTrashed()), //
+            Map.entry(FILE_EXPORT_LINKS, m -> m.file.getExportLinks()), //
+            Map.entry(FILE_FILE_EXTENSION, m -> m.file.getFileExtension()), //
+            Map.entry(FILE_FOLDER_COLOR_RGB, m -> m.file.getFolderColorRgb()), //
+            Map.entry(FILE_FULL_FILE_EXTENSION, m -> m.file.getFullFileExtension()), //
+            Map.entry(FILE_HAS_AUGMENTED_PERMISSIONS, m -> m.file.getHasAugmentedPermissions()), //
+            Map.entry(FILE_HAS_THUMBNAIL, m -> m.file.getHasThumbnail()), //
+            Map.entry(FILE_HEAD_REVISION_ID, m -> m.file.getHeadRevisionId()), //
+            Map.entry(FILE_ICON_LINK, m -> m.file.getIconLink()), //
+            Map.entry(FILE_ID, m -> m.file.getId()), //
+            Map.entry(FILE_IMAGE_MEDIA_METADATA, m -> m.file.getImageMediaMetadata()), //
+            Map.entry(FILE_IS_APP_AUTHORIZED, m -> m.file.getIsAppAuthorized()), //
+            Map.entry(FILE_KIND, m -> m.file.getKind()), //
+            Map.entry(FILE_LAST_MODIFYING_USER, m -> m.file.getLastModifyingUser()), //
+            Map.entry(FILE_MD5_CHECKSUM, m -> m.file.getMd5Checksum()), //
+            Map.entry(FILE_MODIFIED_BY_ME, m -> m.file.getModifiedByMe()), //
+            Map.entry(FILE_MODIFIED_BY_ME_TIME, m -> m.toDate(m.file.getModifiedByMeTime())), //
+            Map.entry(FILE_ORIGINAL_FILENAME, m -> m.file.getOriginalFilename()), //
+            Map.entry(FILE_OWNED_BY_ME, m -> m.file.getOwnedByMe()), //
+            Map.entry(FILE_OWNERS, m -> m.file.getOwners()), //
+            Map.entry(FILE_PARENTS, m -> m.file.getParents()), //
+            Map.entry(FILE_QUOTA_BYTES_USED, m -> m.file.getQuotaBytesUsed()), //
+            Map.entry(FILE_SHARED, m -> m.file.getShared()), //
+            Map.entry(FILE_TEAM_DRIVE_ID, m -> m.file.getTeamDriveId()), //
+            Map.entry(FILE_THUMBNAIL_VERSION, m -> m.file.getThumbnailVersion()), //
+            Map.entry(FILE_TRASHED, m -> m.file.getTrashed()), //
+            Map.entry(FILE_TRASHED_TIME, m -> m.toDate(m.file.getTrashedTime())), //
+            Map.entry(FILE_TRASHING_USER, m -> m.file.getTrashingUser()), //
+            Map.entry(FILE_VERSION, m -> m.file.getVersion()), //
+            Map.entry(FILE_VIDEO_MEDIA_METADATA, m -> m.file.getVideoMediaMetadata()), //
+            Map.entry(FILE_VIEWED_BY_ME, m -> m.file.getViewedByMe()), //
+            Map.entry(FILE_VIEWED_BY_ME_TIME, m -> m.toDate(m.file.getViewedByMeTime())), //
+            Map.entry(FILE_VIEWERS_CAN_COPY_CONTENT, m -> m.file.getViewersCanCopyContent()), //
+            Map.entry(FILE_WRITERS_CAN_SHARE, m -> m.file.getWritersCanShare()), //
+            Map.entry(FILE_THUMBNAIL_LINK, m -> m.file.getThumbnailLink()), //
+            Map.entry(FILE_CREATED_TIME, m -> m.toDate(m.file.getCreatedTime())), //
+            Map.entry(FILE_MODIFIED_TIME, m -> m.toDate(m.file.getModifiedTime())));
+
     /**
      * Default constructor.
      */
@@ -226,11 +489,21 @@ public class GoogleDriveDataStore extends AbstractDataStore {
             final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap) {
 
         final Map<String, Object> configMap = new HashMap<>();
+        configMap.put(CRAWL_PARAMS, paramMap.newInstance());
         configMap.put(MAX_SIZE, getMaxSize(paramMap));
         configMap.put(IGNORE_FOLDER, isIgnoreFolder(paramMap));
         configMap.put(IGNORE_ERROR, isIgnoreError(paramMap));
         configMap.put(SUPPORTED_MIMETYPES, getSupportedMimeTypes(paramMap));
         configMap.put(URL_FILTER, getUrlFilter(paramMap));
+        final Set<String> fileReferences = getFileReferences(scriptMap);
+        configMap.put(LIST_FIELDS, getFields(paramMap, fileReferences));
+        configMap.put(FETCH_PERMISSIONS, isFetchPermissions(paramMap, fileReferences));
+        final long maxInFlightBytes = getLongParam(paramMap, MAX_IN_FLIGHT_BYTES, 0L);
+        if (maxInFlightBytes > 0) {
+            configMap.put(MAX_IN_FLIGHT_BYTES, new ByteBudget(maxInFlightBytes));
+        }
+        configMap.put(EXPORT_SIZE_ESTIMATE, getLongParam(paramMap, EXPORT_SIZE_ESTIMATE, (Long) configMap.get(MAX_SIZE)));
+        configMap.put(TRUNCATE_EXPORTS, Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(TRUNCATE_EXPORTS, Constants.FALSE)));
         if (logger.isDebugEnabled()) {
             logger.debug("configMap: {}", configMap);
         }
@@ -238,6 +511,9 @@ public class GoogleDriveDataStore extends AbstractDataStore {
         try (final GSuiteClient client = createClient(paramMap)) {
             storeFiles(dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client);
         }
+        if (configMap.get(MAX_IN_FLIGHT_BYTES) instanceof ByteBudget byteBudget) {
+            logger.info("Closing {}", byteBudget);
+        }
     }
 
     /**
@@ -313,8 +589,41 @@ public class GoogleDriveDataStore extends AbstractDataStore {
                 .get(stream -> stream.map(String::trim).toArray(n -> new String[n]));
     }
 
+    /**
+     * Creates the executor to process files.
+     * @param paramMap The parameters for the data store.
+     * @param client The GSuiteClient.
+     * @return A new executor.
+     */
+    protected ExecutorService newExecutorService(final DataStoreParams paramMap, final GSuiteClient client) {
+        final int nThreads = Integer.parseInt(paramMap.getAsString(NUMBER_OF_THREADS, "1"));
+        final String executor = paramMap.getAsString(EXECUTOR, EXECUTOR_FIXED);
+        if (EXECUTOR_STAGED.equals(executor)) {
+            return new StagedPipeline(getIntParam(paramMap, DOWNLOAD_THREADS, nThreads),
+                    getIntParam(paramMap, EXTRACTION_THREADS, Runtime.getRuntime().availableProcessors()),
+                    getIntParam(paramMap, INDEXING_THREADS, DEFAULT_INDEXING_THREADS),
+                    getIntParam(paramMap, STAGE_QUEUE_SIZE, DEFAULT_STAGE_QUEUE_SIZE),
+                    getLongParam(paramMap, STAGE_REPORT_INTERVAL, DEFAULT_STAGE_REPORT_INTERVAL_MS),
+                    Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(VIRTUAL_DOWNLOADS, Constants.FALSE)), new CallerBlocksPolicy());
+        }
+        if (EXECUTOR_VIRTUAL.equals(executor)) {
+            return new VirtualThreadExecutor(getIntParam(paramMap, MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY));
+        }
+        if (EXECUTOR_ADAPTIVE.equals(executor)) {
+            final int minThreads = getIntParam(paramMap, MIN_THREADS, 1);
+            final int maxThreads = getIntParam(paramMap, MAX_THREADS, Math.max(nThreads, DEFAULT_MAX_THREADS));
+            final RateLimiter rateLimiter = client.getRateLimiter();
+            return new AdaptiveThreadPoolExecutor(minThreads, maxThreads, nThreads,
+                    getLongParam(paramMap, CONCURRENCY_ADJUST_INTERVAL, DEFAULT_CONCURRENCY_ADJUST_INTERVAL_MS),
+                    rateLimiter != null ? rateLimiter::getThrottleCount : null, new CallerBlocksPolicy());
+        }
+        return newFixedThreadPool(nThreads);
+    }
+
     /**
      * Creates a new fixed thread pool.
+     * When the queue is full, the submitting thread waits for a free slot instead of running the task itself,
+     * so a listing thread never downloads or extracts a file.
      * @param nThreads The number of threads.
      * @return A new fixed thread pool.
      */
@@ -323,216 +632,334 @@ public class GoogleDriveDataStore extends AbstractDataStore {
             logger.debug("Executor Thread Pool: {}", nThreads);
         }
         return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(nThreads),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+                new CallerBlocksPolicy());
     }
 
     /**
-     * Stores the files.
+     * Returns whether Fess deletes the documents of the data config which were not stored by the current crawl.
+     * @param paramMap The parameters for the data store.
+     * @return false if the deletion of old documents is disabled.
+     */
+    protected boolean isDeleteOldDocs(final DataStoreParams paramMap) {
+        return !Constants.FALSE.equalsIgnoreCase(paramMap.getAsString(Constants.DELETE_OLD_DOCS));
+    }
+
+    /**
+     * Returns whether to crawl incrementally with the Changes API.
+     * @param paramMap The parameters for the data store.
+     * @return true if incremental crawling is enabled, false otherwise.
+     */
+    protected boolean isIncremental(final DataStoreParams paramMap) {
+        return Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(INCREMENTAL, Constants.FALSE));
+    }
+
+    /**
+     * Returns whether the files to crawl are limited by query, corpora or root_folder_ids.
+     * The Changes API reports changes of all files, so such a scope cannot be applied to an incremental crawl.
+     * @param paramMap The parameters for the data store.
+     * @return true if a scope is configured.
+     */
+    protected boolean isScoped(final DataStoreParams paramMap) {
+        final String corpora = paramMap.getAsString("corpora");
+        return StringUtil.isNotBlank(paramMap.getAsString("query"))
+                || StringUtil.isNotBlank(corpora) && !GSuiteClient.ALL_DRIVES.equals(corpora) || getRootFolderIds(paramMap).length > 0;
+    }
+
+    /**
+     * Creates the crawl checkpoint for a data config.
      * @param dataConfig The data configuration.
-     * @param callback The callback to index the files.
-     * @param configMap The configuration map.
      * @param paramMap The parameters for the data store.
-     * @param scriptMap The script map.
-     * @param defaultDataMap The default data map.
-     * @param client The GSuiteClient.
+     * @return The crawl checkpoint.
      */
-    protected void storeFiles(final DataConfig dataConfig, final IndexUpdateCallback callback, final Map<String, Object> configMap,
-            final DataStoreParams paramMap, final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap,
-            final GSuiteClient client) {
-        final String query = paramMap.getAsString("query");
-        final String corpora = paramMap.getAsString("corpora", GSuiteClient.ALL_DRIVES);
-        final String spaces = paramMap.getAsString("spaces");
-        final String fields = paramMap.getAsString("fields", FILE_FIELDS);
-        final ExecutorService executorService = newFixedThreadPool(Integer.parseInt(paramMap.getAsString(NUMBER_OF_THREADS, "1")));
-        try {
-            client.getFiles(query, corpora, spaces, fields, file -> {
-                executorService
-                        .execute(() -> processFile(dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client, file));
+    protected CrawlCheckpoint createCheckpoint(final DataConfig dataConfig, final DataStoreParams paramMap) {
+        final String dir = paramMap.getAsString(CHECKPOINT_DIR);
+        final Path checkpointDir;
+        if (StringUtil.isNotBlank(dir)) {
+            checkpointDir = Paths.get(dir);
+        } else if (StringUtil.isNotBlank(System.getProperty("fess.var.path"))) {
+            checkpointDir = Paths.get(System.getProperty("fess.var.path"), "gsuite");
+        } else {
+            checkpointDir = SystemUtils.getJavaIoTmpDir().toPath().resolve("fess-ds-gsuite");
+        }
+        return new CrawlCheckpoint(checkpointDir.resolve(dataConfig.getId() + ".properties"));
+    }
 
-            });
-            if (logger.isDebugEnabled()) {
-                logger.debug("Shutting down thread executor.");
+    /**
+     * Compiles the script expressions once for a crawl.
+     * An expression which is a plain path such as file.name is resolved from the maps without the script engine,
+     * and the other expressions are evaluated by the engine of the script type.
+     * @param paramMap The parameters for the data store.
+     * @param scriptMap The script map.
+     * @return The compiled expressions by their fields, in the order of the script map.
+     */
+    protected Map<String, Function<Map<String, Object>, Object>> compileScripts(final DataStoreParams paramMap,
+            final Map<String, String> scriptMap) {
+        final String scriptType = getScriptType(paramMap);
+        final Map<String, Function<Map<String, Object>, Object>> compiledMap = new LinkedHashMap<>();
+        for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
+            final String expression = entry.getValue();
+            final FieldPath path = FieldPath.parse(expression);
+            if (path != null) {
+                compiledMap.put(entry.getKey(), bindings -> {
+                    final Object value = path.resolve(bindings);
+                    return value != FieldPath.UNRESOLVED ? value : convertValue(scriptType, expression, bindings);
+                });
+            } else {
+                compiledMap.put(entry.getKey(), bindings -> convertValue(scriptType, expression, bindings));
             }
-            executorService.shutdown();
-            executorService.awaitTermination(DEFAULT_THREAD_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        } catch (final InterruptedException e) {
-            throw new InterruptedRuntimeException(e);
-        } finally {
-            executorService.shutdownNow();
         }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Compiled scripts: {} of {} are field paths.",
+                    scriptMap.values().stream().filter(expression -> FieldPath.parse(expression) != null).count(), scriptMap.size());
+        }
+        return compiledMap;
     }
 
     /**
-     * Checks if a file should be processed based on filtering rules.
-     * @param file The file to check.
+     * Returns the script expressions compiled for the crawl, or compiles them if they are not compiled yet.
      * @param configMap The configuration map.
      * @param paramMap The parameters for the data store.
-     * @param statsKey The stats key for tracking.
-     * @param crawlerStatsHelper The crawler stats helper.
-     * @return true if the file should be processed, false otherwise.
+     * @param scriptMap The script map.
+     * @return The compiled expressions by their fields.
      */
-    protected boolean shouldProcessFile(final File file, final Map<String, Object> configMap, final DataStoreParams paramMap,
-            final StatsKeyObject statsKey, final CrawlerStatsHelper crawlerStatsHelper) {
-        final String mimetype = file.getMimeType();
+    @SuppressWarnings("unchecked")
+    protected Map<String, Function<Map<String, Object>, Object>> getCompiledScripts(final Map<String, Object> configMap,
+            final DataStoreParams paramMap, final Map<String, String> scriptMap) {
+        final Map<String, Function<Map<String, Object>, Object>> compiledMap =
+                (Map<String, Function<Map<String, Object>, Object>>) configMap.get(COMPILED_SCRIPTS);
+        return compiledMap != null ? compiledMap : compileScripts(paramMap, scriptMap);
+    }
 
-        // Check if folder should be ignored
-        if (((Boolean) configMap.get(IGNORE_FOLDER)).booleanValue() && "application/vnd.google-apps.folder".equals(mimetype)) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("Ignore item: {}", file.getWebContentLink());
+    /**
+     * Returns the script keys of the file object which the scripts read.
+     * The scripts are scanned once for a crawl, and the fields mask and the permissions fetch are derived from the result.
+     * @param scriptMap The script map.
+     * @return The referenced keys, or null if a script uses the file object in a way that cannot be resolved to keys.
+     */
+    protected Set<String> getFileReferences(final Map<String, String> scriptMap) {
+        final Set<String> keySet = new LinkedHashSet<>();
+        for (final String expression : scriptMap.values()) {
+            if (StringUtil.isBlank(expression)) {
+                continue;
+            }
+            final Matcher matcher = FILE_REFERENCE_PATTERN.matcher(expression);
+            while (matcher.find()) {
+                final String key = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+                if (key == null || !FILE_FIELD_MAP.containsKey(key)) {
+                    return null;
+                }
+                keySet.add(key);
             }
-            crawlerStatsHelper.discard(statsKey);
-            return false;
         }
+        return keySet;
+    }
 
-        // Check supported MIME types
-        final String[] supportedMimeTypes = (String[]) configMap.get(SUPPORTED_MIMETYPES);
-        if (!Stream.of(supportedMimeTypes).anyMatch(mimetype::matches)) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("{} is not an indexing target.", mimetype);
-            }
-            crawlerStatsHelper.discard(statsKey);
-            return false;
+    /**
+     * Returns the fields mask for files.list.
+     * If the fields parameter is not set, the mask is built from the file fields referenced by the scripts.
+     * @param paramMap The parameters for the data store.
+     * @param fileReferences The keys returned by {@link #getFileReferences(Map)}.
+     * @return The fields mask for files.list.
+     */
+    protected String getFields(final DataStoreParams paramMap, final Set<String> fileReferences) {
+        final String fields = paramMap.getAsString("fields");
+        if (StringUtil.isNotBlank(fields)) {
+            return fields;
         }
+        final String fileFields = getFileFields(fileReferences);
+        if (logger.isDebugEnabled()) {
+            logger.debug("file fields: {}", fileFields);
+        }
+        if (FILE_FIELDS.equals(fileFields)) {
+            return FILE_FIELDS;
+        }
+        return "nextPageToken,files(" + fileFields + ")";
+    }
 
-        // Check URL filter
-        final String url = getUrl(configMap, paramMap, file);
-        final UrlFilter urlFilter = (UrlFilter) configMap.get(URL_FILTER);
-        if (urlFilter != null && !urlFilter.match(url)) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("Not matched: {}", url);
+    /**
+     * Returns the Drive file fields for the keys referenced by the scripts.
+     * Returns "*" if the keys cannot be resolved to fields.
+     * @param fileReferences The keys returned by {@link #getFileReferences(Map)}.
+     * @return The comma-separated file fields.
+     */
+    protected String getFileFields(final Set<String> fileReferences) {
+        if (fileReferences == null) {
+            return FILE_FIELDS;
+        }
+        final Set<String> fieldSet = new LinkedHashSet<>();
+        StreamUtil.split(BASE_FILE_FIELDS, ",").of(stream -> stream.forEach(fieldSet::add));
+        for (final String key : fileReferences) {
+            final String value = FILE_FIELD_MAP.get(key);
+            if (StringUtil.isNotEmpty(value)) {
+                fieldSet.add(value);
             }
-            crawlerStatsHelper.discard(statsKey);
-            return false;
         }
-
-        return true;
+        return String.join(",", fieldSet);
     }
 
     /**
-     * Builds the file metadata map.
-     * @param file The file to extract metadata from.
-     * @param content The file content.
-     * @param size The file size.
-     * @param url The file URL.
-     * @return The file metadata map.
+     * Returns the fields mask for changes.list derived from the fields mask for files.list.
+     * @param fields The fields mask for files.list.
+     * @return The fields mask for changes.list.
      */
-    protected Map<String, Object> buildFileMap(final File file, final String content, final long size, final String url) {
-        final String mimetype = file.getMimeType();
-        final String filetype = ComponentUtil.getFileTypeHelper().get(mimetype);
-        final Map<String, Object> fileMap = new HashMap<>();
-
-        fileMap.put(FILE_NAME, file.getName());
-        fileMap.put(FILE_DESCRIPTION, file.getDescription() != null ? file.getDescription() : "");
-        fileMap.put(FILE_CONTENTS, content);
-        fileMap.put(FILE_MIMETYPE, mimetype);
-        fileMap.put(FILE_FILETYPE, filetype);
-        fileMap.put(FILE_SIZE, size);
-        fileMap.put(FILE_WEB_VIEW_LINK, file.getWebViewLink());
-        fileMap.put(FILE_WEB_CONTENT_LINK, file.getWebContentLink());
-        fileMap.put(FILE_URL, url);
-        fileMap.put(FILE_CLASS_INFO, file.getClassInfo());
-        fileMap.put(FILE_CONTENT_HINTS, file.getContentHints());
-        fileMap.put(FILE_CAPABILITIES, file.getCapabilities());
-        fileMap.put(FILE_APP_PROPERTIES, file.getAppProperties());
-        fileMap.put(FILE_COPY_REQUIRES_WRITER_PERMISSION, file.getCopyRequiresWriterPermission());
-        fileMap.put(FILE_EXPLICITLY_TRASHED, file.getExplicitlyTrashed());
-        fileMap.put(FILE_EXPORT_LINKS, file.getExportLinks());
-        fileMap.put(FILE_FILE_EXTENSION, file.getFileExtension());
-        fileMap.put(FILE_FOLDER_COLOR_RGB, file.getFolderColorRgb());
-        fileMap.put(FILE_FULL_FILE_EXTENSION, file.getFullFileExtension());
-        fileMap.put(FILE_HAS_AUGMENTED_PERMISSIONS, file.getHasAugmentedPermissions());
-        fileMap.put(FILE_HAS_THUMBNAIL, file.getHasThumbnail());
-        fileMap.put(FILE_HEAD_REVISION_ID, file.getHeadRevisionId());
-        fileMap.put(FILE_ICON_LINK, file.getIconLink());
-        fileMap.put(FILE_ID, file.getId());
-        fileMap.put(FILE_IMAGE_MEDIA_METADATA, file.getImageMediaMetadata());
-        fileMap.put(FILE_IS_APP_AUTHORIZED, file.getIsAppAuthorized());
-        fileMap.put(FILE_KIND, file.getKind());
-        fileMap.put(FILE_LAST_MODIFYING_USER, file.getLastModifyingUser());
-        fileMap.put(FILE_MD5_CHECKSUM, file.getMd5Checksum());
-        fileMap.put(FILE_MODIFIED_BY_ME, file.getModifiedByMe());
-        fileMap.put(FILE_MODIFIED_BY_ME_TIME, toDate(file.getModifiedByMeTime()));
-        fileMap.put(FILE_ORIGINAL_FILENAME, file.getOriginalFilename());
-        fileMap.put(FILE_OWNED_BY_ME, file.getOwnedByMe());
-        fileMap.put(FILE_OWNERS, file.getOwners());
-        fileMap.put(FILE_PARENTS, file.getParents());
-        fileMap.put(FILE_QUOTA_BYTES_USED, file.getQuotaBytesUsed());
-        fileMap.put(FILE_SHARED, file.getShared());
-        fileMap.put(FILE_TEAM_DRIVE_ID, file.getTeamDriveId());
-        fileMap.put(FILE_THUMBNAIL_VERSION, file.getThumbnailVersion());
-        fileMap.put(FILE_TRASHED, file.getTrashed());
-        fileMap.put(FILE_TRASHED_TIME, toDate(file.getTrashedTime()));
-        fileMap.put(FILE_TRASHING_USER, file.getTrashingUser());
-        fileMap.put(FILE_VERSION, file.getVersion());
-        fileMap.put(FILE_VIDEO_MEDIA_METADATA, file.getVideoMediaMetadata());
-        fileMap.put(FILE_VIEWED_BY_ME, file.getViewedByMe());
-        fileMap.put(FILE_VIEWED_BY_ME_TIME, toDate(file.getViewedByMeTime()));
-        fileMap.put(FILE_VIEWERS_CAN_COPY_CONTENT, file.getViewersCanCopyContent());
-        fileMap.put(FILE_WRITERS_CAN_SHARE, file.getWritersCanShare());
-        fileMap.put(FILE_THUMBNAIL_LINK, file.getThumbnailLink());
-        fileMap.put(FILE_CREATED_TIME, toDate(file.getCreatedTime()));
-        fileMap.put(FILE_MODIFIED_TIME, toDate(file.getModifiedTime()));
-
-        return fileMap;
+    protected String getChangeFields(final String fields) {
+        if (StringUtil.isNotBlank(fields)) {
+            final Matcher matcher = FILES_FIELDS_PATTERN.matcher(fields);
+            if (matcher.find()) {
+                return "nextPageToken,newStartPageToken,changes(fileId,removed,file(" + matcher.group(1) + "))";
+            }
+        }
+        return FILE_FIELDS;
     }
 
     /**
-     * Handles errors during file processing.
+     * Stores the files.
+     * When incremental crawling is enabled and a start page token was stored by a previous crawl,
+     * only the changes since that crawl are processed.
      * @param dataConfig The data configuration.
-     * @param file The file being processed.
+     * @param callback The callback to index the files.
      * @param configMap The configuration map.
      * @param paramMap The parameters for the data store.
-     * @param dataMap The data map.
-     * @param statsKey The stats key.
-     * @param crawlerStatsHelper The crawler stats helper.
-     * @param t The throwable that was caught.
+     * @param scriptMap The script map.
+     * @param defaultDataMap The default data map.
+     * @param client The GSuiteClient.
      */
-    protected void handleProcessingError(final DataConfig dataConfig, final File file, final Map<String, Object> configMap,
-            final DataStoreParams paramMap, final Map<String, Object> dataMap, final StatsKeyObject statsKey,
-            final CrawlerStatsHelper crawlerStatsHelper, final Throwable t) {
-
-        if (t instanceof CrawlingAccessException) {
-            logger.warn("Crawling Access Exception at : {}", dataMap, t);
-
-            Throwable target = t;
-            if (target instanceof MultipleCrawlingAccessException ex) {
-                final Throwable[] causes = ex.getCauses();
-                if (causes.length > 0) {
-                    target = causes[causes.length - 1];
+    protected void storeFiles(final DataConfig dataConfig, final IndexUpdateCallback callback, final Map<String, Object> configMap,
+            final DataStoreParams paramMap, final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap,
+            final GSuiteClient client) {
+        final String query = paramMap.getAsString("query");
+        final String corpora = paramMap.getAsString("corpora", GSuiteClient.ALL_DRIVES);
+        final String spaces = paramMap.getAsString("spaces");
+        final String fields = (String) configMap.get(LIST_FIELDS);
+        final boolean delegated = isDelegated(paramMap);
+        if (delegated && (isIncremental(paramMap) || isResumable(paramMap))) {
+            logger.warn("{} and {} are not supported with domain-wide delegation.", INCREMENTAL, RESUMABLE);
+        }
+        final boolean scoped = isScoped(paramMap);
+        if (!delegated && scoped && isIncremental(paramMap)) {
+            logger.warn("{} is not supported with query, corpora or {}: all files are listed.", INCREMENTAL, ROOT_FOLDER_IDS);
+        }
+        final boolean deleteOldDocs = isDeleteOldDocs(paramMap);
+        if (!delegated && !scoped && deleteOldDocs && isIncremental(paramMap)) {
+            logger.error("{} requires {}=false, or the documents which are not changed are deleted: all files are listed.", INCREMENTAL,
+                    Constants.DELETE_OLD_DOCS);
+        }
+        final boolean incremental = !delegated && !scoped && !deleteOldDocs && isIncremental(paramMap);
+        final boolean resumable = !delegated && isResumable(paramMap);
+        final CrawlCheckpoint checkpoint = incremental || resumable ? createCheckpoint(dataConfig, paramMap) : null;
+        if (resumable && deleteOldDocs && checkpoint.isResumable()) {
+            logger.warn("The interrupted crawl in {} is not resumed because {} is not false: the skipped files would be deleted.",
+                    checkpoint.getPath(), Constants.DELETE_OLD_DOCS);
+            checkpoint.reset();
+        }
+        final String startPageToken = incremental ? checkpoint.getStartPageToken() : null;
+        configMap.put(COMPILED_SCRIPTS, compileScripts(paramMap, scriptMap));
+        final ExecutorService executorService = newExecutorService(paramMap, client);
+        if (executorService instanceof AdaptiveThreadPoolExecutor) {
+            configMap.put(EXECUTOR, executorService);
+        }
+        try {
+            final String nextStartPageToken;
+            if (StringUtil.isNotBlank(startPageToken)) {
+                logger.info("Crawling changes since the last crawl: {}", checkpoint.getPath());
+                nextStartPageToken = client.getChanges(startPageToken, spaces, getChangeFields(fields), change -> {
+                    if (executorService instanceof StagedPipeline) {
+                        final File file = getChangedFile(configMap, paramMap, scriptMap, change);
+                        if (file != null) {
+                            submitFile(executorService, dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client, file,
+                                    null);
+                        }
+                    } else {
+                        executorService.execute(
+                                () -> processChange(dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client, change));
+                    }
+                });
+            } else {
+                if (!incremental) {
+                    nextStartPageToken = null;
+                } else if (checkpoint.isResumable() && StringUtil.isNotBlank(checkpoint.getPendingStartPageToken())) {
+                    // keep the token of the interrupted crawl so that no change is missed
+                    nextStartPageToken = checkpoint.getPendingStartPageToken();
+                } else {
+                    // take the token before listing so that changes made during the crawl are picked up next time
+                    nextStartPageToken = client.getStartPageToken();
+                }
+                if (resumable && StringUtil.isBlank(paramMap.getAsString(LISTING_MODE)) && getRootFolderIds(paramMap).length == 0) {
+                    checkpoint.setPendingStartPageToken(nextStartPageToken);
+                    checkpoint.setStoreInterval(getCheckpointInterval(paramMap));
+                    listFilesWithCheckpoint(client, checkpoint, query, corpora, spaces, fields, file -> {
+                        submitFile(executorService, dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client, file,
+                                () -> checkpoint.completeFile(file.getId()));
+                    });
+                } else if (delegated) {
+                    listFilesByUser(client, paramMap, query, corpora, spaces, fields, (userClient, file) -> {
+                        submitFile(executorService, dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, userClient, file,
+                                null);
+                    });
+                } else {
+                    if (resumable) {
+                        logger.warn("{} is not supported with {} or {}.", RESUMABLE, LISTING_MODE, ROOT_FOLDER_IDS);
+                    }
+                    listFiles(client, paramMap, query, corpora, spaces, fields, file -> {
+                        submitFile(executorService, dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client, file,
+                                null);
+                    });
                 }
             }
-
-            String errorName;
-            final Throwable cause = target.getCause();
-            if (cause != null) {
-                errorName = cause.getClass().getCanonicalName();
-            } else {
-                errorName = target.getClass().getCanonicalName();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Shutting down thread executor.");
             }
-
-            String url = getUrl(configMap, paramMap, file);
-            if (url == null) {
-                url = StringUtil.EMPTY;
+            executorService.shutdown();
+            final long shutdownTimeout = getLongParam(paramMap, SHUTDOWN_TIMEOUT, DEFAULT_SHUTDOWN_TIMEOUT_MS);
+            if (awaitTermination(executorService, shutdownTimeout) && checkpoint != null) {
+                checkpoint.finish();
+                if (StringUtil.isNotBlank(nextStartPageToken)) {
+                    checkpoint.setStartPageToken(nextStartPageToken);
+                }
+                checkpoint.store();
             }
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 
-            final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
-            failureUrlService.store(dataConfig, errorName, url, target);
-            crawlerStatsHelper.record(statsKey, StatsAction.ACCESS_EXCEPTION);
-        } else {
-            String url = getUrl(configMap, paramMap, file);
-            if (url == null) {
-                url = StringUtil.EMPTY;
+    /**
+     * Waits until the executor has processed the queued files.
+     * The executor may hold many files in its queues, so it is waited for as long as the crawl is running,
+     * and its progress is logged at each interval.
+     * @param executorService The executor, which is shut down.
+     * @param timeout The maximum time to wait in milliseconds, or 0 for no limit.
+     * @return true if the executor terminated, false if the crawl was stopped or the timeout elapsed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    protected boolean awaitTermination(final ExecutorService executorService, final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long waitTime = TimeUnit.SECONDS.toMillis(DEFAULT_THREAD_POOL_TIMEOUT_SECONDS);
+            if (timeout > 0) {
+                waitTime = Math.min(waitTime, deadline - System.currentTimeMillis());
             }
-
-            logger.warn("Crawling Access Exception at : {}", dataMap, t);
-            final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
-            failureUrlService.store(dataConfig, t.getClass().getCanonicalName(), url, t);
-            crawlerStatsHelper.record(statsKey, StatsAction.EXCEPTION);
+            if (executorService.awaitTermination(Math.max(waitTime, 0L), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            if (!isAlive()) {
+                logger.info("Stopped waiting for the thread executor: {}", executorService);
+                return false;
+            }
+            if (timeout > 0 && System.currentTimeMillis() >= deadline) {
+                logger.warn("Thread executor did not terminate in {} ms: {}", timeout, executorService);
+                return false;
+            }
+            logger.info("Waiting for the thread executor: {}", executorService);
         }
     }
 
     /**
-     * Processes a file.
+     * Submits a file to the executor.
+     * With the staged executor, the file is downloaded, extracted and indexed in separate stages.
+     * @param executorService The executor.
      * @param dataConfig The data configuration.
      * @param callback The callback to index the file.
      * @param configMap The configuration map.
@@ -541,125 +968,1102 @@ public class GoogleDriveDataStore extends AbstractDataStore {
      * @param defaultDataMap The default data map.
      * @param client The GSuiteClient.
      * @param file The file to process.
+     * @param doneHandler The handler called after the file is processed, or null.
      */
-    protected void processFile(final DataConfig dataConfig, final IndexUpdateCallback callback, final Map<String, Object> configMap,
-            final DataStoreParams paramMap, final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap,
-            final GSuiteClient client, final File file) {
-        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
-        if (logger.isDebugEnabled()) {
-            logger.debug("file: {}", file);
+    protected void submitFile(final ExecutorService executorService, final DataConfig dataConfig, final IndexUpdateCallback callback,
+            final Map<String, Object> configMap, final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final Map<String, Object> defaultDataMap, final GSuiteClient client, final File file, final Runnable doneHandler) {
+        if (executorService instanceof StagedPipeline pipeline) {
+            final FileContext context = new FileContext(client, file, defaultDataMap, getCrawlParams(configMap, paramMap));
+            pipeline.process(() -> downloadFile(configMap, paramMap, context), () -> extractFile(configMap, paramMap, scriptMap, context),
+                    () -> indexFile(callback, context), t -> handleProcessingError(dataConfig, file, configMap, paramMap,
+                            context.dataMap, context.statsKey, ComponentUtil.getCrawlerStatsHelper(), t),
+                    () -> {
+                        try {
+                            finishFile(configMap, context);
+                        } finally {
+                            if (doneHandler != null) {
+                                doneHandler.run();
+                            }
+                        }
+                    });
+            return;
         }
-        final StatsKeyObject statsKey = new StatsKeyObject(file.getId());
-        paramMap.put(Constants.CRAWLER_STATS_KEY, statsKey);
-        final Map<String, Object> dataMap = new HashMap<>(defaultDataMap);
-        try {
-            crawlerStatsHelper.begin(statsKey);
-
-            // Check if file should be processed (folder filtering, MIME type, URL filter)
-            if (!shouldProcessFile(file, configMap, paramMap, statsKey, crawlerStatsHelper)) {
-                return;
-            }
-
-            final String url = getUrl(configMap, paramMap, file);
-            logger.info("Crawling URL: {}", url);
-
-            final boolean ignoreError = ((Boolean) configMap.get(IGNORE_ERROR));
-
-            final Map<String, Object> resultMap = new LinkedHashMap<>(paramMap.asMap());
-
-            // Extract file content
-            final String content = getFileContents(client, file, ignoreError);
-            final long size;
-            if (file.getSize() != null) {
-                size = file.getSize();
-            } else if (content != null) {
-                size = content.length();
-            } else {
-                size = 0;
+        executorService.execute(() -> {
+            try {
+                processFile(dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client, file);
+            } finally {
+                if (doneHandler != null) {
+                    doneHandler.run();
+                }
             }
+        });
+    }
 
-            // Check file size
-            if (size > ((Long) configMap.get(MAX_SIZE)).longValue()) {
-                throw new MaxLengthExceededException(
-                        "The content length (" + size + " byte) is over " + configMap.get(MAX_SIZE) + " byte. The url is " + url);
+    /**
+     * Lists non-overlapping modifiedTime partitions in parallel.
+     * The range from partition_start to the start of the crawl is bisected while a sampled partition holds
+     * more than partition_size files. The partition after the start of the crawl is listed last,
+     * so files modified while the other partitions are listed are not missed.
+     * A partition which lists fewer files than its sample counted is logged as possibly incomplete.
+     * @param client The GSuiteClient.
+     * @param paramMap The parameters for the data store.
+     * @param query The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for each file.
+     */
+    protected void listFilesByModifiedTime(final GSuiteClient client, final DataStoreParams paramMap, final String query,
+            final String corpora, final String spaces, final String fields, final Consumer<File> consumer) {
+        final long crawlStartTime = System.currentTimeMillis();
+        final long rangeStart =
+                com.google.api.client.util.DateTime.parseRfc3339(paramMap.getAsString(PARTITION_START, DEFAULT_PARTITION_START)).getValue();
+        final int partitionSize = getIntParam(paramMap, PARTITION_SIZE, DEFAULT_PARTITION_SIZE);
+        final ModifiedTimePartitioner partitioner = new ModifiedTimePartitioner(partition -> {
+            if (!isAlive()) {
+                return false;
             }
-
-            // Build file metadata map
-            final Map<String, Object> fileMap = buildFileMap(file, content, size, url);
-
-            final List<String> permissions = getFilePermissions(client, file);
-            final PermissionHelper permissionHelper = ComponentUtil.getPermissionHelper();
-            StreamUtil.split(paramMap.getAsString(DEFAULT_PERMISSIONS), ",")
-                    .of(stream -> stream.filter(StringUtil::isNotBlank).map(permissionHelper::encode).forEach(permissions::add));
-            fileMap.put(FILE_ROLES, permissions);
-
-            resultMap.put(FILE, fileMap);
-
-            crawlerStatsHelper.record(statsKey, StatsAction.PREPARED);
-
-            if (logger.isDebugEnabled()) {
-                logger.debug("fileMap: {}", fileMap);
+            final int count = client.countFiles(partition.toQuery(query), corpora, spaces, partitionSize);
+            partition.setSampledCount(count);
+            return count >= partitionSize;
+        });
+        final List<ModifiedTimePartitioner.Partition> partitions = partitioner.split(rangeStart, crawlStartTime,
+                getIntParam(paramMap, MAX_PARTITIONS, DEFAULT_MAX_PARTITIONS),
+                getLongParam(paramMap, PARTITION_MIN_INTERVAL, DEFAULT_PARTITION_MIN_INTERVAL_MS));
+        logger.info("Listing files in {} modifiedTime partitions.", partitions.size());
+
+        final ExecutorService listingExecutor = Executors.newFixedThreadPool(getMaxConcurrentListings(paramMap));
+        final Map<ModifiedTimePartitioner.Partition, Future<Long>> futureMap = new LinkedHashMap<>();
+        try {
+            final ModifiedTimePartitioner.Partition lastPartition = partitions.get(partitions.size() - 1);
+            for (final ModifiedTimePartitioner.Partition partition : partitions.subList(0, partitions.size() - 1)) {
+                futureMap.put(partition,
+                        listingExecutor.submit(() -> listPartition(client, partition, query, corpora, spaces, fields, consumer)));
             }
-
-            final String scriptType = getScriptType(paramMap);
-            for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
-                final Object convertValue = convertValue(scriptType, entry.getValue(), resultMap);
-                if (convertValue != null) {
-                    dataMap.put(entry.getKey(), convertValue);
+            long total = 0;
+            int failures = 0;
+            for (final Map.Entry<ModifiedTimePartitioner.Partition, Future<Long>> entry : futureMap.entrySet()) {
+                try {
+                    final long listedCount = entry.getValue().get();
+                    verifyPartition(entry.getKey(), listedCount);
+                    total += listedCount;
+                } catch (final ExecutionException e) {
+                    logger.warn("Failed to list files in {}", entry.getKey(), e.getCause());
+                    failures++;
                 }
             }
-
-            crawlerStatsHelper.record(statsKey, StatsAction.EVALUATED);
-
-            if (logger.isDebugEnabled()) {
-                logger.debug("dataMap: {}", dataMap);
+            if (failures > 0) {
+                throw new DataStoreException("Failed to list files in " + failures + " of " + partitions.size() + " partitions.");
             }
-
-            if (dataMap.get("url") instanceof String statsUrl) {
-                statsKey.setUrl(statsUrl);
+            if (isAlive()) {
+                total += listPartition(client, lastPartition, query, corpora, spaces, fields, consumer);
             }
-
-            callback.store(paramMap, dataMap);
-            crawlerStatsHelper.record(statsKey, StatsAction.FINISHED);
-        } catch (final Throwable t) {
-            handleProcessingError(dataConfig, file, configMap, paramMap, dataMap, statsKey, crawlerStatsHelper, t);
+            logger.info("Listed {} files in {} modifiedTime partitions.", total, partitions.size());
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
         } finally {
-            crawlerStatsHelper.done(statsKey);
+            listingExecutor.shutdownNow();
         }
     }
 
     /**
-     * Converts a DateTime to a Date.
-     * @param date The DateTime to convert.
-     * @return The converted Date.
+     * Checks the number of files listed in a partition against its sample.
+     * @param partition The partition.
+     * @param listedCount The number of listed files.
+     * @return true if the listing is complete as far as the sample tells.
      */
-    protected Date toDate(final com.google.api.client.util.DateTime date) {
-        if (date == null) {
-            return null;
+    protected boolean verifyPartition(final ModifiedTimePartitioner.Partition partition, final long listedCount) {
+        if (!isAlive() || partition.isComplete(listedCount)) {
+            return true;
         }
-        return new Date(date.getValue());
+        logger.warn("Listed {} files in {}, but the sample before the listing counted {}: files may be missed.", listedCount, partition,
+                partition.getSampledCount());
+        return false;
     }
 
     /**
-     * Returns the permissions for a file.
+     * Lists the files in a modifiedTime partition.
      * @param client The GSuiteClient.
-     * @param file The file.
-     * @return The permissions for the file.
+     * @param partition The partition.
+     * @param query The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for each file.
+     * @return The number of listed files.
      */
-    protected List<String> getFilePermissions(final GSuiteClient client, final File file) {
-        final List<String> permissionList = new ArrayList<>();
-        if (file.getPermissions() != null) {
-            file.getPermissions().stream().map(this::getPermission).filter(s -> s != null).forEach(permissionList::add);
+    protected long listPartition(final GSuiteClient client, final ModifiedTimePartitioner.Partition partition, final String query,
+            final String corpora, final String spaces, final String fields, final Consumer<File> consumer) {
+        if (!isAlive()) {
+            return 0L;
         }
-        if (file.getOwners() != null) {
-            file.getOwners().stream().map(this::getPermission).filter(s -> s != null).forEach(permissionList::add);
+        final AtomicLong counter = new AtomicLong();
+        consumeWhileAlive(client.streamFiles(partition.toQuery(query), corpora, null, spaces, fields), file -> {
+            counter.incrementAndGet();
+            consumer.accept(file);
+        });
+        if (logger.isDebugEnabled()) {
+            logger.debug("Listed {} files in {}", counter.get(), partition);
         }
-        return permissionList;
+        return counter.get();
     }
 
     /**
-     * Returns the permission for a user.
-     * @param user The user.
+     * Returns an integer parameter.
+     * @param paramMap The parameters for the data store.
+     * @param key The parameter key.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    protected int getIntParam(final DataStoreParams paramMap, final String key, final int defaultValue) {
+        final String value = paramMap.getAsString(key);
+        try {
+            return StringUtil.isNotBlank(value) ? Integer.parseInt(value) : defaultValue;
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a long parameter.
+     * @param paramMap The parameters for the data store.
+     * @param key The parameter key.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    protected long getLongParam(final DataStoreParams paramMap, final String key, final long defaultValue) {
+        final String value = paramMap.getAsString(key);
+        try {
+            return StringUtil.isNotBlank(value) ? Long.parseLong(value) : defaultValue;
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns whether to journal the progress of a crawl so that an interrupted crawl can resume.
+     * @param paramMap The parameters for the data store.
+     * @return true if the crawl is resumable, false otherwise.
+     */
+    protected boolean isResumable(final DataStoreParams paramMap) {
+        return Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(RESUMABLE, Constants.FALSE));
+    }
+
+    /**
+     * Returns the minimum interval between checkpoint writes caused by completed files.
+     * @param paramMap The parameters for the data store.
+     * @return The interval in milliseconds.
+     */
+    protected long getCheckpointInterval(final DataStoreParams paramMap) {
+        final String value = paramMap.getAsString(CHECKPOINT_INTERVAL);
+        try {
+            return StringUtil.isNotBlank(value) ? Long.parseLong(value) : DEFAULT_CHECKPOINT_INTERVAL_MS;
+        } catch (final NumberFormatException e) {
+            return DEFAULT_CHECKPOINT_INTERVAL_MS;
+        }
+    }
+
+    /**
+     * Lists files from the page recorded in the checkpoint, skipping files completed before the crawl was interrupted.
+     * @param client The GSuiteClient.
+     * @param checkpoint The crawl checkpoint.
+     * @param query The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for each file.
+     */
+    protected void listFilesWithCheckpoint(final GSuiteClient client, final CrawlCheckpoint checkpoint, final String query,
+            final String corpora, final String spaces, final String fields, final Consumer<File> consumer) {
+        if (checkpoint.isResumable()) {
+            logger.info("Resuming the crawl from {}: {} files were in flight.", checkpoint.getPath(), checkpoint.getInFlightIds().size());
+        }
+        final String startPageToken = checkpoint.getPageToken();
+        final AtomicBoolean started = new AtomicBoolean();
+        try {
+            client.getFilePages(query, corpora, null, spaces, fields, startPageToken, (pageToken, page) -> {
+                started.set(true);
+                final List<File> files = page.getFiles();
+                final Set<String> targetIds = checkpoint.startPage(pageToken, page.getNextPageToken(),
+                        files.stream().map(File::getId).collect(Collectors.toList()));
+                for (final File file : files) {
+                    if (targetIds.contains(file.getId())) {
+                        consumer.accept(file);
+                    }
+                }
+            });
+        } catch (final DataStoreException e) {
+            if (startPageToken == null || started.get() || !isInvalidPageToken(e)) {
+                throw e;
+            }
+            logger.warn("The page token in {} is no longer valid: the crawl starts from the first page.", checkpoint.getPath(), e);
+            checkpoint.reset();
+            listFilesWithCheckpoint(client, checkpoint, query, corpora, spaces, fields, consumer);
+        }
+    }
+
+    /**
+     * Returns true if a listing failed because the page token was rejected.
+     * @param e The exception thrown by the listing.
+     * @return true if the page token was rejected.
+     */
+    protected boolean isInvalidPageToken(final DataStoreException e) {
+        return e.getCause() instanceof HttpResponseException cause && cause.getStatusCode() == 400;
+    }
+
+    /**
+     * Returns the maximum number of concurrent listings.
+     * @param paramMap The parameters for the data store.
+     * @return The maximum number of concurrent listings.
+     */
+    protected int getMaxConcurrentListings(final DataStoreParams paramMap) {
+        final String value = paramMap.getAsString(MAX_CONCURRENT_LISTINGS);
+        try {
+            return StringUtil.isNotBlank(value) ? Math.max(1, Integer.parseInt(value)) : DEFAULT_MAX_CONCURRENT_LISTINGS;
+        } catch (final NumberFormatException e) {
+            return DEFAULT_MAX_CONCURRENT_LISTINGS;
+        }
+    }
+
+    /**
+     * Lists files with the configured listing mode.
+     * If root folders are configured, only the files under them are listed.
+     * @param client The GSuiteClient.
+     * @param paramMap The parameters for the data store.
+     * @param query The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for each file.
+     */
+    protected void listFiles(final GSuiteClient client, final DataStoreParams paramMap, final String query, final String corpora,
+            final String spaces, final String fields, final Consumer<File> consumer) {
+        final String listingMode = paramMap.getAsString(LISTING_MODE, StringUtil.EMPTY);
+        final String[] rootFolderIds = getRootFolderIds(paramMap);
+        if (rootFolderIds.length > 0) {
+            listFilesByFolder(client, paramMap, rootFolderIds, query, corpora, spaces, fields, consumer);
+        } else if (LISTING_MODE_DRIVE.equals(listingMode)) {
+            final String corporaParam = paramMap.getAsString("corpora");
+            if (StringUtil.isNotBlank(corporaParam) && !GSuiteClient.ALL_DRIVES.equals(corporaParam)) {
+                logger.warn("corpora={} is ignored with {}={}: My Drive and every shared drive are listed.", corporaParam, LISTING_MODE,
+                        LISTING_MODE_DRIVE);
+            }
+            listFilesByDrive(client, paramMap, query, spaces, fields, consumer);
+        } else if (LISTING_MODE_MODIFIED_TIME.equals(listingMode)) {
+            listFilesByModifiedTime(client, paramMap, query, corpora, spaces, fields, consumer);
+        } else {
+            consumeWhileAlive(client.streamFiles(query, corpora, null, spaces, fields), consumer);
+        }
+        if (!isAlive()) {
+            logger.info("Stopped listing files.");
+        }
+    }
+
+    /**
+     * Passes listed files to the consumer while the crawl is running, and closes the stream.
+     * When the crawl is stopped, the listing ends without fetching the remaining pages.
+     * @param files The listed files.
+     * @param consumer A consumer for each file.
+     */
+    protected void consumeWhileAlive(final Stream<File> files, final Consumer<File> consumer) {
+        try (files) {
+            files.takeWhile(file -> isAlive()).forEach(consumer);
+        }
+    }
+
+    /**
+     * Returns whether the crawl is still running.
+     * @return false if the data store was stopped.
+     */
+    protected boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Lists My Drive and each shared drive in parallel.
+     * A file which is listed in more than one of them, such as a file shared with the user, is passed once.
+     * @param client The GSuiteClient.
+     * @param paramMap The parameters for the data store.
+     * @param query The query to search for files.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for each file.
+     */
+    protected void listFilesByDrive(final GSuiteClient client, final DataStoreParams paramMap, final String query, final String spaces,
+            final String fields, final Consumer<File> consumer) {
+        final int maxConcurrentListings = getMaxConcurrentListings(paramMap);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Listing drives with {} threads.", maxConcurrentListings);
+        }
+        final Set<String> fileIds = ConcurrentHashMap.newKeySet();
+        final AtomicLong duplicates = new AtomicLong();
+        final Consumer<File> uniqueConsumer = file -> {
+            if (fileIds.add(file.getId())) {
+                consumer.accept(file);
+            } else {
+                duplicates.incrementAndGet();
+            }
+        };
+        final ExecutorService listingExecutor = Executors.newFixedThreadPool(maxConcurrentListings);
+        final Map<String, Future<?>> futureMap = new LinkedHashMap<>();
+        try {
+            futureMap.put("My Drive", listingExecutor
+                    .submit(() -> consumeWhileAlive(client.streamFiles(query, GSuiteClient.USER, null, spaces, fields), uniqueConsumer)));
+            client.getDrives(drive -> {
+                if (!isAlive()) {
+                    return;
+                }
+                futureMap.put(drive.getName() + " (" + drive.getId() + ")", listingExecutor.submit(() -> {
+                    if (!isAlive()) {
+                        return;
+                    }
+                    logger.info("Listing files in shared drive: {}", drive.getName());
+                    consumeWhileAlive(client.streamFiles(query, GSuiteClient.DRIVE, drive.getId(), spaces, fields), uniqueConsumer);
+                }));
+            });
+            int failures = 0;
+            for (final Map.Entry<String, Future<?>> entry : futureMap.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (final ExecutionException e) {
+                    logger.warn("Failed to list files in {}", entry.getKey(), e.getCause());
+                    failures++;
+                }
+            }
+            logger.info("Listed {} files in {} drives ({} duplicates skipped).", fileIds.size(), futureMap.size(), duplicates.get());
+            if (failures > 0) {
+                throw new DataStoreException("Failed to list files in " + failures + " of " + futureMap.size() + " drives.");
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } finally {
+            listingExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the IDs of the folders to crawl.
+     * @param paramMap The parameters for the data store.
+     * @return The folder IDs, or an empty array to crawl the whole corpora.
+     */
+    protected String[] getRootFolderIds(final DataStoreParams paramMap) {
+        return StreamUtil.split(paramMap.getAsString(ROOT_FOLDER_IDS, StringUtil.EMPTY), ",")
+                .get(stream -> stream.map(String::trim).filter(StringUtil::isNotBlank).distinct().toArray(String[]::new));
+    }
+
+    /**
+     * Returns the fields mask for listing the children of a folder.
+     * The shortcut details are added so that shortcuts can be followed.
+     * @param fields The fields mask for files.list.
+     * @return The fields mask for the folder walk.
+     */
+    protected String getFolderFields(final String fields) {
+        if (StringUtil.isNotBlank(fields)) {
+            final Matcher matcher = FILES_FIELDS_PATTERN.matcher(fields);
+            if (matcher.find() && !matcher.group(1).contains("shortcutDetails")) {
+                return fields.substring(0, matcher.start(1)) + "shortcutDetails," + fields.substring(matcher.start(1));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the fields mask for files.get, derived from the fields mask for files.list.
+     * @param fields The fields mask for files.list.
+     * @return The fields mask for files.get.
+     */
+    protected String getSingleFileFields(final String fields) {
+        if (StringUtil.isNotBlank(fields)) {
+            final Matcher matcher = FILES_FIELDS_PATTERN.matcher(fields);
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+        return FILE_FIELDS;
+    }
+
+    /**
+     * Returns the query for the children of a folder.
+     * Folders and shortcuts always match so that the walk can descend, and the others must match the query.
+     * @param folderId The ID of the folder.
+     * @param query The query to search for files, or null.
+     * @return The query for the children.
+     */
+    protected String getFolderQuery(final String folderId, final String query) {
+        final String parentQuery = "'" + folderId.replace("'", "\\'") + "' in parents";
+        if (StringUtil.isBlank(query)) {
+            return parentQuery;
+        }
+        return parentQuery + " and (mimeType = '" + FolderWalker.FOLDER_MIMETYPE + "' or mimeType = '" + FolderWalker.SHORTCUT_MIMETYPE
+                + "' or (" + query + "))";
+    }
+
+    /**
+     * Walks the folder trees under the root folders breadth-first, listing folders in parallel.
+     * Each folder and file is visited once even if it has multiple parents or is reached through shortcuts,
+     * so cycles do not loop forever. Files are passed to the consumer as soon as their folder is listed.
+     * @param client The GSuiteClient.
+     * @param paramMap The parameters for the data store.
+     * @param rootFolderIds The IDs of the root folders.
+     * @param query The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for each file.
+     */
+    protected void listFilesByFolder(final GSuiteClient client, final DataStoreParams paramMap, final String[] rootFolderIds,
+            final String query, final String corpora, final String spaces, final String fields, final Consumer<File> consumer) {
+        final int maxConcurrentListings = getMaxConcurrentListings(paramMap);
+        logger.info("Walking {} root folders with {} threads.", rootFolderIds.length, maxConcurrentListings);
+        final String folderFields = getFolderFields(fields);
+        final String fileFields = getSingleFileFields(fields);
+        final ExecutorService listingExecutor = Executors.newFixedThreadPool(maxConcurrentListings);
+        // once the crawl is stopped, no folder is listed, so the walk ends with the folders being listed
+        final FolderWalker walker = new FolderWalker(listingExecutor, (folderId, childConsumer) -> {
+            if (isAlive()) {
+                consumeWhileAlive(client.streamFiles(getFolderQuery(folderId, query), corpora, null, spaces, folderFields), childConsumer);
+            }
+        }, fileId -> client.getFile(fileId, fileFields), consumer);
+        try {
+            walker.walk(rootFolderIds);
+        } finally {
+            listingExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns whether files are listed for each user through domain-wide delegation.
+     * @param paramMap The parameters for the data store.
+     * @return true if delegated users or a delegated domain is configured.
+     */
+    protected boolean isDelegated(final DataStoreParams paramMap) {
+        return StringUtil.isNotBlank(paramMap.getAsString(DELEGATED_USERS))
+                || StringUtil.isNotBlank(paramMap.getAsString(DELEGATED_DOMAIN));
+    }
+
+    /**
+     * Returns the users to impersonate.
+     * The users of delegated_domain are listed by impersonating delegated_admin.
+     * @param client The GSuiteClient.
+     * @param paramMap The parameters for the data store.
+     * @return The email addresses of the users.
+     */
+    protected List<String> getDelegatedUsers(final GSuiteClient client, final DataStoreParams paramMap) {
+        final Set<String> users = new LinkedHashSet<>();
+        StreamUtil.split(paramMap.getAsString(DELEGATED_USERS, StringUtil.EMPTY), ",")
+                .of(stream -> stream.map(String::trim).filter(StringUtil::isNotBlank).forEach(users::add));
+        final String domain = paramMap.getAsString(DELEGATED_DOMAIN);
+        if (StringUtil.isNotBlank(domain)) {
+            final String admin = paramMap.getAsString(DELEGATED_ADMIN);
+            if (StringUtil.isBlank(admin)) {
+                throw new DataStoreException("parameter '" + DELEGATED_ADMIN + "' is required with '" + DELEGATED_DOMAIN + "'");
+            }
+            client.getDelegatedClient(admin.trim(), GSuiteClient.DIRECTORY_USER_SCOPE).getUsers(domain.trim(), users::add);
+        }
+        return new ArrayList<>(users);
+    }
+
+    /**
+     * Lists the files of each user in parallel through domain-wide delegation.
+     * Each user has its own access token and rate limiter, because Drive quotas are per user.
+     * A file which several users can see is passed to the consumer only once, with the client of the first user.
+     * @param client The GSuiteClient.
+     * @param paramMap The parameters for the data store.
+     * @param query The query to search for files.
+     * @param corpora The corpora to search in.
+     * @param spaces The spaces to search in.
+     * @param fields The fields to retrieve for each file.
+     * @param consumer A consumer for the client of the user and each file.
+     */
+    protected void listFilesByUser(final GSuiteClient client, final DataStoreParams paramMap, final String query, final String corpora,
+            final String spaces, final String fields, final BiConsumer<GSuiteClient, File> consumer) {
+        final List<String> users = getDelegatedUsers(client, paramMap);
+        final int maxConcurrentListings = getMaxConcurrentListings(paramMap);
+        logger.info("Listing files of {} users with {} threads.", users.size(), maxConcurrentListings);
+        final Set<String> fileIds = ConcurrentHashMap.newKeySet();
+        final AtomicLong duplicates = new AtomicLong();
+        final ExecutorService listingExecutor = Executors.newFixedThreadPool(maxConcurrentListings);
+        final Map<String, Future<?>> futureMap = new LinkedHashMap<>();
+        try {
+            for (final String user : users) {
+                futureMap.put(user, listingExecutor.submit(() -> {
+                    if (!isAlive()) {
+                        return;
+                    }
+                    final GSuiteClient userClient = client.getDelegatedClient(user, GSuiteClient.DRIVE_SCOPE);
+                    consumeWhileAlive(userClient.streamFiles(query, corpora, null, spaces, fields), file -> {
+                        if (fileIds.add(file.getId())) {
+                            consumer.accept(userClient, file);
+                        } else {
+                            duplicates.incrementAndGet();
+                        }
+                    });
+                }));
+            }
+            int failures = 0;
+            for (final Map.Entry<String, Future<?>> entry : futureMap.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (final ExecutionException e) {
+                    logger.warn("Failed to list files of {}", entry.getKey(), e.getCause());
+                    failures++;
+                }
+            }
+            logger.info("Listed {} files of {} users ({} duplicates skipped).", fileIds.size(), users.size(), duplicates.get());
+            if (failures > 0) {
+                throw new DataStoreException("Failed to list files of " + failures + " of " + futureMap.size() + " users.");
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } finally {
+            listingExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Processes a change from the Changes API.
+     * A removed or trashed file is deleted from the index, and other files are processed as usual.
+     * @param dataConfig The data configuration.
+     * @param callback The callback to index the file.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param scriptMap The script map.
+     * @param defaultDataMap The default data map.
+     * @param client The GSuiteClient.
+     * @param change The change to process.
+     */
+    protected void processChange(final DataConfig dataConfig, final IndexUpdateCallback callback, final Map<String, Object> configMap,
+            final DataStoreParams paramMap, final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap,
+            final GSuiteClient client, final Change change) {
+        final File file = getChangedFile(configMap, paramMap, scriptMap, change);
+        if (file != null) {
+            processFile(dataConfig, callback, configMap, paramMap, scriptMap, defaultDataMap, client, file);
+        }
+    }
+
+    /**
+     * Returns the file to index for a change. A removed or trashed file is deleted from the index.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param scriptMap The script map.
+     * @param change The change.
+     * @return The changed file, or null if there is nothing to index.
+     */
+    protected File getChangedFile(final Map<String, Object> configMap, final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final Change change) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("change: {}", change);
+        }
+        if (StringUtil.isBlank(change.getFileId())) {
+            // a change of a shared drive itself
+            return null;
+        }
+        final File file = change.getFile();
+        if (Boolean.TRUE.equals(change.getRemoved()) || file != null && Boolean.TRUE.equals(file.getTrashed())) {
+            deleteFile(configMap, paramMap, scriptMap, file != null ? file : new File().setId(change.getFileId()));
+            return null;
+        }
+        if (file == null) {
+            logger.warn("No file resource in the change for {}", change.getFileId());
+        }
+        return file;
+    }
+
+    /**
+     * Deletes a file from the index.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param scriptMap The script map.
+     * @param file The file to delete.
+     */
+    protected void deleteFile(final Map<String, Object> configMap, final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final File file) {
+        final String url = getIndexedUrl(configMap, paramMap, scriptMap, file);
+        if (StringUtil.isBlank(url)) {
+            logger.warn("Could not resolve the indexed URL of {}, so it is not deleted.", file.getId());
+            return;
+        }
+        logger.info("Deleting URL: {}", url);
+        try {
+            ComponentUtil.getIndexingHelper().deleteDocumentByUrl(ComponentUtil.getSearchEngineClient(), url);
+        } catch (final Exception e) {
+            logger.warn("Failed to delete {}", url, e);
+        }
+    }
+
+    /**
+     * Returns the URL under which a file is indexed, by evaluating the url script against the file.
+     * A removed file has only its ID, so the script may not be resolvable for it.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param scriptMap The script map.
+     * @param file The file.
+     * @return The URL of the document, or null if it cannot be resolved.
+     */
+    protected String getIndexedUrl(final Map<String, Object> configMap, final DataStoreParams paramMap,
+            final Map<String, String> scriptMap, final File file) {
+        final String url = getUrl(configMap, paramMap, file);
+        final Function<Map<String, Object>, Object> urlScript = getCompiledScripts(configMap, paramMap, scriptMap).get("url");
+        if (urlScript == null) {
+            return url;
+        }
+        final Map<String, Object> fileMap = buildFileMap(file, null, file.getSize() != null ? file.getSize() : 0L, url);
+        try {
+            final Object value = urlScript.apply(new OverlayMap(getCrawlParams(configMap, paramMap).asMap(), Map.of(FILE, fileMap)));
+            return value != null ? value.toString() : null;
+        } catch (final Exception e) {
+            logger.debug("Failed to evaluate the url script for {}", file.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks if a file should be processed based on filtering rules.
+     * @param file The file to check.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param statsKey The stats key for tracking.
+     * @param crawlerStatsHelper The crawler stats helper.
+     * @return true if the file should be processed, false otherwise.
+     */
+    protected boolean shouldProcessFile(final File file, final Map<String, Object> configMap, final DataStoreParams paramMap,
+            final StatsKeyObject statsKey, final CrawlerStatsHelper crawlerStatsHelper) {
+        final String mimetype = file.getMimeType();
+
+        // Check if folder should be ignored
+        if (((Boolean) configMap.get(IGNORE_FOLDER)).booleanValue() && "application/vnd.google-apps.folder".equals(mimetype)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Ignore item: {}", file.getWebContentLink());
+            }
+            crawlerStatsHelper.discard(statsKey);
+            return false;
+        }
+
+        // Check supported MIME types
+        final String[] supportedMimeTypes = (String[]) configMap.get(SUPPORTED_MIMETYPES);
+        if (!Stream.of(supportedMimeTypes).anyMatch(mimetype::matches)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} is not an indexing target.", mimetype);
+            }
+            crawlerStatsHelper.discard(statsKey);
+            return false;
+        }
+
+        // Check URL filter
+        final String url = getUrl(configMap, paramMap, file);
+        final UrlFilter urlFilter = (UrlFilter) configMap.get(URL_FILTER);
+        if (urlFilter != null && !urlFilter.match(url)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Not matched: {}", url);
+            }
+            crawlerStatsHelper.discard(statsKey);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds the file metadata map.
+     * The map is a lazy view over the file, and a field is converted only when a script reads it.
+     * @param file The file to extract metadata from.
+     * @param content The file content.
+     * @param size The file size.
+     * @param url The file URL.
+     * @return The file metadata map.
+     */
+    protected Map<String, Object> buildFileMap(final File file, final String content, final long size, final String url) {
+        return new FileMap(file, content, size, url);
+    }
+
+    /**
+     * Returns the file type of a MIME type.
+     * @param mimetype The MIME type.
+     * @return The file type.
+     */
+    protected String getFileType(final String mimetype) {
+        return ComponentUtil.getFileTypeHelper().get(mimetype);
+    }
+
+    /**
+     * Handles errors during file processing.
+     * @param dataConfig The data configuration.
+     * @param file The file being processed.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param dataMap The data map.
+     * @param statsKey The stats key.
+     * @param crawlerStatsHelper The crawler stats helper.
+     * @param t The throwable that was caught.
+     */
+    protected void handleProcessingError(final DataConfig dataConfig, final File file, final Map<String, Object> configMap,
+            final DataStoreParams paramMap, final Map<String, Object> dataMap, final StatsKeyObject statsKey,
+            final CrawlerStatsHelper crawlerStatsHelper, final Throwable t) {
+
+        if (configMap.get(EXECUTOR) instanceof AdaptiveThreadPoolExecutor executor && !(t instanceof MaxLengthExceededException)) {
+            executor.onError(t);
+        }
+
+        if (t instanceof CrawlingAccessException) {
+            logger.warn("Crawling Access Exception at : {}", dataMap, t);
+
+            Throwable target = t;
+            if (target instanceof MultipleCrawlingAccessException ex) {
+                final Throwable[] causes = ex.getCauses();
+                if (causes.length > 0) {
+                    target = causes[causes.length - 1];
+                }
+            }
+
+            String errorName;
+            final Throwable cause = target.getCause();
+            if (cause != null) {
+                errorName = cause.getClass().getCanonicalName();
+            } else {
+                errorName = target.getClass().getCanonicalName();
+            }
+
+            String url = getUrl(configMap, paramMap, file);
+            if (url == null) {
+                url = StringUtil.EMPTY;
+            }
+
+            final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
+            failureUrlService.store(dataConfig, errorName, url, target);
+            crawlerStatsHelper.record(statsKey, StatsAction.ACCESS_EXCEPTION);
+        } else {
+            String url = getUrl(configMap, paramMap, file);
+            if (url == null) {
+                url = StringUtil.EMPTY;
+            }
+
+            logger.warn("Crawling Access Exception at : {}", dataMap, t);
+            final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
+            failureUrlService.store(dataConfig, t.getClass().getCanonicalName(), url, t);
+            crawlerStatsHelper.record(statsKey, StatsAction.EXCEPTION);
+        }
+    }
+
+    /**
+     * Processes a file.
+     * @param dataConfig The data configuration.
+     * @param callback The callback to index the file.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param scriptMap The script map.
+     * @param defaultDataMap The default data map.
+     * @param client The GSuiteClient.
+     * @param file The file to process.
+     */
+    protected void processFile(final DataConfig dataConfig, final IndexUpdateCallback callback, final Map<String, Object> configMap,
+            final DataStoreParams paramMap, final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap,
+            final GSuiteClient client, final File file) {
+        final FileContext context = new FileContext(client, file, defaultDataMap, getCrawlParams(configMap, paramMap));
+        try {
+            if (downloadFile(configMap, paramMap, context)) {
+                extractFile(configMap, paramMap, scriptMap, context);
+                indexFile(callback, context);
+            }
+        } catch (final Throwable t) {
+            handleProcessingError(dataConfig, file, configMap, paramMap, context.dataMap, context.statsKey,
+                    ComponentUtil.getCrawlerStatsHelper(), t);
+        } finally {
+            finishFile(configMap, context);
+        }
+    }
+
+    /**
+     * Downloads the contents of a file: the I/O stage of processing.
+     * Google Apps files are exported as text, and other files are opened as a stream for the extraction stage.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param context The file being processed.
+     * @return true if the file should be processed further, false if it is skipped.
+     */
+    protected boolean downloadFile(final Map<String, Object> configMap, final DataStoreParams paramMap, final FileContext context) {
+        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
+        final File file = context.file;
+        if (logger.isDebugEnabled()) {
+            logger.debug("file: {}", file);
+        }
+        crawlerStatsHelper.begin(context.statsKey);
+
+        // Check if file should be processed (folder filtering, MIME type, URL filter)
+        if (!shouldProcessFile(file, configMap, paramMap, context.statsKey, crawlerStatsHelper)) {
+            return false;
+        }
+
+        context.url = getUrl(configMap, paramMap, file);
+        logger.info("Crawling URL: {}", context.url);
+
+        // Fetch permissions in the background while the content is extracted
+        context.permissionsFuture = fetchPermissions(context.client, configMap, paramMap, file);
+
+        if (configMap.get(MAX_IN_FLIGHT_BYTES) instanceof ByteBudget byteBudget) {
+            context.reservedBytes = byteBudget.reserve(getExpectedSize(file, configMap));
+        }
+
+        context.content = exportFileContents(context.client, file, (Long) configMap.get(MAX_SIZE),
+                Boolean.TRUE.equals(configMap.get(TRUNCATE_EXPORTS)));
+        if (context.content == null) {
+            try {
+                context.inputStream = context.client.getFileInputStream(file.getId(), file.getSize(), file.getMimeType());
+            } catch (final Exception e) {
+                context.content = handleContentError(file, (Boolean) configMap.get(IGNORE_ERROR), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extracts the text of a file and evaluates the scripts: the CPU stage of processing.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param scriptMap The script map.
+     * @param context The file being processed.
+     */
+    protected void extractFile(final Map<String, Object> configMap, final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final FileContext context) {
+        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
+        final File file = context.file;
+        final StatsKeyObject statsKey = context.statsKey;
+
+        // Extract file content
+        if (context.inputStream != null) {
+            try (final InputStream in = context.inputStream) {
+                context.inputStream = null;
+                context.content = extractFileContents(file, in);
+            } catch (final Exception e) {
+                context.content = handleContentError(file, (Boolean) configMap.get(IGNORE_ERROR), e);
+            }
+        }
+        final String content = context.content;
+        final long size;
+        if (file.getSize() != null) {
+            size = file.getSize();
+        } else if (content != null) {
+            size = content.length();
+        } else {
+            size = 0;
+        }
+
+        // Check file size
+        if (size > ((Long) configMap.get(MAX_SIZE)).longValue()) {
+            throw new MaxLengthExceededException(
+                    "The content length (" + size + " byte) is over " + configMap.get(MAX_SIZE) + " byte. The url is " + context.url);
+        }
+
+        // Build file metadata map
+        final Map<String, Object> fileMap = buildFileMap(file, content, size, context.url);
+
+        final List<String> permissions = getFilePermissions(context.client, file, context.permissionsFuture);
+        final PermissionHelper permissionHelper = ComponentUtil.getPermissionHelper();
+        StreamUtil.split(paramMap.getAsString(DEFAULT_PERMISSIONS), ",")
+                .of(stream -> stream.filter(StringUtil::isNotBlank).map(permissionHelper::encode).forEach(permissions::add));
+        fileMap.put(FILE_ROLES, permissions);
+
+        // the scripts see the parameters of the crawl and the file without copying the parameters
+        final Map<String, Object> resultMap =
+                new OverlayMap(context.crawlParams.asMap(), Map.of(Constants.CRAWLER_STATS_KEY, statsKey, FILE, fileMap));
+
+        crawlerStatsHelper.record(statsKey, StatsAction.PREPARED);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("fileMap: {}", fileMap);
+        }
+
+        final Map<String, Object> dataMap = context.dataMap;
+        for (final Map.Entry<String, Function<Map<String, Object>, Object>> entry : getCompiledScripts(configMap, paramMap, scriptMap)
+                .entrySet()) {
+            final Object convertValue = entry.getValue().apply(resultMap);
+            if (convertValue != null) {
+                dataMap.put(entry.getKey(), convertValue);
+            }
+        }
+
+        crawlerStatsHelper.record(statsKey, StatsAction.EVALUATED);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("dataMap: {}", dataMap);
+        }
+
+        if (dataMap.get("url") instanceof String statsUrl) {
+            statsKey.setUrl(statsUrl);
+        }
+    }
+
+    /**
+     * Stores a processed file in the index: the indexing stage of processing.
+     * The callback receives the parameters of the file, which carry its stats key.
+     * @param callback The callback to index the file.
+     * @param context The file being processed.
+     */
+    protected void indexFile(final IndexUpdateCallback callback, final FileContext context) {
+        callback.store(newFileParams(context.crawlParams, context.statsKey), context.dataMap);
+        ComponentUtil.getCrawlerStatsHelper().record(context.statsKey, StatsAction.FINISHED);
+    }
+
+    /**
+     * Releases the resources of a file after its last stage, whether it succeeded or not.
+     * @param configMap The configuration map.
+     * @param context The file being processed.
+     */
+    protected void finishFile(final Map<String, Object> configMap, final FileContext context) {
+        try {
+            if (context.inputStream != null) {
+                try {
+                    context.inputStream.close();
+                } catch (final IOException e) {
+                    logger.debug("Failed to close the stream of {}", context.file.getId(), e);
+                }
+                context.inputStream = null;
+            }
+            if (configMap.get(MAX_IN_FLIGHT_BYTES) instanceof ByteBudget byteBudget) {
+                byteBudget.release(context.reservedBytes);
+            }
+        } finally {
+            ComponentUtil.getCrawlerStatsHelper().done(context.statsKey);
+        }
+    }
+
+    /**
+     * Returns the snapshot of the parameters of the crawl.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @return The parameters of the crawl.
+     */
+    protected DataStoreParams getCrawlParams(final Map<String, Object> configMap, final DataStoreParams paramMap) {
+        if (configMap.get(CRAWL_PARAMS) instanceof DataStoreParams crawlParams) {
+            return crawlParams;
+        }
+        return paramMap;
+    }
+
+    /**
+     * Creates the parameters of a file: the parameters of the crawl with the stats key of the file laid over them.
+     * Values put for a file are not visible to other files.
+     * @param crawlParams The parameters of the crawl.
+     * @param statsKey The stats key of the file.
+     * @return The parameters of the file.
+     */
+    protected DataStoreParams newFileParams(final DataStoreParams crawlParams, final StatsKeyObject statsKey) {
+        final Map<String, Object> values = new HashMap<>();
+        values.put(Constants.CRAWLER_STATS_KEY, statsKey);
+        return new FileParams(crawlParams.asMap(), values);
+    }
+
+    /**
+     * Returns the expected number of bytes which a file holds while it is processed.
+     * Google Apps files have no size, so the export estimate is used for the exported types.
+     * @param file The file.
+     * @param configMap The configuration map.
+     * @return The expected number of bytes.
+     */
+    protected long getExpectedSize(final File file, final Map<String, Object> configMap) {
+        if (file.getSize() != null) {
+            return file.getSize();
+        }
+        final String mimeType = file.getMimeType();
+        if (mimeType != null && GOOGLE_APPS_MIMETYPE_PATTERN.matcher(mimeType).matches()
+                && !FolderWalker.FOLDER_MIMETYPE.equals(mimeType)) {
+            return (Long) configMap.get(EXPORT_SIZE_ESTIMATE);
+        }
+        return 0L;
+    }
+
+    /**
+     * Converts a DateTime to a Date.
+     * @param date The DateTime to convert.
+     * @return The converted Date.
+     */
+    protected Date toDate(final com.google.api.client.util.DateTime date) {
+        if (date == null) {
+            return null;
+        }
+        return new Date(date.getValue());
+    }
+
+    /**
+     * Returns the permissions for a file.
+     * @param client The GSuiteClient.
+     * @param file The file.
+     * @return The permissions for the file.
+     */
+    protected List<String> getFilePermissions(final GSuiteClient client, final File file) {
+        return getFilePermissions(client, file, null);
+    }
+
+    /**
+     * Returns whether to fetch the permissions which files.list did not return.
+     * The permissions are fetched only if a script reads the roles of a file, because the fields mask built
+     * from the scripts leaves out the permissions otherwise, and every file would need a permissions.list call.
+     * @param paramMap The parameters for the data store.
+     * @param fileReferences The keys returned by {@link #getFileReferences(Map)}.
+     * @return true if the permissions should be fetched.
+     */
+    protected boolean isFetchPermissions(final DataStoreParams paramMap, final Set<String> fileReferences) {
+        if (!Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(FETCH_PERMISSIONS, Constants.FALSE))) {
+            return false;
+        }
+        // the whole file object or an unknown field may include the roles
+        if (fileReferences == null || fileReferences.contains(FILE_ROLES)) {
+            return true;
+        }
+        logger.info("{} is ignored because no script reads {}.{}.", FETCH_PERMISSIONS, FILE, FILE_ROLES);
+        return false;
+    }
+
+    /**
+     * Starts fetching the permissions of a file in a batch request if files.list did not return them,
+     * as for files in shared drives.
+     * @param client The GSuiteClient.
+     * @param configMap The configuration map.
+     * @param paramMap The parameters for the data store.
+     * @param file The file.
+     * @return A future completed with the permissions, or null if they are not fetched.
+     */
+    protected CompletableFuture<List<Permission>> fetchPermissions(final GSuiteClient client, final Map<String, Object> configMap,
+            final DataStoreParams paramMap, final File file) {
+        if (file.getPermissions() != null || !Boolean.TRUE.equals(configMap.get(FETCH_PERMISSIONS))) {
+            return null;
+        }
+        return client.getPermissionsAsync(file.getId());
+    }
+
+    /**
+     * Returns the permissions for a file.
+     * @param client The GSuiteClient.
+     * @param file The file.
+     * @param permissionsFuture The permissions fetched in a batch request, or null.
+     * @return The permissions for the file.
+     */
+    protected List<String> getFilePermissions(final GSuiteClient client, final File file,
+            final CompletableFuture<List<Permission>> permissionsFuture) {
+        final List<String> permissionList = new ArrayList<>();
+        List<Permission> permissions = file.getPermissions();
+        if (permissions == null && permissionsFuture != null) {
+            try {
+                permissions = permissionsFuture.get();
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            } catch (final ExecutionException e) {
+                throw new DataStoreCrawlingException(file.getWebContentLink(), "Failed to get permissions: " + file.getName(),
+                        e.getCause());
+            }
+        }
+        if (permissions != null) {
+            permissions.stream().map(this::getPermission).filter(s -> s != null).forEach(permissionList::add);
+        }
+        if (file.getOwners() != null) {
+            file.getOwners().stream().map(this::getPermission).filter(s -> s != null).forEach(permissionList::add);
+        }
+        return permissionList;
+    }
+
+    /**
+     * Returns the permission for a user.
+     * @param user The user.
      * @return The permission for the user.
      */
     protected String getPermission(final User user) {
@@ -740,6 +2144,40 @@ public class GoogleDriveDataStore extends AbstractDataStore {
      * @return The contents of the file.
      */
     protected String getFileContents(final GSuiteClient client, final File file, final boolean ignoreError) {
+        return getFileContents(client, file, ignoreError, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Gets the contents of a file, limiting the text exported from Google Apps files.
+     * @param client The GSuiteClient.
+     * @param file The file.
+     * @param ignoreError Whether to ignore errors.
+     * @param maxSize The maximum number of characters exported from a Google Apps file.
+     * @param truncate true to truncate a longer export, or false to reject it with MaxLengthExceededException.
+     * @return The contents of the file.
+     */
+    protected String getFileContents(final GSuiteClient client, final File file, final boolean ignoreError, final long maxSize,
+            final boolean truncate) {
+        final String text = exportFileContents(client, file, maxSize, truncate);
+        if (text != null) {
+            return text;
+        }
+        try (final InputStream in = client.getFileInputStream(file.getId(), file.getSize(), file.getMimeType())) {
+            return extractFileContents(file, in);
+        } catch (final Exception e) {
+            return handleContentError(file, ignoreError, e);
+        }
+    }
+
+    /**
+     * Exports the text of a Google Apps file.
+     * @param client The GSuiteClient.
+     * @param file The file.
+     * @param maxSize The maximum number of characters exported.
+     * @param truncate true to truncate a longer export, or false to reject it with MaxLengthExceededException.
+     * @return The text of the file, or null if the file is not exported as text.
+     */
+    protected String exportFileContents(final GSuiteClient client, final File file, final long maxSize, final boolean truncate) {
         final String mimeType = file.getMimeType();
         final String id = file.getId();
 
@@ -751,14 +2189,15 @@ public class GoogleDriveDataStore extends AbstractDataStore {
             case "document":
             case "presentation":
                 // Export Google Docs and Presentations as plain text
-                return client.extractFileText(id, "text/plain");
+                return client.extractFileText(id, "text/plain", maxSize, truncate);
             case "spreadsheet":
                 // Export Google Sheets as CSV format
-                return client.extractFileText(id, "text/csv");
+                return client.extractFileText(id, "text/csv", maxSize, truncate);
             case "script":
                 // Google Apps Script files are exported as JSON
                 // Parse the JSON to extract script file names and source code
-                final String text = client.extractFileText(id, "application/vnd.google-apps.script+json");
+                // a truncated JSON cannot be parsed, so a long script is rejected
+                final String text = client.extractFileText(id, "application/vnd.google-apps.script+json", maxSize, false);
                 final StringBuilder sb = new StringBuilder();
                 try {
                     final Map<String, Object> map = new ObjectMapper().readValue(text, new TypeReference<Map<String, Object>>() {
@@ -784,23 +2223,270 @@ public class GoogleDriveDataStore extends AbstractDataStore {
             }
         }
 
-        try (final InputStream in = client.getFileInputStream(id)) {
-            return ComponentUtil.getExtractorFactory()
-                    .builder(in, null)
-                    .mimeType(mimeType)
-                    .extractorName(extractorName)
-                    .extract()
-                    .getContent();
-        } catch (final Exception e) {
-            if (!ignoreError && !ComponentUtil.getFessConfig().isCrawlerIgnoreContentException()) {
-                throw new DataStoreCrawlingException(file.getWebContentLink(), "Failed to get contents: " + file.getName(), e);
+        return null;
+    }
+
+    /**
+     * Extracts the text of a file from its contents.
+     * @param file The file.
+     * @param in The contents of the file.
+     * @return The extracted text.
+     */
+    protected String extractFileContents(final File file, final InputStream in) {
+        return ComponentUtil.getExtractorFactory()
+                .builder(in, null)
+                .mimeType(file.getMimeType())
+                .extractorName(extractorName)
+                .extract()
+                .getContent();
+    }
+
+    /**
+     * Handles a failure to get the contents of a file.
+     * @param file The file.
+     * @param ignoreError Whether to ignore errors.
+     * @param e The error.
+     * @return An empty content if the error is ignored.
+     */
+    protected String handleContentError(final File file, final boolean ignoreError, final Exception e) {
+        if (!ignoreError && !ComponentUtil.getFessConfig().isCrawlerIgnoreContentException()) {
+            throw new DataStoreCrawlingException(file.getWebContentLink(), "Failed to get contents: " + file.getName(), e);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.warn("Failed to get contents: {}", file.getName(), e);
+        } else {
+            logger.warn("Failed to get contents: {}. {}", file.getName(), e.getMessage());
+        }
+        return StringUtil.EMPTY;
+    }
+
+    /**
+     * The state of a file carried from one processing stage to the next.
+     */
+    protected static class FileContext {
+        /** The client to access the file. */
+        protected final GSuiteClient client;
+        /** The file. */
+        protected final File file;
+        /** The stats key of the file. */
+        protected final StatsKeyObject statsKey;
+        /** The parameters of the crawl. */
+        protected final DataStoreParams crawlParams;
+        /** The data to index. */
+        protected final Map<String, Object> dataMap;
+        /** The URL of the file. */
+        protected String url;
+        /** The permissions fetched in a batch request, or null. */
+        protected CompletableFuture<List<Permission>> permissionsFuture;
+        /** The downloaded contents waiting for extraction, or null. */
+        protected InputStream inputStream;
+        /** The text of the file. */
+        protected String content;
+        /** The bytes reserved in the in-flight byte budget. */
+        protected long reservedBytes;
+
+        /**
+         * Constructs a new FileContext.
+         * @param client The client to access the file.
+         * @param file The file.
+         * @param defaultDataMap The default data map.
+         * @param crawlParams The parameters of the crawl.
+         */
+        protected FileContext(final GSuiteClient client, final File file, final Map<String, Object> defaultDataMap,
+                final DataStoreParams crawlParams) {
+            this.client = client;
+            this.file = file;
+            statsKey = new StatsKeyObject(file.getId());
+            this.crawlParams = crawlParams;
+            dataMap = new HashMap<>(defaultDataMap);
+        }
+    }
+
+    /**
+     * The parameters of a file: values of the file laid over the snapshot of the parameters of the crawl.
+     * The snapshot is shared by all files and is not copied.
+     */
+    protected static class FileParams extends DataStoreParams {
+        /** The snapshot of the parameters of the crawl. */
+        protected final Map<String, Object> crawlParams;
+        /** The values of the file. */
+        protected final Map<String, Object> values;
+        /** The parameters of the crawl with the values of the file. */
+        protected final Map<String, Object> overlayMap;
+
+        /**
+         * Constructs a new FileParams.
+         * @param crawlParams The snapshot of the parameters of the crawl.
+         * @param values The values of the file.
+         */
+        protected FileParams(final Map<String, Object> crawlParams, final Map<String, Object> values) {
+            this.crawlParams = crawlParams;
+            this.values = values;
+            overlayMap = new OverlayMap(crawlParams, values);
+        }
+
+        @Override
+        public void put(final String key, final Object value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public Object get(final String key) {
+            return overlayMap.get(key);
+        }
+
+        @Override
+        public String getAsString(final String key) {
+            final Object value = overlayMap.get(key);
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public String getAsString(final String key, final String defaultValue) {
+            final String value = getAsString(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public boolean containsKey(final String key) {
+            return overlayMap.containsKey(key);
+        }
+
+        @Override
+        public Map<String, Object> asMap() {
+            return overlayMap;
+        }
+
+        @Override
+        public DataStoreParams newInstance() {
+            return new FileParams(crawlParams, new HashMap<>(values));
+        }
+    }
+
+    /**
+     * The metadata of a file for the scripts: a lazy view over the file.
+     * A field is converted when it is read first and cached, and values put into the map override the file.
+     */
+    protected class FileMap extends AbstractMap<String, Object> {
+        /** The file. */
+        protected final File file;
+        /** The file content. */
+        protected final String content;
+        /** The file size. */
+        protected final long size;
+        /** The file URL. */
+        protected final String url;
+        /** The values which are read or put. */
+        protected final Map<String, Object> values = new HashMap<>();
+
+        /**
+         * Constructs a new FileMap.
+         * @param file The file.
+         * @param content The file content.
+         * @param size The file size.
+         * @param url The file URL.
+         */
+        protected FileMap(final File file, final String content, final long size, final String url) {
+            this.file = file;
+            this.content = content;
+            this.size = size;
+            this.url = url;
+        }
+
+        @Override
+        public Object get(final Object key) {
+            Object value = values.get(key);
+            if (value != null || values.containsKey(key)) {
+                return value;
             }
-            if (logger.isDebugEnabled()) {
-                logger.warn("Failed to get contents: {}", file.getName(), e);
-            } else {
-                logger.warn("Failed to get contents: {}. {}", file.getName(), e.getMessage());
+            final Function<FileMap, Object> field = FILE_MAP_FIELDS.get(key);
+            if (field == null) {
+                return null;
+            }
+            value = field.apply(this);
+            values.put((String) key, value);
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return values.containsKey(key) || FILE_MAP_FIELDS.containsKey(key);
+        }
+
+        /**
+         * Puts a value which overrides the field of the file.
+         * @param key The key.
+         * @param value The value.
+         * @return The value which was read or put before, or null.
+         */
+        @Override
+        public Object put(final String key, final Object value) {
+            return values.put(key, value);
+        }
+
+        @Override
+        public int size() {
+            int size = FILE_MAP_FIELDS.size();
+            for (final String key : values.keySet()) {
+                if (!FILE_MAP_FIELDS.containsKey(key)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            // reads all fields; only for callers which iterate the map, such as logging
+            final Set<String> keys = new LinkedHashSet<>(FILE_MAP_FIELDS.keySet());
+            keys.addAll(values.keySet());
+            final Set<Map.Entry<String, Object>> entries = new LinkedHashSet<>();
+            for (final String key : keys) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(key, get(key)));
+            }
+            return entries;
+        }
+
+        /**
+         * Returns the file type of the file.
+         * @return The file type.
+         */
+        protected String getFileType() {
+            return GoogleDriveDataStore.this.getFileType(file.getMimeType());
+        }
+
+        /**
+         * Converts a DateTime of the file to a Date.
+         * @param date The DateTime to convert.
+         * @return The converted Date.
+         */
+        protected Date toDate(final com.google.api.client.util.DateTime date) {
+            return GoogleDriveDataStore.this.toDate(date);
+        }
+    }
+
+    /**
+     * A rejection handler which blocks the submitting thread until the queue has room.
+     */
+    protected static class CallerBlocksPolicy implements RejectedExecutionHandler {
+
+        /**
+         * Default constructor.
+         */
+        public CallerBlocksPolicy() {
+            // do nothing
+        }
+
+        @Override
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down.");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
             }
-            return StringUtil.EMPTY;
         }
     }
 
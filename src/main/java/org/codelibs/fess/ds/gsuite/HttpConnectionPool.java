@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.io.IOException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.exception.DataStoreException;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+
+/**
+ * A pool of keep-alive HTTP connections backing an Apache HTTP transport.
+ * Connections are reused across threads, idle connections are evicted, and
+ * the numbers of created connections and TLS handshakes are counted.
+ */
+public class HttpConnectionPool implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(HttpConnectionPool.class);
+
+    /** The connection manager. */
+    protected final PoolingHttpClientConnectionManager connectionManager;
+
+    /** The HTTP client. */
+    protected final CloseableHttpClient httpClient;
+
+    /** The number of connections created. */
+    protected final AtomicLong createdConnections = new AtomicLong();
+
+    /** The number of completed TLS handshakes, including resumed sessions. */
+    protected final AtomicLong handshakes = new AtomicLong();
+
+    /**
+     * Constructs a new HttpConnectionPool.
+     * @param trustStore The trust store for TLS.
+     * @param maxConnections The maximum number of connections.
+     * @param idleTimeout The time in milliseconds after which an idle connection is evicted.
+     * @param proxy The proxy, or null.
+     */
+    public HttpConnectionPool(final KeyStore trustStore, final int maxConnections, final long idleTimeout, final HttpHost proxy) {
+        final SSLContext sslContext;
+        try {
+            sslContext = SSLContexts.custom().loadTrustMaterial(trustStore, null).build();
+        } catch (final Exception e) {
+            throw new DataStoreException("Failed to create a SSL context.", e);
+        }
+        final Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory> create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext, SSLConnectionSocketFactory.getDefaultHostnameVerifier()) {
+                    @Override
+                    protected void prepareSocket(final SSLSocket socket) throws IOException {
+                        socket.addHandshakeCompletedListener(event -> handshakes.incrementAndGet());
+                    }
+                })
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(registry, (route, config) -> {
+            createdConnections.incrementAndGet();
+            return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+        }, null, null, -1, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        // all requests go to a few Google hosts
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        final HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                // the Google client handles redirects and retries
+                .disableRedirectHandling()
+                .disableAutomaticRetries();
+        if (proxy != null) {
+            builder.setProxy(proxy);
+        }
+        httpClient = builder.build();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Created a connection pool: maxConnections={}, idleTimeout={}, proxy={}", maxConnections, idleTimeout, proxy);
+        }
+    }
+
+    /**
+     * Creates a transport which sends requests through this pool.
+     * @return A new HttpTransport.
+     */
+    public HttpTransport newTransport() {
+        return new ApacheHttpTransport(httpClient);
+    }
+
+    /**
+     * Returns the number of connections leased to requests.
+     * @return The number of leased connections.
+     */
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * Returns the number of idle connections in the pool.
+     * @return The number of available connections.
+     */
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Returns the number of connections created since the pool was created.
+     * @return The number of created connections.
+     */
+    public long getCreatedConnections() {
+        return createdConnections.get();
+    }
+
+    /**
+     * Returns the number of completed TLS handshakes since the pool was created.
+     * @return The number of handshakes.
+     */
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (final IOException e) {
+            logger.warn("Failed to close a http client.", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final PoolStats stats = connectionManager.getTotalStats();
+        return "HttpConnectionPool [leased=" + stats.getLeased() + ", available=" + stats.getAvailable() + ", pending=" + stats.getPending()
+                + ", max=" + stats.getMax() + ", created=" + createdConnections.get() + ", handshakes=" + handshakes.get() + "]";
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+
+import com.google.api.client.util.DateTime;
+
+/**
+ * Splits the modifiedTime axis into non-overlapping partitions which can be listed in parallel.
+ * The partitions always cover the whole axis: the first one is open below and the last one is open above.
+ */
+public class ModifiedTimePartitioner {
+
+    private static final Logger logger = LogManager.getLogger(ModifiedTimePartitioner.class);
+
+    /** The predicate returning true if a partition holds more files than one partition should. */
+    protected final Predicate<Partition> densePredicate;
+
+    /**
+     * Constructs a new ModifiedTimePartitioner.
+     * @param densePredicate The predicate returning true if a partition is dense, usually by sampling its count.
+     */
+    public ModifiedTimePartitioner(final Predicate<Partition> densePredicate) {
+        this.densePredicate = densePredicate;
+    }
+
+    /**
+     * Splits the axis into partitions.
+     * The range between start and end is bisected while a partition is dense,
+     * until the number of partitions or the minimum interval is reached.
+     * @param start The start of the range to split, in milliseconds.
+     * @param end The end of the range to split, in milliseconds.
+     * @param maxPartitions The maximum number of partitions.
+     * @param minInterval The minimum interval of a partition in milliseconds.
+     * @return The partitions in order of time.
+     */
+    public List<Partition> split(final long start, final long end, final int maxPartitions, final long minInterval) {
+        final List<Partition> partitions = new ArrayList<>();
+        partitions.add(new Partition(Long.MIN_VALUE, start));
+        final List<Partition> candidates = new ArrayList<>();
+        if (start < end) {
+            final Partition partition = new Partition(start, end);
+            partition.dense = densePredicate.test(partition);
+            candidates.add(partition);
+        }
+        while (partitions.size() + candidates.size() + 1 < maxPartitions) {
+            final Partition target = candidates.stream()
+                    .filter(p -> p.dense && p.end - p.start >= minInterval * 2)
+                    .max(Comparator.comparingLong(p -> p.end - p.start))
+                    .orElse(null);
+            if (target == null) {
+                break;
+            }
+            final long middle = target.start + (target.end - target.start) / 2;
+            final Partition lower = new Partition(target.start, middle);
+            final Partition upper = new Partition(middle, target.end);
+            lower.dense = densePredicate.test(lower);
+            upper.dense = densePredicate.test(upper);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Split {} into {}({}) and {}({})", target, lower, lower.dense, upper, upper.dense);
+            }
+            final int index = candidates.indexOf(target);
+            candidates.set(index, lower);
+            candidates.add(index + 1, upper);
+        }
+        partitions.addAll(candidates);
+        partitions.add(new Partition(Math.max(start, end), Long.MAX_VALUE));
+        return partitions;
+    }
+
+    /**
+     * A half-open range [start, end) of modifiedTime.
+     */
+    public static class Partition {
+
+        /** The start in milliseconds, or Long.MIN_VALUE if open. */
+        protected final long start;
+
+        /** The end in milliseconds, or Long.MAX_VALUE if open. */
+        protected final long end;
+
+        /** Whether the partition holds more files than one partition should. */
+        protected boolean dense;
+
+        /** The number of files counted by the sample, or -1 if not sampled. */
+        protected long sampledCount = -1L;
+
+        /**
+         * Constructs a new Partition.
+         * @param start The start in milliseconds, or Long.MIN_VALUE if open.
+         * @param end The end in milliseconds, or Long.MAX_VALUE if open.
+         */
+        public Partition(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the start in milliseconds.
+         * @return The start, or Long.MIN_VALUE if open.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end in milliseconds.
+         * @return The end, or Long.MAX_VALUE if open.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the number of files counted by the sample.
+         * @return The sampled count, or -1 if not sampled.
+         */
+        public long getSampledCount() {
+            return sampledCount;
+        }
+
+        /**
+         * Sets the number of files counted by the sample.
+         * @param sampledCount The sampled count.
+         */
+        public void setSampledCount(final long sampledCount) {
+            this.sampledCount = sampledCount;
+        }
+
+        /**
+         * Returns true if a listing of this partition found at least the sampled number of files.
+         * Fewer files mean that the listing missed some, unless they were removed or modified in the meantime.
+         * @param listedCount The number of listed files.
+         * @return true if the listing is complete as far as the sample tells.
+         */
+        public boolean isComplete(final long listedCount) {
+            return listedCount >= sampledCount;
+        }
+
+        /**
+         * Returns a query restricted to this partition.
+         * @param query The query to restrict, or null.
+         * @return The restricted query.
+         */
+        public String toQuery(final String query) {
+            final StringBuilder buf = new StringBuilder();
+            if (StringUtil.isNotBlank(query)) {
+                buf.append('(').append(query).append(')');
+            }
+            if (start != Long.MIN_VALUE) {
+                if (buf.length() > 0) {
+                    buf.append(" and ");
+                }
+                buf.append("modifiedTime >= '").append(toRfc3339(start)).append('\'');
+            }
+            if (end != Long.MAX_VALUE) {
+                if (buf.length() > 0) {
+                    buf.append(" and ");
+                }
+                buf.append("modifiedTime < '").append(toRfc3339(end)).append('\'');
+            }
+            return buf.toString();
+        }
+
+        /**
+         * Formats a time as RFC 3339 in UTC.
+         * @param time The time in milliseconds.
+         * @return The formatted time.
+         */
+        protected static String toRfc3339(final long time) {
+            return new DateTime(new Date(time), TimeZone.getTimeZone("UTC")).toStringRfc3339();
+        }
+
+        @Override
+        public String toString() {
+            return "[" + (start == Long.MIN_VALUE ? "-" : toRfc3339(start)) + ", " + (end == Long.MAX_VALUE ? "-" : toRfc3339(end)) + ")";
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A read-only view of a small map of values laid over a base map.
+ * A value in the overlay hides the value of the same key in the base map, and neither map is copied,
+ * so per-file values can be added to the parameters of a crawl without copying them for every file.
+ */
+public class OverlayMap extends AbstractMap<String, Object> {
+
+    /** The base map. */
+    protected final Map<String, Object> base;
+
+    /** The values laid over the base map. */
+    protected final Map<String, Object> overlay;
+
+    /**
+     * Constructs a new OverlayMap.
+     * @param base The base map.
+     * @param overlay The values laid over the base map.
+     */
+    public OverlayMap(final Map<String, Object> base, final Map<String, Object> overlay) {
+        this.base = base;
+        this.overlay = overlay;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final Object value = overlay.get(key);
+        if (value != null || overlay.containsKey(key)) {
+            return value;
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return overlay.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return Stream.concat(overlay.entrySet().stream(),
+                        base.entrySet().stream().filter(entry -> !overlay.containsKey(entry.getKey()))).iterator();
+            }
+
+            @Override
+            public int size() {
+                int size = overlay.size();
+                for (final String key : base.keySet()) {
+                    if (!overlay.containsKey(key)) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Downloads a file as HTTP Range chunks in parallel into a preallocated file.
+ * A chunk which fails is resumed from its last written byte instead of restarting the whole transfer.
+ */
+public class RangedDownloader {
+
+    private static final Logger logger = LogManager.getLogger(RangedDownloader.class);
+
+    /** The executor to fetch chunks. */
+    protected final Executor executor;
+
+    /** The size of a chunk in bytes. */
+    protected final long chunkSize;
+
+    /** The maximum number of chunks fetched at the same time for a file. */
+    protected final int parallelism;
+
+    /** The maximum number of retries of a chunk. */
+    protected final int maxRetries;
+
+    /**
+     * Constructs a new RangedDownloader.
+     * @param executor The executor to fetch chunks.
+     * @param chunkSize The size of a chunk in bytes.
+     * @param parallelism The maximum number of chunks fetched at the same time for a file.
+     * @param maxRetries The maximum number of retries of a chunk.
+     */
+    public RangedDownloader(final Executor executor, final long chunkSize, final int parallelism, final int maxRetries) {
+        this.executor = executor;
+        this.chunkSize = Math.max(1L, chunkSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Downloads a file.
+     * @param fetcher The function to fetch a range.
+     * @param size The size of the file in bytes.
+     * @param target The file to write, which is resized to the size.
+     * @throws IOException If a chunk cannot be downloaded after the retries.
+     */
+    public void download(final RangeFetcher fetcher, final long size, final File target) throws IOException {
+        final List<long[]> chunks = new ArrayList<>();
+        for (long start = 0; start < size; start += chunkSize) {
+            chunks.add(new long[] { start, Math.min(size, start + chunkSize) - 1 });
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Downloading {} bytes in {} chunks.", size, chunks.size());
+        }
+        try (final RandomAccessFile file = new RandomAccessFile(target, "rw"); final FileChannel channel = file.getChannel()) {
+            file.setLength(size);
+            final AtomicInteger nextChunk = new AtomicInteger();
+            final List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < Math.min(parallelism, chunks.size()); i++) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (int index = nextChunk.getAndIncrement(); index < chunks.size(); index = nextChunk.getAndIncrement()) {
+                        try {
+                            downloadChunk(fetcher, channel, chunks.get(index)[0], chunks.get(index)[1]);
+                        } catch (final IOException e) {
+                            // stop the other workers as well
+                            nextChunk.set(chunks.size());
+                            throw new CompletionException(e);
+                        }
+                    }
+                }, executor));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof IOException ioe) {
+                    throw ioe;
+                }
+                throw new IOException("Failed to download a chunk.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Downloads a chunk, resuming it from the last written byte on failure.
+     * @param fetcher The function to fetch a range.
+     * @param channel The channel of the target file.
+     * @param start The first byte of the chunk.
+     * @param end The last byte of the chunk, inclusive.
+     * @throws IOException If the chunk cannot be downloaded after the retries.
+     */
+    protected void downloadChunk(final RangeFetcher fetcher, final FileChannel channel, final long start, final long end)
+            throws IOException {
+        long position = start;
+        for (int retry = 0;; retry++) {
+            final PositionalOutputStream out = new PositionalOutputStream(channel, position, end);
+            try {
+                fetcher.fetch(position, end, out);
+                if (out.position <= end) {
+                    throw new IOException("The range ended at " + out.position + " before " + end + ".");
+                }
+                return;
+            } catch (final IOException e) {
+                if (retry >= maxRetries) {
+                    throw e;
+                }
+                logger.info("Resuming bytes {}-{} after {} bytes: {}", position, end, out.position - position, e.getMessage());
+                position = out.position;
+            }
+        }
+    }
+
+    /**
+     * A function to fetch a range of a file.
+     */
+    @FunctionalInterface
+    public interface RangeFetcher {
+        /**
+         * Writes a range of a file.
+         * @param start The first byte.
+         * @param end The last byte, inclusive.
+         * @param out The stream to write the bytes to.
+         * @throws IOException If the range cannot be fetched.
+         */
+        void fetch(long start, long end, OutputStream out) throws IOException;
+    }
+
+    /**
+     * An output stream which writes to a range of a file channel.
+     */
+    protected static class PositionalOutputStream extends OutputStream {
+        /** The channel to write to. */
+        protected final FileChannel channel;
+        /** The last byte which can be written, inclusive. */
+        protected final long end;
+        /** The position of the next byte. */
+        protected long position;
+
+        /**
+         * Constructs a new PositionalOutputStream.
+         * @param channel The channel to write to.
+         * @param position The position of the first byte.
+         * @param end The last byte which can be written, inclusive.
+         */
+        protected PositionalOutputStream(final FileChannel channel, final long position, final long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (position + len - 1 > end) {
+                throw new IOException("The response is longer than the range: " + (position + len - 1) + " > " + end);
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+}
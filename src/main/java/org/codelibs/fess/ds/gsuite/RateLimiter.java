@@ -0,0 +1,225 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * A rate limiter shared by all requests of a client.
+ * Each request takes a permit from every token bucket, and all requests are paused
+ * while the limiter is throttled after the API reported that a rate limit was exceeded.
+ * The state is guarded by a ReentrantLock instead of synchronized, so virtual threads are not pinned while they wait.
+ */
+public class RateLimiter {
+
+    private static final Logger logger = LogManager.getLogger(RateLimiter.class);
+
+    /** The lock of the buckets and the throttled time, which does not pin virtual threads. */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** The token buckets. */
+    protected final List<Bucket> buckets = new ArrayList<>();
+
+    /** The time until which requests are paused, in milliseconds. */
+    protected long throttledUntil;
+
+    /** The number of times the limiter was throttled. */
+    protected final AtomicLong throttleCount = new AtomicLong();
+
+    /** The total time requests waited for a permit, in milliseconds. */
+    protected final AtomicLong waitTime = new AtomicLong();
+
+    /**
+     * Constructs a new RateLimiter.
+     * @param permitsPerSecond The maximum number of requests per second, or 0 for no limit.
+     * @param permitsPer100Seconds The maximum number of requests per 100 seconds, or 0 for no limit.
+     */
+    public RateLimiter(final double permitsPerSecond, final double permitsPer100Seconds) {
+        if (permitsPerSecond > 0) {
+            buckets.add(new Bucket(permitsPerSecond, 1000L));
+        }
+        if (permitsPer100Seconds > 0) {
+            buckets.add(new Bucket(permitsPer100Seconds, 100 * 1000L));
+        }
+    }
+
+    /**
+     * Waits until a request is allowed and takes a permit.
+     */
+    public void acquire() {
+        while (true) {
+            final long wait = tryAcquire(System.currentTimeMillis());
+            if (wait <= 0) {
+                return;
+            }
+            waitTime.addAndGet(wait);
+            try {
+                Thread.sleep(wait);
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Takes a permit if a request is allowed now.
+     * @param now The current time in milliseconds.
+     * @return 0 if a permit was taken, or the time in milliseconds to wait before trying again.
+     */
+    protected long tryAcquire(final long now) {
+        lock.lock();
+        try {
+            long wait = throttledUntil - now;
+            if (wait > 0) {
+                return wait;
+            }
+            for (final Bucket bucket : buckets) {
+                bucket.refill(now);
+                wait = Math.max(wait, bucket.getWaitTime());
+            }
+            if (wait > 0) {
+                return wait;
+            }
+            for (final Bucket bucket : buckets) {
+                bucket.tokens -= 1;
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pauses all requests.
+     * @param delay The time in milliseconds to pause.
+     */
+    public void throttle(final long delay) {
+        lock.lock();
+        try {
+            throttledUntil = Math.max(throttledUntil, System.currentTimeMillis() + delay);
+        } finally {
+            lock.unlock();
+        }
+        final long count = throttleCount.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Throttled for {} ms ({} times).", delay, count);
+        }
+    }
+
+    /**
+     * Returns whether requests are paused now.
+     * @return true if throttled.
+     */
+    public boolean isThrottled() {
+        lock.lock();
+        try {
+            return throttledUntil > System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times the limiter was throttled.
+     * @return The throttle count.
+     */
+    public long getThrottleCount() {
+        return throttleCount.get();
+    }
+
+    /**
+     * Returns the total time requests waited for a permit.
+     * @return The wait time in milliseconds.
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            final long now = System.currentTimeMillis();
+            final StringBuilder buf = new StringBuilder();
+            buf.append("RateLimiter [throttled=").append(Math.max(0, throttledUntil - now)).append("ms");
+            for (final Bucket bucket : buckets) {
+                bucket.refill(now);
+                buf.append(", ").append((long) bucket.tokens).append('/').append((long) bucket.capacity).append(" per ")
+                        .append(bucket.interval).append("ms");
+            }
+            buf.append(", throttleCount=").append(throttleCount.get()).append(", waitTime=").append(waitTime.get()).append("ms]");
+            return buf.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A token bucket which refills its capacity once per interval.
+     */
+    protected static class Bucket {
+        /** The maximum number of tokens. */
+        protected final double capacity;
+        /** The interval in milliseconds. */
+        protected final long interval;
+        /** The tokens added per millisecond. */
+        protected final double rate;
+        /** The current number of tokens. */
+        protected double tokens;
+        /** The time of the last refill in milliseconds. */
+        protected long lastRefillTime;
+
+        /**
+         * Constructs a new Bucket, initially full.
+         * @param capacity The number of permits per interval.
+         * @param interval The interval in milliseconds.
+         */
+        protected Bucket(final double capacity, final long interval) {
+            // a burst of at least one request is needed to make progress
+            this.capacity = Math.max(1, capacity);
+            this.interval = interval;
+            rate = capacity / interval;
+            tokens = this.capacity;
+            lastRefillTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Adds the tokens accumulated since the last refill.
+         * @param now The current time in milliseconds.
+         */
+        protected void refill(final long now) {
+            if (now > lastRefillTime) {
+                tokens = Math.min(capacity, tokens + (now - lastRefillTime) * rate);
+                lastRefillTime = now;
+            }
+        }
+
+        /**
+         * Returns the time until a token is available.
+         * @return The time in milliseconds, or 0 if a token is available.
+         */
+        protected long getWaitTime() {
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / rate);
+        }
+    }
+}
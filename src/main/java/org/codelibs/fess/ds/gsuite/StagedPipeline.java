@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An executor which processes files in three stages: download, extraction and indexing.
+ * Each stage has its own threads and a bounded queue, and a stage blocks when the queue of the next stage is full,
+ * so slow extraction throttles downloads instead of buffering files in memory.
+ * The stages are shut down in order, so a stage drains before the next one stops accepting tasks.
+ */
+public class StagedPipeline extends AbstractExecutorService {
+
+    private static final Logger logger = LogManager.getLogger(StagedPipeline.class);
+
+    /** The download stage. */
+    protected final Stage download;
+
+    /** The extraction stage. */
+    protected final Stage extraction;
+
+    /** The indexing stage. */
+    protected final Stage indexing;
+
+    /** The scheduler to report the queue depths, or null. */
+    protected final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a new StagedPipeline.
+     * @param downloadThreads The number of threads of the download stage.
+     * @param extractionThreads The number of threads of the extraction stage.
+     * @param indexingThreads The number of threads of the indexing stage.
+     * @param queueSize The capacity of the queue of each stage.
+     * @param reportInterval The interval in milliseconds to log the queue depths, or 0 to disable.
+     * @param handler The handler of tasks which a queue cannot accept.
+     */
+    public StagedPipeline(final int downloadThreads, final int extractionThreads, final int indexingThreads, final int queueSize,
+            final long reportInterval, final RejectedExecutionHandler handler) {
+        this(downloadThreads, extractionThreads, indexingThreads, queueSize, reportInterval, false, handler);
+    }
+
+    /**
+     * Constructs a new StagedPipeline.
+     * @param downloadThreads The number of threads of the download stage.
+     * @param extractionThreads The number of threads of the extraction stage.
+     * @param indexingThreads The number of threads of the indexing stage.
+     * @param queueSize The capacity of the queue of each stage.
+     * @param reportInterval The interval in milliseconds to log the queue depths, or 0 to disable.
+     * @param virtualDownloads Whether the download stage runs on virtual threads.
+     * @param handler The handler of tasks which a queue cannot accept.
+     */
+    public StagedPipeline(final int downloadThreads, final int extractionThreads, final int indexingThreads, final int queueSize,
+            final long reportInterval, final boolean virtualDownloads, final RejectedExecutionHandler handler) {
+        indexing = new Stage("indexing", indexingThreads, queueSize, false, handler, null);
+        extraction = new Stage("extraction", extractionThreads, queueSize, false, handler, indexing);
+        download = new Stage("download", downloadThreads, queueSize, virtualDownloads, handler, extraction);
+        if (reportInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "StagedPipeline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> logger.info("{}", this), reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+        logger.info("{}", this);
+    }
+
+    /**
+     * Runs a task in the download stage.
+     * @param command The task.
+     */
+    @Override
+    public void execute(final Runnable command) {
+        download.executor.execute(command);
+    }
+
+    /**
+     * Processes an item through the stages.
+     * The extraction and indexing tasks run only if the previous stage succeeded.
+     * @param downloadTask The task of the download stage, which returns false to skip the rest.
+     * @param extractionTask The task of the extraction stage.
+     * @param indexingTask The task of the indexing stage.
+     * @param errorHandler The handler of an error in any stage.
+     * @param doneHandler The handler called once after the last stage which ran, even on errors.
+     */
+    public void process(final BooleanSupplier downloadTask, final Runnable extractionTask, final Runnable indexingTask,
+            final Consumer<Throwable> errorHandler, final Runnable doneHandler) {
+        download.executor.execute(() -> {
+            boolean handedOver = false;
+            try {
+                if (downloadTask.getAsBoolean()) {
+                    extraction.executor.execute(() -> {
+                        boolean indexed = false;
+                        try {
+                            extractionTask.run();
+                            indexing.executor.execute(() -> {
+                                try {
+                                    indexingTask.run();
+                                } catch (final Throwable t) {
+                                    errorHandler.accept(t);
+                                } finally {
+                                    doneHandler.run();
+                                }
+                            });
+                            indexed = true;
+                        } catch (final Throwable t) {
+                            errorHandler.accept(t);
+                        } finally {
+                            if (!indexed) {
+                                doneHandler.run();
+                            }
+                        }
+                    });
+                    handedOver = true;
+                }
+            } catch (final Throwable t) {
+                errorHandler.accept(t);
+            } finally {
+                if (!handedOver) {
+                    doneHandler.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting new items. The queued items are processed, and each stage is shut down
+     * after the previous one has terminated.
+     */
+    @Override
+    public void shutdown() {
+        download.executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        return Stream.of(download, extraction, indexing).flatMap(stage -> stage.executor.shutdownNow().stream())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return download.executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return indexing.executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (final Stage stage : List.of(download, extraction, indexing)) {
+            if (!stage.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        logger.info("{}", this);
+        return true;
+    }
+
+    /**
+     * Returns the download stage.
+     * @return The download stage.
+     */
+    public Stage getDownloadStage() {
+        return download;
+    }
+
+    /**
+     * Returns the extraction stage.
+     * @return The extraction stage.
+     */
+    public Stage getExtractionStage() {
+        return extraction;
+    }
+
+    /**
+     * Returns the indexing stage.
+     * @return The indexing stage.
+     */
+    public Stage getIndexingStage() {
+        return indexing;
+    }
+
+    @Override
+    public String toString() {
+        return "StagedPipeline [" + download + ", " + extraction + ", " + indexing + "]";
+    }
+
+    /**
+     * A stage of the pipeline with its own threads and bounded queue.
+     */
+    public class Stage {
+        /** The name of the stage. */
+        protected final String name;
+        /** The executor of the stage. */
+        protected final ThreadPoolExecutor executor;
+
+        /**
+         * Constructs a new Stage.
+         * @param name The name of the stage.
+         * @param nThreads The number of threads.
+         * @param queueSize The capacity of the queue.
+         * @param virtual Whether the threads are virtual threads.
+         * @param handler The handler of tasks which the queue cannot accept.
+         * @param next The next stage to shut down when this stage terminates, or null.
+         */
+        protected Stage(final String name, final int nThreads, final int queueSize, final boolean virtual,
+                final RejectedExecutionHandler handler, final Stage next) {
+            this.name = name;
+            final int threads = Math.max(1, nThreads);
+            final ThreadFactory threadFactory;
+            if (virtual) {
+                threadFactory = Thread.ofVirtual().name("StagedPipeline-" + name + "-", 1).factory();
+            } else {
+                final AtomicInteger count = new AtomicInteger();
+                threadFactory = r -> {
+                    final Thread thread = new Thread(r, "StagedPipeline-" + name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+            }
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(Math.max(1, queueSize)), threadFactory, handler) {
+                @Override
+                protected void terminated() {
+                    super.terminated();
+                    if (next != null) {
+                        next.executor.shutdown();
+                    } else if (scheduler != null) {
+                        scheduler.shutdownNow();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Returns the name of the stage.
+         * @return The name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of tasks waiting in the queue.
+         * @return The queue depth.
+         */
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        /**
+         * Returns the number of threads running a task.
+         * @return The number of active threads.
+         */
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        /**
+         * Returns the number of completed tasks.
+         * @return The number of completed tasks.
+         */
+        public long getCompletedCount() {
+            return executor.getCompletedTaskCount();
+        }
+
+        @Override
+        public String toString() {
+            return name + "[threads=" + executor.getMaximumPoolSize() + ", active=" + getActiveCount() + ", queued=" + getQueueDepth()
+                    + "/" + (getQueueDepth() + executor.getQueue().remainingCapacity()) + ", completed=" + getCompletedCount() + "]";
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * An executor which runs each task on a new virtual thread.
+ * The number of running tasks is limited by a semaphore instead of a pool size,
+ * and the submitting thread waits for a permit, so a listing never runs far ahead of the processing.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private static final Logger logger = LogManager.getLogger(VirtualThreadExecutor.class);
+
+    /** The executor which starts a virtual thread per task. */
+    protected final ExecutorService executor;
+
+    /** The permits of running tasks. */
+    protected final Semaphore permits;
+
+    /** The maximum number of running tasks. */
+    protected final int maxConcurrency;
+
+    /** The number of completed tasks. */
+    protected final LongAdder completedCount = new LongAdder();
+
+    /**
+     * Constructs a new VirtualThreadExecutor.
+     * @param maxConcurrency The maximum number of running tasks.
+     */
+    public VirtualThreadExecutor(final int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        permits = new Semaphore(this.maxConcurrency);
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("VirtualThreadExecutor-", 1).factory());
+        logger.info("Concurrency: {} (virtual threads)", this.maxConcurrency);
+    }
+
+    /**
+     * Runs a task on a new virtual thread, waiting while the maximum number of tasks are running.
+     * @param command The task.
+     */
+    @Override
+    public void execute(final Runnable command) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Executor has been shut down.");
+        }
+        try {
+            permits.acquire();
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    completedCount.increment();
+                    permits.release();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final boolean terminated = executor.awaitTermination(timeout, unit);
+        if (terminated) {
+            logger.info("{}", this);
+        }
+        return terminated;
+    }
+
+    /**
+     * Returns the number of running tasks.
+     * @return The number of running tasks.
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of completed tasks.
+     * @return The number of completed tasks.
+     */
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualThreadExecutor [active=" + getActiveCount() + ", maxConcurrency=" + maxConcurrency + ", completed="
+                + getCompletedCount() + "]";
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.codelibs.fess.crawler.exception.CrawlingAccessException;
+
+public class AdaptiveThreadPoolExecutorTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testNextConcurrency() {
+        final AdaptiveThreadPoolExecutor executor =
+                new AdaptiveThreadPoolExecutor(2, 8, 4, 60000L, null, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            assertEquals(4, executor.getConcurrency());
+            // healthy and busy
+            assertEquals(5, executor.nextConcurrency(4, true, 10, 1000, 0, 0, 0, 0.5));
+            // healthy but idle
+            assertEquals(4, executor.nextConcurrency(4, false, 10, 1000, 0, 0, 0, 0.5));
+            // throttled
+            assertEquals(2, executor.nextConcurrency(4, true, 10, 1000, 0, 0, 1, 0.5));
+            // the minimum applies
+            assertEquals(2, executor.nextConcurrency(3, true, 10, 1000, 0, 1, 0, 0.5));
+            // error rate
+            assertEquals(4, executor.nextConcurrency(8, true, 10, 1000, 2, 0, 0, 0.5));
+            // heap pressure
+            assertEquals(4, executor.nextConcurrency(8, true, 10, 1000, 0, 0, 0, 0.95));
+            // latency over twice the baseline of 100ms
+            assertEquals(4, executor.nextConcurrency(8, true, 10, 3000, 0, 0, 0, 0.5));
+            // the maximum applies
+            assertEquals(8, executor.nextConcurrency(8, true, 10, 1000, 0, 0, 0, 0.5));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testNextConcurrency_MixedLatency() {
+        final AdaptiveThreadPoolExecutor executor =
+                new AdaptiveThreadPoolExecutor(1, 64, 4, 60000L, null, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            // one interval in three has large files, which take ten times longer than small ones
+            int concurrency = 4;
+            for (int i = 0; i < 30; i++) {
+                final long latency = i % 3 == 0 ? 1000 : 100;
+                final int next = executor.nextConcurrency(concurrency, true, 10, latency, 0, 0, 0, 0.5);
+                assertEquals("interval " + i, Math.min(64, concurrency + 1), next);
+                concurrency = next;
+            }
+            assertEquals(100L, (long) executor.baselineLatency);
+            // a real slowdown is still detected
+            assertEquals(concurrency / 2, executor.nextConcurrency(concurrency, true, 10, 5000, 0, 0, 0, 0.5));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testSetConcurrency() {
+        final AdaptiveThreadPoolExecutor executor =
+                new AdaptiveThreadPoolExecutor(1, 8, 2, 60000L, () -> 0L, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            executor.setConcurrency(6);
+            assertEquals(6, executor.getCorePoolSize());
+            assertEquals(6, executor.getMaximumPoolSize());
+            executor.setConcurrency(3);
+            assertEquals(3, executor.getCorePoolSize());
+            assertEquals(3, executor.getMaximumPoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testOnError() {
+        final AdaptiveThreadPoolExecutor executor =
+                new AdaptiveThreadPoolExecutor(1, 8, 2, 60000L, null, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            executor.onError(new CrawlingAccessException("test"));
+            executor.onError(new CrawlingAccessException("test", new SocketTimeoutException("timeout")));
+            assertEquals(2L, executor.errorCount.sum());
+            assertEquals(1L, executor.timeoutCount.sum());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
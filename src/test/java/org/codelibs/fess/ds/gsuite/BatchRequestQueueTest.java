@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.fess.exception.DataStoreException;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+
+public class BatchRequestQueueTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testSubmit() throws Exception {
+        final Drive drive = new Drive.Builder(new NetHttpTransport(), new JacksonFactory(), null).setApplicationName("test").build();
+        final AtomicInteger batches = new AtomicInteger();
+        try (final BatchRequestQueue queue = new BatchRequestQueue(() -> {
+            batches.incrementAndGet();
+            throw new DataStoreException("test");
+        }, 2, 60000L, Runnable::run)) {
+            final CompletableFuture<File> future1 = queue.submit(drive.files().get("id1"));
+            assertEquals(0, batches.get());
+            final CompletableFuture<File> future2 = queue.submit(drive.files().get("id2"));
+            // the batch is full
+            assertEquals(1, batches.get());
+            assertTrue(future1.isCompletedExceptionally());
+            assertTrue(future2.isCompletedExceptionally());
+
+            final CompletableFuture<File> future3 = queue.submit(drive.files().get("id3"));
+            assertFalse(future3.isDone());
+            queue.flush();
+            assertEquals(2, batches.get());
+            try {
+                future3.get();
+                fail();
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof DataStoreException);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+public class BoundedPipeTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testTransfer() throws Exception {
+        final byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        final BoundedPipe pipe = new BoundedPipe(1000);
+        final CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try (OutputStream out = pipe.getOutputStream()) {
+                for (int i = 0; i < data.length; i += 777) {
+                    out.write(data, i, Math.min(777, data.length - i));
+                }
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try (InputStream in = pipe.getInputStream()) {
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+        }
+        writer.get();
+    }
+
+    public void testFail() throws Exception {
+        final BoundedPipe pipe = new BoundedPipe(10);
+        pipe.getOutputStream().write(new byte[] { 1, 2 });
+        pipe.fail(new IllegalStateException("test"));
+        final InputStream in = pipe.getInputStream();
+        try {
+            IOUtils.toByteArray(in);
+            fail();
+        } catch (final IOException e) {
+            assertEquals("test", e.getMessage());
+        }
+    }
+
+    public void testCloseReader() throws Exception {
+        final BoundedPipe pipe = new BoundedPipe(10);
+        final CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try {
+                pipe.getOutputStream().write(new byte[100]);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        final InputStream in = pipe.getInputStream();
+        assertEquals(5, in.read(new byte[5]));
+        in.close();
+        try {
+            writer.get();
+            fail();
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+    }
+
+    public void testWriterStarter() throws Exception {
+        final BoundedPipe pipe = new BoundedPipe(10);
+        final AtomicInteger started = new AtomicInteger();
+        pipe.setWriterStarter(() -> {
+            started.incrementAndGet();
+            CompletableFuture.runAsync(() -> {
+                try (OutputStream out = pipe.getOutputStream()) {
+                    out.write(new byte[] { 1, 2, 3 });
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        });
+        final InputStream in = pipe.getInputStream();
+        // the writer waits for the first read
+        assertEquals(0, started.get());
+        assertEquals(0, in.available());
+        assertEquals(0, started.get());
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, IOUtils.toByteArray(in)));
+        assertEquals(1, started.get());
+        in.close();
+        assertEquals(1, started.get());
+    }
+
+    public void testWriterStarter_Closed() throws Exception {
+        final BoundedPipe pipe = new BoundedPipe(10);
+        final AtomicInteger started = new AtomicInteger();
+        pipe.setWriterStarter(started::incrementAndGet);
+        pipe.getInputStream().close();
+        assertEquals(0, started.get());
+    }
+
+    public void testWriterStarter_Rejected() throws Exception {
+        final BoundedPipe pipe = new BoundedPipe(10);
+        pipe.setWriterStarter(() -> {
+            throw new RejectedExecutionException("test");
+        });
+        try {
+            pipe.getInputStream().read();
+            fail();
+        } catch (final IOException e) {
+            assertEquals("test", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ByteBudgetTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testReserve() throws Exception {
+        final ByteBudget budget = new ByteBudget(100);
+        final long weight1 = budget.reserve(60);
+        assertEquals(60L, weight1);
+        final long weight2 = budget.reserve(40);
+        assertEquals(100L, budget.getReservedBytes());
+
+        final CompletableFuture<Long> waiting = CompletableFuture.supplyAsync(() -> budget.reserve(50));
+        try {
+            waiting.get(200, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (final TimeoutException e) {
+            // over the budget
+        }
+        budget.release(weight1);
+        assertEquals(50L, waiting.get(5, TimeUnit.SECONDS).longValue());
+        assertEquals(90L, budget.getReservedBytes());
+        budget.release(weight2);
+        budget.release(50L);
+        assertEquals(0L, budget.getReservedBytes());
+        assertTrue(budget.toString().contains("waitCount=1"));
+    }
+
+    public void testReserve_LargerThanCapacity() {
+        final ByteBudget budget = new ByteBudget(100);
+        // admitted alone and counted as the whole budget
+        assertEquals(100L, budget.reserve(1000));
+        budget.release(100L);
+        assertEquals(0L, budget.reserve(-1));
+        assertEquals(0L, budget.getReservedBytes());
+    }
+
+    public void testReserve_Fifo() throws Exception {
+        final ByteBudget budget = new ByteBudget(100);
+        final long held = budget.reserve(20);
+        final CompletableFuture<Long> large = CompletableFuture.supplyAsync(() -> budget.reserve(90));
+        while (!budget.toString().contains("waitCount=1")) {
+            Thread.sleep(10L);
+        }
+
+        // small files keep part of the budget reserved, which starved the large one when they went first
+        final CompletableFuture<Long> stream = CompletableFuture.supplyAsync(() -> {
+            long previous = budget.reserve(20);
+            for (int i = 0; i < 20; i++) {
+                final long weight = budget.reserve(20);
+                budget.release(previous);
+                previous = weight;
+            }
+            return previous;
+        });
+        try {
+            stream.get(200, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (final TimeoutException e) {
+            // queued behind the large reservation
+        }
+        budget.release(held);
+        assertEquals(90L, large.get(5, TimeUnit.SECONDS).longValue());
+        assertFalse(stream.isDone());
+        budget.release(90L);
+        budget.release(stream.get(5, TimeUnit.SECONDS));
+        assertEquals(0L, budget.getReservedBytes());
+    }
+}
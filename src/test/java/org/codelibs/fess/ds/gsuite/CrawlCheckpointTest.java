@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+
+public class CrawlCheckpointTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testStartPageToken() throws Exception {
+        final Path dir = Files.createTempDirectory("checkpoint");
+        final Path path = dir.resolve("sub").resolve("config.properties");
+        final CrawlCheckpoint checkpoint = new CrawlCheckpoint(path);
+        assertNull(checkpoint.getStartPageToken());
+
+        checkpoint.setStartPageToken("12345");
+        checkpoint.store();
+        assertTrue(Files.exists(path));
+        assertFalse(Files.exists(path.resolveSibling("config.properties.tmp")));
+
+        final CrawlCheckpoint loaded = new CrawlCheckpoint(path);
+        assertEquals("12345", loaded.getStartPageToken());
+
+        loaded.setStartPageToken(null);
+        loaded.store();
+        assertNull(new CrawlCheckpoint(path).getStartPageToken());
+    }
+
+    public void testResume() throws Exception {
+        final Path path = Files.createTempDirectory("checkpoint").resolve("config.properties");
+        final CrawlCheckpoint checkpoint = new CrawlCheckpoint(path);
+        checkpoint.setStoreInterval(0L);
+        assertFalse(checkpoint.isResumable());
+
+        assertEquals(3, checkpoint.startPage(null, "token2", Arrays.asList("a", "b", "c")).size());
+        assertEquals(2, checkpoint.startPage("token2", "token3", Arrays.asList("d", "e")).size());
+        checkpoint.completeFile("a");
+        checkpoint.completeFile("d");
+        assertNull(checkpoint.getPageToken());
+        checkpoint.completeFile("b");
+        checkpoint.completeFile("c");
+        assertEquals("token2", checkpoint.getPageToken());
+
+        // crashed while "e" was in flight
+        final CrawlCheckpoint resumed = new CrawlCheckpoint(path);
+        assertTrue(resumed.isResumable());
+        assertEquals("token2", resumed.getPageToken());
+        assertEquals(Arrays.asList("e"), resumed.getInFlightIds());
+        final Set<String> targetIds = resumed.startPage("token2", "token3", Arrays.asList("d", "e"));
+        assertEquals(1, targetIds.size());
+        assertTrue(targetIds.contains("e"));
+        resumed.completeFile("e");
+        assertEquals("token3", resumed.getPageToken());
+
+        resumed.finish();
+        resumed.store();
+        assertFalse(new CrawlCheckpoint(path).isResumable());
+    }
+
+    public void testReset() throws Exception {
+        final Path path = Files.createTempDirectory("checkpoint").resolve("config.properties");
+        final CrawlCheckpoint checkpoint = new CrawlCheckpoint(path);
+        checkpoint.setStoreInterval(0L);
+        checkpoint.setPendingStartPageToken("100");
+        checkpoint.startPage(null, "token2", Arrays.asList("a", "b"));
+        checkpoint.completeFile("a");
+        checkpoint.startPage("token2", null, Arrays.asList("c"));
+        assertTrue(new CrawlCheckpoint(path).isResumable());
+
+        checkpoint.reset();
+        checkpoint.store();
+        final CrawlCheckpoint loaded = new CrawlCheckpoint(path);
+        assertFalse(loaded.isResumable());
+        assertNull(loaded.getPageToken());
+        assertTrue(loaded.getInFlightIds().isEmpty());
+        assertEquals("100", loaded.getPendingStartPageToken());
+        assertEquals(2, loaded.startPage(null, "token2", Arrays.asList("a", "b")).size());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.fess.exception.DataStoreException;
+
+public class CredentialRegistryTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testAcquire() {
+        final CredentialRegistry registry = new CredentialRegistry();
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final CredentialRegistry.Credential credential1 = registry.acquire("user@example.com\nkey1", key -> {
+            created.incrementAndGet();
+            return new CredentialRegistry.Credential(key, null, null, null, null) {
+                @Override
+                public void close() {
+                    closed.incrementAndGet();
+                    super.close();
+                }
+            };
+        });
+        final CredentialRegistry.Credential credential2 = registry.acquire("user@example.com\nkey1", key -> {
+            throw new IllegalStateException("not shared");
+        });
+        assertSame(credential1, credential2);
+        assertEquals(1, created.get());
+        assertEquals(1, registry.size());
+        assertEquals("Credential [account=user@example.com, refCount=2]", credential1.toString());
+
+        registry.release(credential1);
+        assertEquals(0, closed.get());
+        assertEquals(1, registry.size());
+        registry.release(credential2);
+        assertEquals(1, closed.get());
+        assertEquals(0, registry.size());
+    }
+
+    public void testAcquire_WithError() {
+        final CredentialRegistry registry = new CredentialRegistry();
+        try {
+            registry.acquire("user@example.com\nkey1", key -> {
+                throw new DataStoreException("test");
+            });
+            fail();
+        } catch (final DataStoreException e) {
+            assertEquals(0, registry.size());
+        }
+    }
+}
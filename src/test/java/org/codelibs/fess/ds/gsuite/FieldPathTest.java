@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FieldPathTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testParse() {
+        assertEquals("file.name", FieldPath.parse("file.name").toString());
+        assertEquals("file.name", FieldPath.parse(" file.name ").toString());
+        assertEquals("url", FieldPath.parse("url").toString());
+        assertEquals("file.web_view_link", FieldPath.parse("file.web_view_link").toString());
+        assertNull(FieldPath.parse(null));
+        assertNull(FieldPath.parse(""));
+        assertNull(FieldPath.parse("file.description+\"\\n\"+file.contents"));
+        assertNull(FieldPath.parse("file.name.toUpperCase()"));
+        assertNull(FieldPath.parse("file.owners[0]"));
+        assertNull(FieldPath.parse("file..name"));
+        assertNull(FieldPath.parse("1.5"));
+    }
+
+    public void testResolve() {
+        final Map<String, Object> fileMap = new HashMap<>();
+        fileMap.put("name", "test.txt");
+        fileMap.put("contents", null);
+        fileMap.put("owners", List.of("user1"));
+        final Map<String, Object> bindings = new HashMap<>();
+        bindings.put("file", fileMap);
+        bindings.put("url", "https://example.com/");
+
+        assertEquals("test.txt", FieldPath.parse("file.name").resolve(bindings));
+        assertNull(FieldPath.parse("file.contents").resolve(bindings));
+        assertNull(FieldPath.parse("file.unknown").resolve(bindings));
+        assertEquals(List.of("user1"), FieldPath.parse("file.owners").resolve(bindings));
+        assertEquals("https://example.com/", FieldPath.parse("url").resolve(bindings));
+        // left to the script engine
+        assertSame(FieldPath.UNRESOLVED, FieldPath.parse("unknown").resolve(bindings));
+        assertSame(FieldPath.UNRESOLVED, FieldPath.parse("file.owners.size").resolve(bindings));
+        assertSame(FieldPath.UNRESOLVED, FieldPath.parse("url.length").resolve(bindings));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.User;
+
+/**
+ * Compares the memory allocated per file by the lazy file map with a map which converts every field.
+ * The measurement depends on the JVM, so it runs only with -Dbenchmark=true.
+ */
+public class FileMapBenchmarkTest extends UnitDsTestCase {
+
+    private static final Logger logger = LogManager.getLogger(FileMapBenchmarkTest.class);
+
+    private static final int FILES = 20000;
+
+    // the fields read by typical scripts
+    private static final String[] SCRIPT_FIELDS = { "name", "description", "contents", "mimetype", "filetype", "created_time",
+            "modified_time", "url" };
+
+    private GoogleDriveDataStore dataStore;
+
+    private long sink;
+
+    @Override
+    protected String prepareConfigFile() {
+        return "test_app.xml";
+    }
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testAllocationPerFile() {
+        if (!Boolean.getBoolean("benchmark")) {
+            return;
+        }
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean)
+                || !threadMXBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        dataStore = new GoogleDriveDataStore() {
+            @Override
+            protected String getFileType(final String mimetype) {
+                return "pdf";
+            }
+        };
+        final File file = newFile();
+
+        // warm up
+        measure(threadMXBean, () -> buildEagerFileMap(file));
+        measure(threadMXBean, () -> dataStore.buildFileMap(file, "content", 100L, "https://example.com/file"));
+
+        final long eager = measure(threadMXBean, () -> buildEagerFileMap(file));
+        final long lazy = measure(threadMXBean, () -> dataStore.buildFileMap(file, "content", 100L, "https://example.com/file"));
+        logger.info("Allocated bytes per file: eager={}, lazy={} ({} fields read)", eager, lazy, SCRIPT_FIELDS.length);
+        assertTrue(lazy < eager);
+    }
+
+    private Map<String, Object> buildEagerFileMap(final File file) {
+        final GoogleDriveDataStore.FileMap source = dataStore.new FileMap(file, "content", 100L, "https://example.com/file");
+        final Map<String, Object> fileMap = new HashMap<>();
+        for (final Map.Entry<String, Function<GoogleDriveDataStore.FileMap, Object>> entry : GoogleDriveDataStore.FILE_MAP_FIELDS
+                .entrySet()) {
+            fileMap.put(entry.getKey(), entry.getValue().apply(source));
+        }
+        return fileMap;
+    }
+
+    private long measure(final com.sun.management.ThreadMXBean threadMXBean, final Supplier<Map<String, Object>> factory) {
+        final long threadId = Thread.currentThread().threadId();
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < FILES; i++) {
+            final Map<String, Object> fileMap = factory.get();
+            fileMap.put("roles", List.of());
+            for (final String key : SCRIPT_FIELDS) {
+                final Object value = fileMap.get(key);
+                if (value != null) {
+                    sink += value.hashCode();
+                }
+            }
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - before) / FILES;
+    }
+
+    private File newFile() {
+        final long now = System.currentTimeMillis();
+        return new File().setId("id1")
+                .setName("test.pdf")
+                .setMimeType("application/pdf")
+                .setSize(100L)
+                .setWebViewLink("https://drive.google.com/file/d/id1/view")
+                .setCreatedTime(new DateTime(now - 100000L))
+                .setModifiedTime(new DateTime(now))
+                .setViewedByMeTime(new DateTime(now))
+                .setModifiedByMeTime(new DateTime(now))
+                .setOwners(List.of(new User().setEmailAddress("user1@example.com")))
+                .setParents(List.of("parent1"));
+    }
+}
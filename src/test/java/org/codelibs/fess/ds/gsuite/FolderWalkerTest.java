@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.codelibs.fess.exception.DataStoreException;
+
+import com.google.api.services.drive.model.File;
+
+public class FolderWalkerTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    private static File folder(final String id) {
+        return new File().setId(id).setMimeType(FolderWalker.FOLDER_MIMETYPE);
+    }
+
+    private static File file(final String id) {
+        return new File().setId(id).setMimeType("text/plain");
+    }
+
+    private static File shortcut(final String id, final String targetId, final String targetMimeType) {
+        final Map<String, Object> details = new HashMap<>();
+        details.put("targetId", targetId);
+        details.put("targetMimeType", targetMimeType);
+        final File shortcut = new File().setId(id).setMimeType(FolderWalker.SHORTCUT_MIMETYPE);
+        shortcut.set("shortcutDetails", details);
+        return shortcut;
+    }
+
+    public void testWalk() {
+        final Map<String, List<File>> tree = new HashMap<>();
+        tree.put("root", List.of(folder("a"), folder("b"), file("f1"), shortcut("s1", "f4", "text/plain")));
+        // "b" is also a child of "a", and "a" contains a shortcut back to the root
+        tree.put("a", List.of(folder("b"), file("f2"), shortcut("s2", "root", FolderWalker.FOLDER_MIMETYPE)));
+        // "f2" has two parents
+        tree.put("b", List.of(file("f2"), file("f3"), shortcut("s3", "c", FolderWalker.FOLDER_MIMETYPE)));
+        tree.put("c", List.of(file("f5")));
+
+        final List<String> visitedIds = Collections.synchronizedList(new ArrayList<>());
+        final List<String> listedIds = Collections.synchronizedList(new ArrayList<>());
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            new FolderWalker(executor, (folderId, consumer) -> {
+                listedIds.add(folderId);
+                tree.getOrDefault(folderId, List.of()).forEach(consumer);
+            }, FolderWalkerTest::file, file -> visitedIds.add(file.getId())).walk("root");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(4, listedIds.size());
+        assertTrue(listedIds.containsAll(List.of("root", "a", "b", "c")));
+        assertEquals(7, visitedIds.size());
+        assertTrue(visitedIds.containsAll(List.of("a", "b", "f1", "f2", "f3", "f4", "f5")));
+    }
+
+    public void testWalk_WithError() {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final List<String> visitedIds = Collections.synchronizedList(new ArrayList<>());
+        final FolderWalker walker = new FolderWalker(executor, (folderId, consumer) -> {
+            if ("bad".equals(folderId)) {
+                throw new DataStoreException("error");
+            }
+            consumer.accept(folder("bad"));
+            consumer.accept(file("f1"));
+        }, FolderWalkerTest::file, file -> visitedIds.add(file.getId()));
+        try {
+            walker.walk("root");
+            fail();
+        } catch (final DataStoreException e) {
+            // expected
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(List.of("bad"), new ArrayList<>(walker.getFailedFolderIds()));
+        assertTrue(visitedIds.contains("f1"));
+    }
+}
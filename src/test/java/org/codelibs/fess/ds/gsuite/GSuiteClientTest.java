@@ -17,12 +17,36 @@ package org.codelibs.fess.ds.gsuite;
 
 import org.junit.jupiter.api.TestInfo;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.fess.crawler.exception.MaxLengthExceededException;
 import org.codelibs.fess.entity.DataStoreParams;
 import org.codelibs.fess.exception.DataStoreException;
 import org.codelibs.fess.ds.gsuite.UnitDsTestCase;
 
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
 public class GSuiteClientTest extends UnitDsTestCase {
 
     private static final String VALID_PRIVATE_KEY =
@@ -180,4 +204,284 @@ public class GSuiteClientTest extends UnitDsTestCase {
             assertTrue(e.getMessage().contains("Failed to decode") || e.getMessage().contains("Illegal base64"));
         }
     }
+
+    public void testPageIterator() {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try (final GSuiteClient.PageIterator<String> pages = new GSuiteClient.PageIterator<>(executor, 1,
+                (pageToken, counter) -> "page" + counter, page -> "page3".equals(page) ? null : "token", null, "error")) {
+            final List<String> list = new ArrayList<>();
+            while (pages.hasNext()) {
+                list.add(pages.next());
+            }
+            assertEquals(3, list.size());
+            assertEquals("page1", list.get(0));
+            assertEquals("page2", list.get(1));
+            assertEquals("page3", list.get(2));
+            assertFalse(pages.hasNext());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testStreamItems() {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final AtomicInteger fetched = new AtomicInteger();
+        final GSuiteClient.PageIterator<List<String>> pages = new GSuiteClient.PageIterator<>(executor, 1, (pageToken, counter) -> {
+            fetched.incrementAndGet();
+            return List.of("item" + counter + "-1", "item" + counter + "-2");
+        }, page -> "next", null, "error");
+        try (final Stream<String> items = GSuiteClient.streamItems(pages, page -> page)) {
+            final List<String> list = items.limit(5).collect(Collectors.toList());
+            assertEquals(List.of("item1-1", "item1-2", "item2-1", "item2-2", "item3-1"), list);
+        } finally {
+            executor.shutdownNow();
+        }
+        // consumed pages, buffered pages and a page waiting for the buffer
+        assertTrue(fetched.get() <= 5);
+    }
+
+    public void testPageIterator_WithError() {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try (final GSuiteClient.PageIterator<String> pages = new GSuiteClient.PageIterator<>(executor, 1, (pageToken, counter) -> {
+            if (counter > 1) {
+                throw new IOException("test");
+            }
+            return "page" + counter;
+        }, page -> "next", null, "Failed to access pages.")) {
+            assertTrue(pages.hasNext());
+            assertEquals("page1", pages.next());
+            try {
+                pages.hasNext();
+                fail("Expected DataStoreException");
+            } catch (final DataStoreException e) {
+                assertEquals("Failed to access pages.", e.getMessage());
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPageIterator_WithThrowable() {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try (final GSuiteClient.PageIterator<String> pages = new GSuiteClient.PageIterator<>(executor, 1, (pageToken, counter) -> {
+            if (counter > 1) {
+                throw new NoClassDefFoundError("test");
+            }
+            return "page" + counter;
+        }, page -> "next", null, "Failed to access pages.")) {
+            assertTrue(pages.hasNext());
+            assertEquals("page1", pages.next());
+            try {
+                pages.hasNext();
+                fail("Expected DataStoreException");
+            } catch (final DataStoreException e) {
+                assertTrue(e.getCause() instanceof NoClassDefFoundError);
+            }
+            assertFalse(pages.hasNext());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPageIterator_Interrupted() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final CountDownLatch fetched = new CountDownLatch(2);
+        try (final GSuiteClient.PageIterator<String> pages = new GSuiteClient.PageIterator<>(executor, 1, (pageToken, counter) -> {
+            fetched.countDown();
+            return "page" + counter;
+        }, page -> "next", null, "Failed to access pages.")) {
+            // the second page waits for the full buffer
+            assertTrue(fetched.await(10, TimeUnit.SECONDS));
+            executor.shutdownNow();
+            try {
+                pages.hasNext();
+                fail("Expected InterruptedRuntimeException");
+            } catch (final InterruptedRuntimeException e) {
+                // expected
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPageSizeController() {
+        final GSuiteClient.PageSizeController controller = new GSuiteClient.PageSizeController(100, 10, 1000, 1000L, 1000L);
+        assertEquals(100, controller.getPageSize());
+        controller.update(2000L, 100L);
+        assertEquals(50, controller.getPageSize());
+        controller.update(100L, 2000L);
+        assertEquals(25, controller.getPageSize());
+        controller.update(700L, 100L);
+        assertEquals(25, controller.getPageSize());
+        controller.update(100L, 100L);
+        assertEquals(31, controller.getPageSize());
+        for (int i = 0; i < 10; i++) {
+            controller.update(5000L, 100L);
+        }
+        assertEquals(10, controller.getPageSize());
+        for (int i = 0; i < 100; i++) {
+            controller.update(0L, 0L);
+        }
+        assertEquals(1000, controller.getPageSize());
+    }
+
+    public void testGetAlgorithm() throws Exception {
+        final DataStoreParams params = new DataStoreParams();
+        params.put(GSuiteClient.PRIVATE_KEY_PARAM, VALID_PRIVATE_KEY);
+        params.put(GSuiteClient.PRIVATE_KEY_ID_PARAM, "test_key_id");
+        params.put(GSuiteClient.CLIENT_EMAIL_PARAM, "test@example.com");
+        final GSuiteClient.RequestInitializer initializer = new GSuiteClient.RequestInitializer(params, null);
+        assertNotNull(initializer.getAlgorithm());
+        assertSame(initializer.getAlgorithm(), initializer.getAlgorithm());
+    }
+
+    public void testRefreshToken() {
+        final AtomicInteger refreshCount = new AtomicInteger();
+        final GSuiteClient.RequestInitializer initializer = newRequestInitializer(refreshCount);
+        assertEquals("token1", initializer.getAccessToken());
+        assertEquals("token1", initializer.getAccessToken());
+        // another thread has already replaced the stale token
+        initializer.refreshToken("token0");
+        assertEquals(1, refreshCount.get());
+        initializer.refreshToken("token1");
+        assertEquals(2, refreshCount.get());
+        initializer.refreshAt = System.currentTimeMillis() - 1L;
+        assertEquals("token3", initializer.getAccessToken());
+    }
+
+    public void testRefreshToken_WithoutExpiresIn() {
+        final MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(final String method, final String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        return new MockLowLevelHttpResponse().setContent("{\"access_token\":\"token1\"}");
+                    }
+                };
+            }
+        };
+        final DataStoreParams params = new DataStoreParams();
+        params.put(GSuiteClient.PRIVATE_KEY_PARAM, VALID_PRIVATE_KEY);
+        params.put(GSuiteClient.PRIVATE_KEY_ID_PARAM, "test_key_id");
+        params.put(GSuiteClient.CLIENT_EMAIL_PARAM, "test@example.com");
+        final long before = System.currentTimeMillis();
+        final GSuiteClient.RequestInitializer initializer = new GSuiteClient.RequestInitializer(params, transport);
+        final long after = System.currentTimeMillis();
+        assertEquals("token1", initializer.accessToken);
+        // the default refresh token interval is used as the lifetime, minus the refresh margin
+        final long lifetime = Long.parseLong(GSuiteClient.DEFAULT_REFRESH_TOKEN_INTERVAL) * 1000L
+                - GSuiteClient.DEFAULT_TOKEN_REFRESH_MARGIN_MS;
+        assertTrue(initializer.refreshAt >= before + lifetime);
+        assertTrue(initializer.refreshAt <= after + lifetime);
+    }
+
+    public void testRequestInitializer_Unauthorized() throws Exception {
+        final AtomicInteger refreshCount = new AtomicInteger();
+        final GSuiteClient.RequestInitializer initializer = newRequestInitializer(refreshCount);
+        final List<String> authorizations = new ArrayList<>();
+        final MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(final String method, final String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        authorizations.add(getFirstHeaderValue("Authorization"));
+                        final boolean valid = "Bearer token2".equals(getFirstHeaderValue("Authorization"));
+                        return new MockLowLevelHttpResponse().setStatusCode(valid ? 200 : 401).setContent("{}");
+                    }
+                };
+            }
+        };
+        final GenericUrl url = new GenericUrl("https://www.googleapis.com/drive/v3/files");
+        final HttpResponse response = transport.createRequestFactory(initializer).buildGetRequest(url).execute();
+        assertEquals(200, response.getStatusCode());
+        assertEquals(2, refreshCount.get());
+        assertEquals("[Bearer token1, Bearer token2]", authorizations.toString());
+    }
+
+    public void testBackoffHandler_Forbidden() throws Exception {
+        final String rateLimited = "{\"error\":{\"errors\":[{\"reason\":\"userRateLimitExceeded\"}],\"code\":403}}";
+        final String forbidden = "{\"error\":{\"errors\":[{\"reason\":\"insufficientFilePermissions\"}],\"code\":403}}";
+        final List<String> contents = new ArrayList<>(List.of(rateLimited, forbidden));
+        final MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(final String method, final String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        // a stream without mark support, like the one of a network connection
+                        final InputStream in = new FilterInputStream(new ByteArrayInputStream(contents.remove(0).getBytes())) {
+                            @Override
+                            public boolean markSupported() {
+                                return false;
+                            }
+                        };
+                        return new MockLowLevelHttpResponse().setStatusCode(403).setContentType("application/json").setContent(in);
+                    }
+                };
+            }
+        };
+        final HttpRequest request =
+                transport.createRequestFactory().buildGetRequest(new GenericUrl("https://www.googleapis.com/drive/v3/files"));
+        request.setUnsuccessfulResponseHandler(new GSuiteClient.BackoffHandler(new RateLimiter(0, 0), 5, 1L, 1L, null, null));
+        request.setThrowExceptionOnExecuteError(false);
+        final HttpResponse response = request.execute();
+        assertEquals(403, response.getStatusCode());
+        assertTrue(contents.isEmpty());
+        assertEquals(forbidden, response.parseAsString());
+    }
+
+    private GSuiteClient.RequestInitializer newRequestInitializer(final AtomicInteger refreshCount) {
+        final DataStoreParams params = new DataStoreParams();
+        params.put(GSuiteClient.PRIVATE_KEY_PARAM, VALID_PRIVATE_KEY);
+        params.put(GSuiteClient.PRIVATE_KEY_ID_PARAM, "test_key_id");
+        params.put(GSuiteClient.CLIENT_EMAIL_PARAM, "test@example.com");
+        return new GSuiteClient.RequestInitializer(params, null) {
+            @Override
+            protected void refreshToken() {
+                accessToken = "token" + refreshCount.incrementAndGet();
+                refreshAt = System.currentTimeMillis() + 60000L;
+            }
+        };
+    }
+
+    public void testExtractFileText() {
+        final DataStoreParams params = new DataStoreParams();
+        params.put("share_credentials", "false");
+        try (final GSuiteClient client = new ExportClient(params)) {
+            assertEquals("0123456789", client.extractFileText("id", "text/plain"));
+            assertEquals("0123456789", client.extractFileText("id", "text/plain", 10, false));
+            assertEquals("0123", client.extractFileText("id", "text/plain", 4, true));
+            try {
+                client.extractFileText("id", "text/plain", 4, false);
+                fail();
+            } catch (final MaxLengthExceededException e) {
+                assertTrue(e.getMessage().contains("over 4 characters"));
+            }
+        }
+    }
+
+    private static class ExportClient extends GSuiteClient {
+        ExportClient(final DataStoreParams params) {
+            super(params, null, null, DRIVE_SCOPE);
+        }
+
+        @Override
+        protected CredentialRegistry.Credential newCredential(final String key) {
+            final MockHttpTransport transport = new MockHttpTransport() {
+                @Override
+                public LowLevelHttpRequest buildRequest(final String method, final String url) {
+                    return new MockLowLevelHttpRequest(url) {
+                        @Override
+                        public LowLevelHttpResponse execute() {
+                            return new MockLowLevelHttpResponse().setContent("0123456789");
+                        }
+                    };
+                }
+            };
+            return new CredentialRegistry.Credential(key, transport, null, null, null);
+        }
+    }
 }
@@ -17,17 +17,39 @@ package org.codelibs.fess.ds.gsuite;
 
 import org.junit.jupiter.api.TestInfo;
 
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.codelibs.fess.Constants;
 import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.exception.DataStoreException;
 import org.codelibs.fess.util.ComponentUtil;
 import org.codelibs.fess.ds.gsuite.UnitDsTestCase;
 
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
 import com.google.api.services.drive.model.Permission;
+import com.google.api.services.drive.model.TeamDrive;
+import com.google.api.services.drive.model.User;
 
 public class GSuiteDataStoreTest extends UnitDsTestCase {
 
@@ -129,6 +151,531 @@ public class GSuiteDataStoreTest extends UnitDsTestCase {
         assertEquals("image/.*", mimeTypes[2]);
     }
 
+    public void testIsIncremental() {
+        final DataStoreParams params = new DataStoreParams();
+        assertFalse(dataStore.isIncremental(params));
+        params.put("incremental", "true");
+        assertTrue(dataStore.isIncremental(params));
+    }
+
+    public void testGetChangeFields() {
+        assertEquals("*", dataStore.getChangeFields("*"));
+        assertEquals("*", dataStore.getChangeFields(null));
+        assertEquals("nextPageToken,newStartPageToken,changes(fileId,removed,file(id,name,owners(emailAddress)))",
+                dataStore.getChangeFields("nextPageToken,files(id,name,owners(emailAddress))"));
+    }
+
+    public void testGetFolderQueryAndFields() {
+        assertEquals("'abc' in parents", dataStore.getFolderQuery("abc", null));
+        assertEquals("'abc' in parents and (mimeType = 'application/vnd.google-apps.folder'"
+                + " or mimeType = 'application/vnd.google-apps.shortcut' or (name contains 'x'))",
+                dataStore.getFolderQuery("abc", "name contains 'x'"));
+        assertEquals("*", dataStore.getFolderFields("*"));
+        assertEquals("nextPageToken,files(shortcutDetails,id,name)", dataStore.getFolderFields("nextPageToken,files(id,name)"));
+        assertEquals("id,name", dataStore.getSingleFileFields("nextPageToken,files(id,name)"));
+        assertEquals("*", dataStore.getSingleFileFields("*"));
+
+        final DataStoreParams params = new DataStoreParams();
+        assertEquals(0, dataStore.getRootFolderIds(params).length);
+        params.put("root_folder_ids", " a, b,,a ");
+        assertEquals(2, dataStore.getRootFolderIds(params).length);
+    }
+
+    public void testGetMaxConcurrentListings() {
+        final DataStoreParams params = new DataStoreParams();
+        assertEquals(4, dataStore.getMaxConcurrentListings(params));
+        params.put("max_concurrent_listings", "8");
+        assertEquals(8, dataStore.getMaxConcurrentListings(params));
+        params.put("max_concurrent_listings", "0");
+        assertEquals(1, dataStore.getMaxConcurrentListings(params));
+        params.put("max_concurrent_listings", "invalid");
+        assertEquals(4, dataStore.getMaxConcurrentListings(params));
+    }
+
+    public void testListFilesByUser() {
+        final DataStoreParams params = new DataStoreParams();
+        assertFalse(dataStore.isDelegated(params));
+        params.put("delegated_users", "a@example.com, b@example.com,a@example.com");
+        params.put("share_credentials", "false");
+        assertTrue(dataStore.isDelegated(params));
+        final Map<String, List<String>> fileIdMap = Map.of("a@example.com", List.of("1", "2"), "b@example.com", List.of("2", "3"));
+        final List<String> results = Collections.synchronizedList(new ArrayList<>());
+        try (final DelegatedClient client = new DelegatedClient(params, null, fileIdMap)) {
+            assertEquals(List.of("a@example.com", "b@example.com"), dataStore.getDelegatedUsers(client, params));
+            dataStore.listFilesByUser(client, params, null, null, null, null,
+                    (userClient, file) -> results.add(file.getId() + ":" + userClient.subject));
+        }
+        assertEquals(3, results.size());
+        assertEquals(3, results.stream().map(r -> r.substring(0, r.indexOf(':'))).distinct().count());
+        assertTrue(results.contains("1:a@example.com"));
+        assertTrue(results.contains("3:b@example.com"));
+    }
+
+    private static class DelegatedClient extends GSuiteClient {
+        private final Map<String, List<String>> fileIdMap;
+
+        DelegatedClient(final DataStoreParams params, final String user, final Map<String, List<String>> fileIdMap) {
+            super(params, null, user, DRIVE_SCOPE);
+            this.fileIdMap = fileIdMap;
+        }
+
+        @Override
+        protected CredentialRegistry.Credential newCredential(final String key) {
+            return new CredentialRegistry.Credential(key, null, null, null, null);
+        }
+
+        @Override
+        public GSuiteClient getDelegatedClient(final String user, final String scope) {
+            return delegatedClients.computeIfAbsent(user, k -> new DelegatedClient(params, user, fileIdMap));
+        }
+
+        @Override
+        public Stream<File> streamFiles(final String q, final String corpora, final String driveId, final String spaces,
+                final String fields) {
+            return fileIdMap.get(subject).stream().map(id -> new File().setId(id));
+        }
+    }
+
+    public void testListFiles_Stopped() {
+        final AtomicBoolean alive = new AtomicBoolean(false);
+        final GoogleDriveDataStore store = new GoogleDriveDataStore() {
+            @Override
+            protected boolean isAlive() {
+                return alive.get();
+            }
+        };
+        final DataStoreParams params = new DataStoreParams();
+        params.put("share_credentials", "false");
+        final List<String> results = Collections.synchronizedList(new ArrayList<>());
+        try (final ListingClient client = new ListingClient(params)) {
+            params.put("listing_mode", "drive");
+            store.listFiles(client, params, null, null, null, null, file -> results.add(file.getId()));
+            params.put("listing_mode", "modified_time");
+            store.listFiles(client, params, null, null, null, null, file -> results.add(file.getId()));
+            params.put("root_folder_ids", "folder1");
+            store.listFiles(client, params, null, null, null, null, file -> results.add(file.getId()));
+            assertEquals(0, client.listings.get());
+            assertEquals(0, client.counts.get());
+        }
+        assertTrue(results.isEmpty());
+
+        final DataStoreParams userParams = new DataStoreParams();
+        userParams.put("delegated_users", "a@example.com");
+        userParams.put("share_credentials", "false");
+        try (final DelegatedClient client = new DelegatedClient(userParams, null, Map.of("a@example.com", List.of("1", "2")))) {
+            store.listFilesByUser(client, userParams, null, null, null, null, (userClient, file) -> results.add(file.getId()));
+        }
+        assertTrue(results.isEmpty());
+    }
+
+    public void testListFilesWithCheckpoint_InvalidPageToken() throws Exception {
+        final CrawlCheckpoint checkpoint = new CrawlCheckpoint(Files.createTempDirectory("checkpoint").resolve("1.properties"));
+        checkpoint.setStoreInterval(0L);
+        checkpoint.startPage(null, "expired", List.of("file1"));
+        checkpoint.completeFile("file1");
+        checkpoint.startPage("expired", null, List.of("file2"));
+        assertEquals("expired", checkpoint.getPageToken());
+
+        final DataStoreParams params = new DataStoreParams();
+        params.put("share_credentials", "false");
+        final List<String> pageTokens = new ArrayList<>();
+        final List<String> results = new ArrayList<>();
+        try (final GSuiteClient client = new GSuiteClient(params, null, null, GSuiteClient.DRIVE_SCOPE) {
+            @Override
+            protected CredentialRegistry.Credential newCredential(final String key) {
+                return new CredentialRegistry.Credential(key, null, null, null, null);
+            }
+
+            @Override
+            public void getFilePages(final String q, final String corpora, final String driveId, final String spaces,
+                    final String fields, final String startPageToken, final BiConsumer<String, FileList> consumer) {
+                pageTokens.add(startPageToken);
+                if (startPageToken != null) {
+                    throw new DataStoreException("Failed to access files.",
+                            new HttpResponseException.Builder(400, "Bad Request", new HttpHeaders()).build());
+                }
+                consumer.accept(null, new FileList().setFiles(List.of(new File().setId("file1"), new File().setId("file2"))));
+            }
+        }) {
+            dataStore.listFilesWithCheckpoint(client, checkpoint, null, null, null, null, file -> results.add(file.getId()));
+        }
+        assertEquals(Arrays.asList("expired", null), pageTokens);
+        assertEquals(List.of("file1", "file2"), results);
+        assertNull(checkpoint.getPageToken());
+    }
+
+    public void testListFilesByDrive() {
+        final DataStoreParams params = new DataStoreParams();
+        params.put("share_credentials", "false");
+        params.put("listing_mode", "drive");
+        params.put("corpora", "user");
+        final List<String> results = Collections.synchronizedList(new ArrayList<>());
+        try (final ListingClient client = new ListingClient(params)) {
+            dataStore.listFiles(client, params, null, "user", null, null, file -> results.add(file.getId()));
+            // My Drive and the shared drive list the same files
+            assertEquals(2, client.listings.get());
+        }
+        assertEquals(2, results.size());
+        assertTrue(results.contains("file1"));
+        assertTrue(results.contains("file2"));
+    }
+
+    public void testListFilesByModifiedTime_VerifyPartitions() {
+        final List<String> verified = Collections.synchronizedList(new ArrayList<>());
+        final GoogleDriveDataStore store = new GoogleDriveDataStore() {
+            @Override
+            protected boolean verifyPartition(final ModifiedTimePartitioner.Partition partition, final long listedCount) {
+                final boolean complete = super.verifyPartition(partition, listedCount);
+                verified.add(partition.getSampledCount() + ":" + listedCount + ":" + complete);
+                return complete;
+            }
+        };
+        final DataStoreParams params = new DataStoreParams();
+        params.put("share_credentials", "false");
+        params.put("listing_mode", "modified_time");
+        params.put("partition_size", "5");
+        params.put("max_partitions", "3");
+        final List<String> results = Collections.synchronizedList(new ArrayList<>());
+        try (final ListingClient client = new ListingClient(params)) {
+            store.listFiles(client, params, null, null, null, null, file -> results.add(file.getId()));
+            assertEquals(1, client.counts.get());
+            assertEquals(3, client.listings.get());
+        }
+        assertEquals(6, results.size());
+        // the open partition is not sampled, and the sampled one lists 2 of 5 files
+        assertEquals(List.of("-1:2:true", "5:2:false"), verified);
+    }
+
+    public void testConsumeWhileAlive() {
+        final AtomicBoolean alive = new AtomicBoolean(true);
+        final GoogleDriveDataStore store = new GoogleDriveDataStore() {
+            @Override
+            protected boolean isAlive() {
+                return alive.get();
+            }
+        };
+        final AtomicBoolean closed = new AtomicBoolean();
+        final List<String> results = new ArrayList<>();
+        store.consumeWhileAlive(Stream.of("1", "2", "3", "4").map(id -> new File().setId(id)).onClose(() -> closed.set(true)), file -> {
+            results.add(file.getId());
+            if (results.size() == 2) {
+                alive.set(false);
+            }
+        });
+        assertEquals(List.of("1", "2"), results);
+        assertTrue(closed.get());
+    }
+
+    private static class ListingClient extends GSuiteClient {
+        private final AtomicInteger listings = new AtomicInteger();
+
+        private final AtomicInteger counts = new AtomicInteger();
+
+        ListingClient(final DataStoreParams params) {
+            super(params, null, null, DRIVE_SCOPE);
+        }
+
+        @Override
+        protected CredentialRegistry.Credential newCredential(final String key) {
+            return new CredentialRegistry.Credential(key, null, null, null, null);
+        }
+
+        @Override
+        public Stream<File> streamFiles(final String q, final String corpora, final String driveId, final String spaces,
+                final String fields) {
+            listings.incrementAndGet();
+            return Stream.of(new File().setId("file1"), new File().setId("file2"));
+        }
+
+        @Override
+        public int countFiles(final String q, final String corpora, final String spaces, final int limit) {
+            counts.incrementAndGet();
+            return limit;
+        }
+
+        @Override
+        public void getDrives(final Consumer<TeamDrive> consumer) {
+            consumer.accept(new TeamDrive().setId("drive1").setName("Drive 1"));
+        }
+    }
+
+    public void testGetFields_FromScripts() {
+        final DataStoreParams params = new DataStoreParams();
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "file.name");
+        scriptMap.put("content", "file.description+\"\\n\"+file.contents");
+        scriptMap.put("last_modified", "file.modified_time");
+        scriptMap.put("url", "file.url");
+        scriptMap.put("role", "file.roles");
+        assertEquals("nextPageToken,files(id,name,mimeType,webContentLink,size,trashed,description,modifiedTime,"
+                + "permissions(type,emailAddress,deleted),owners(emailAddress))",
+                dataStore.getFields(params, dataStore.getFileReferences(scriptMap)));
+    }
+
+    public void testGetFields_WithUnknownReference() {
+        final DataStoreParams params = new DataStoreParams();
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "file.name");
+        scriptMap.put("data", "file");
+        assertEquals("*", dataStore.getFields(params, dataStore.getFileReferences(scriptMap)));
+        scriptMap.put("data", "file.unknown_key");
+        assertEquals("*", dataStore.getFields(params, dataStore.getFileReferences(scriptMap)));
+        scriptMap.put("data", "file['web_view_link']");
+        assertEquals("nextPageToken,files(id,name,mimeType,webContentLink,size,trashed,webViewLink)",
+                dataStore.getFields(params, dataStore.getFileReferences(scriptMap)));
+    }
+
+    public void testGetFileReferences() {
+        assertEquals(Set.of("name", "contents"), dataStore.getFileReferences(Map.of("title", "file.name", "content", "file['contents']")));
+        assertTrue(dataStore.getFileReferences(Map.of("title", "'fixed'")).isEmpty());
+        assertNull(dataStore.getFileReferences(Map.of("data", "file")));
+        assertNull(dataStore.getFileReferences(Map.of("title", "file.name", "data", "file.unknown")));
+    }
+
+    public void testGetFields_WithParameter() {
+        final DataStoreParams params = new DataStoreParams();
+        params.put("fields", "*");
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "file.name");
+        assertEquals("*", dataStore.getFields(params, dataStore.getFileReferences(scriptMap)));
+    }
+
+    public void testIsDeleteOldDocs() {
+        final DataStoreParams params = new DataStoreParams();
+        assertTrue(dataStore.isDeleteOldDocs(params));
+        params.put(Constants.DELETE_OLD_DOCS, "true");
+        assertTrue(dataStore.isDeleteOldDocs(params));
+        params.put(Constants.DELETE_OLD_DOCS, "false");
+        assertFalse(dataStore.isDeleteOldDocs(params));
+    }
+
+    public void testIsScoped() {
+        final DataStoreParams params = new DataStoreParams();
+        assertFalse(dataStore.isScoped(params));
+        params.put("corpora", "allDrives");
+        assertFalse(dataStore.isScoped(params));
+        params.put("corpora", "user");
+        assertTrue(dataStore.isScoped(params));
+
+        final DataStoreParams queryParams = new DataStoreParams();
+        queryParams.put("query", "mimeType = 'application/pdf'");
+        assertTrue(dataStore.isScoped(queryParams));
+
+        final DataStoreParams folderParams = new DataStoreParams();
+        folderParams.put("root_folder_ids", "folder1");
+        assertTrue(dataStore.isScoped(folderParams));
+    }
+
+    public void testGetIndexedUrl() {
+        final DataStoreParams params = new DataStoreParams();
+        final File trashed = new File().setId("id1")
+                .setTrashed(true)
+                .setWebContentLink("https://drive.google.com/uc?id=id1&export=download")
+                .setWebViewLink("https://drive.google.com/file/d/id1/view");
+        final File removed = new File().setId("id2");
+
+        // without a url script, the URL of the file is used
+        assertEquals("https://drive.google.com/uc?id=id1&export=download",
+                dataStore.getIndexedUrl(new LinkedHashMap<>(), params, Collections.emptyMap(), trashed));
+
+        final Map<String, String> urlScriptMap = Map.of("url", "file.url");
+        assertEquals("https://drive.google.com/uc?id=id1&export=download",
+                dataStore.getIndexedUrl(new LinkedHashMap<>(), params, urlScriptMap, trashed));
+        assertEquals("https://drive.google.com/uc?id=id2&export=download",
+                dataStore.getIndexedUrl(new LinkedHashMap<>(), params, urlScriptMap, removed));
+
+        // the document is deleted by the URL which the script gave it
+        final Map<String, String> viewScriptMap = Map.of("url", "file.web_view_link");
+        assertEquals("https://drive.google.com/file/d/id1/view",
+                dataStore.getIndexedUrl(new LinkedHashMap<>(), params, viewScriptMap, trashed));
+        assertNull(dataStore.getIndexedUrl(new LinkedHashMap<>(), params, viewScriptMap, removed));
+    }
+
+    public void testIsFetchPermissions() {
+        final DataStoreParams params = new DataStoreParams();
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "file.name");
+        scriptMap.put("role", "file.roles");
+        assertFalse(dataStore.isFetchPermissions(params, dataStore.getFileReferences(scriptMap)));
+
+        params.put("fetch_permissions", "true");
+        assertTrue(dataStore.isFetchPermissions(params, dataStore.getFileReferences(scriptMap)));
+        assertTrue(dataStore.isFetchPermissions(params, dataStore.getFileReferences(Map.of("role", "file['roles']"))));
+        assertTrue(dataStore.isFetchPermissions(params, dataStore.getFileReferences(Map.of("data", "file"))));
+        assertTrue(dataStore.isFetchPermissions(params, dataStore.getFileReferences(Map.of("data", "file.unknown"))));
+        // no script reads the roles, so the permissions are not fetched for every file
+        final Set<String> fileReferences = dataStore.getFileReferences(Map.of("title", "file.name", "content", "file.contents"));
+        assertFalse(dataStore.isFetchPermissions(params, fileReferences));
+    }
+
+    public void testBuildFileMap() {
+        final long now = System.currentTimeMillis();
+        final File file = new File().setId("id1")
+                .setName("test.pdf")
+                .setMimeType("application/pdf")
+                .setSize(100L)
+                .setCreatedTime(new DateTime(now - 100000L))
+                .setModifiedTime(new DateTime(now))
+                .setOwners(List.of(new User().setEmailAddress("user1@example.com")));
+        final Map<String, Object> fileMap = dataStore.buildFileMap(file, "content", 100L, "https://example.com/file");
+        assertEquals("test.pdf", fileMap.get("name"));
+        assertEquals("", fileMap.get("description"));
+        assertEquals("content", fileMap.get("contents"));
+        assertEquals(100L, fileMap.get("size"));
+        assertEquals(file.getCreatedTime().getValue(), ((Date) fileMap.get("created_time")).getTime());
+        assertSame(fileMap.get("created_time"), fileMap.get("created_time"));
+        assertNull(fileMap.get("trashed_time"));
+        assertTrue(fileMap.containsKey("trashed_time"));
+        assertFalse(fileMap.containsKey("unknown"));
+        assertNull(fileMap.get("roles"));
+        assertFalse(fileMap.containsKey("roles"));
+
+        fileMap.put("roles", List.of("user1"));
+        fileMap.put("name", "renamed.pdf");
+        assertEquals(List.of("user1"), fileMap.get("roles"));
+        assertEquals("renamed.pdf", fileMap.get("name"));
+        assertEquals(GoogleDriveDataStore.FILE_MAP_FIELDS.size() + 1, fileMap.size());
+        assertEquals(fileMap.size(), new HashMap<>(fileMap).size());
+    }
+
+    public void testFileParams() {
+        final DataStoreParams params = new DataStoreParams();
+        params.put("max_size", "100");
+        final Map<String, Object> configMap = new LinkedHashMap<>();
+        configMap.put("crawl_params", params.newInstance());
+        final DataStoreParams crawlParams = dataStore.getCrawlParams(configMap, params);
+        assertNotSame(params, crawlParams);
+        assertSame(params, dataStore.getCrawlParams(new LinkedHashMap<>(), params));
+
+        final GoogleDriveDataStore.FileContext context1 =
+                new GoogleDriveDataStore.FileContext(null, new File().setId("id1"), Collections.emptyMap(), crawlParams);
+        final GoogleDriveDataStore.FileContext context2 =
+                new GoogleDriveDataStore.FileContext(null, new File().setId("id2"), Collections.emptyMap(), crawlParams);
+        final DataStoreParams params1 = dataStore.newFileParams(context1.crawlParams, context1.statsKey);
+        final DataStoreParams params2 = dataStore.newFileParams(context2.crawlParams, context2.statsKey);
+        // the parameters of the crawl are shared, not copied for each file
+        assertTrue(params1 instanceof GoogleDriveDataStore.FileParams);
+        assertSame(crawlParams.asMap(), ((GoogleDriveDataStore.FileParams) params1).crawlParams);
+        assertEquals("100", params1.getAsString("max_size"));
+        assertEquals("100", params1.get("max_size"));
+        assertNull(params1.getAsString("unknown"));
+        assertFalse(params1.containsKey("unknown"));
+        assertEquals("x", params1.getAsString("unknown", "x"));
+        assertTrue(params1.containsKey("max_size"));
+        assertTrue(params1.containsKey(Constants.CRAWLER_STATS_KEY));
+        assertEquals(2, params1.asMap().size());
+        assertEquals("100", params1.asMap().get("max_size"));
+        // each file has its own stats key, and the parameters of the crawl are not changed
+        assertSame(context1.statsKey, params1.get(Constants.CRAWLER_STATS_KEY));
+        assertSame(context2.statsKey, params2.get(Constants.CRAWLER_STATS_KEY));
+        assertFalse(crawlParams.containsKey(Constants.CRAWLER_STATS_KEY));
+        assertFalse(params.containsKey(Constants.CRAWLER_STATS_KEY));
+
+        // a copy made by the callback keeps the values of the file
+        final DataStoreParams copy = params1.newInstance();
+        assertSame(context1.statsKey, copy.get(Constants.CRAWLER_STATS_KEY));
+        assertEquals("100", copy.getAsString("max_size"));
+        copy.put("max_size", "300");
+        assertEquals("100", params1.getAsString("max_size"));
+
+        params1.put("max_size", "200");
+        assertEquals("200", params1.getAsString("max_size"));
+        assertEquals("100", params2.getAsString("max_size"));
+        assertEquals("100", crawlParams.getAsString("max_size"));
+    }
+
+    public void testAwaitTermination_StagedPipeline() throws Exception {
+        final StagedPipeline pipeline = new StagedPipeline(2, 1, 1, 20, 0L, new GoogleDriveDataStore.CallerBlocksPolicy());
+        final AtomicInteger indexed = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            pipeline.process(() -> true, () -> {
+                try {
+                    Thread.sleep(10L);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, indexed::incrementAndGet, t -> {}, () -> {});
+        }
+        pipeline.shutdown();
+        // the queued files are processed without a timeout
+        assertTrue(dataStore.awaitTermination(pipeline, 0L));
+        assertEquals(20, indexed.get());
+    }
+
+    public void testAwaitTermination_VirtualThreadExecutor() throws Exception {
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor(4);
+        final AtomicInteger processed = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(10L);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                processed.incrementAndGet();
+            });
+        }
+        executor.shutdown();
+        // the running files are processed without a timeout
+        assertTrue(dataStore.awaitTermination(executor, 0L));
+        assertEquals(20, processed.get());
+        assertEquals(20L, executor.getCompletedCount());
+    }
+
+    public void testAwaitTermination_Timeout() throws Exception {
+        final StagedPipeline pipeline = new StagedPipeline(1, 1, 1, 10, 0L, new GoogleDriveDataStore.CallerBlocksPolicy());
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            pipeline.process(() -> true, () -> {
+                try {
+                    latch.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, () -> {}, t -> {}, () -> {});
+            pipeline.shutdown();
+            assertFalse(dataStore.awaitTermination(pipeline, 100L));
+            assertFalse(pipeline.isTerminated());
+        } finally {
+            latch.countDown();
+        }
+        assertTrue(dataStore.awaitTermination(pipeline, 0L));
+    }
+
+    public void testCompileScripts() {
+        final List<String> evaluated = new ArrayList<>();
+        final GoogleDriveDataStore store = new GoogleDriveDataStore() {
+            @Override
+            protected Object convertValue(final String scriptType, final String template, final Map<String, Object> paramMap) {
+                evaluated.add(template);
+                return "evaluated";
+            }
+        };
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "file.name");
+        scriptMap.put("content", "file.description+\"\\n\"+file.contents");
+        scriptMap.put("role", "file.roles");
+        scriptMap.put("host", "file.url.host");
+        final Map<String, Function<Map<String, Object>, Object>> compiledMap = store.compileScripts(new DataStoreParams(), scriptMap);
+        assertEquals(List.of("title", "content", "role", "host"), new ArrayList<>(compiledMap.keySet()));
+
+        final Map<String, Object> fileMap = new LinkedHashMap<>();
+        fileMap.put("name", "test.txt");
+        fileMap.put("url", "https://example.com/");
+        final Map<String, Object> bindings = Map.of("file", fileMap);
+        assertEquals("test.txt", compiledMap.get("title").apply(bindings));
+        assertNull(compiledMap.get("role").apply(bindings));
+        assertTrue(evaluated.isEmpty());
+        // expressions which are not plain paths are evaluated by the script engine
+        assertEquals("evaluated", compiledMap.get("content").apply(bindings));
+        assertEquals("evaluated", compiledMap.get("host").apply(bindings));
+        assertEquals(List.of("file.description+\"\\n\"+file.contents", "file.url.host"), evaluated);
+
+        final Map<String, Object> configMap = new LinkedHashMap<>();
+        configMap.put("compiled_scripts", compiledMap);
+        assertSame(compiledMap, store.getCompiledScripts(configMap, new DataStoreParams(), scriptMap));
+    }
+
     public void testNewFixedThreadPool() {
         final ExecutorService executor = dataStore.newFixedThreadPool(4);
         assertNotNull(executor);
@@ -244,6 +791,14 @@ public class GSuiteDataStoreTest extends UnitDsTestCase {
         assertEquals(60L, GoogleDriveDataStore.DEFAULT_THREAD_POOL_TIMEOUT_SECONDS);
     }
 
+    public void testDefaultShutdownTimeout() {
+        final long defaultValue = GoogleDriveDataStore.DEFAULT_SHUTDOWN_TIMEOUT_MS;
+        final DataStoreParams params = new DataStoreParams();
+        assertEquals(6 * 60 * 60 * 1000L, dataStore.getLongParam(params, "shutdown_timeout", defaultValue));
+        params.put("shutdown_timeout", "0");
+        assertEquals(0L, dataStore.getLongParam(params, "shutdown_timeout", defaultValue));
+    }
+
     public void testGoogleAppsMimeTypePattern() {
         assertNotNull(GoogleDriveDataStore.GOOGLE_APPS_MIMETYPE_PATTERN);
         assertTrue(GoogleDriveDataStore.GOOGLE_APPS_MIMETYPE_PATTERN.matcher("application/vnd.google-apps.document").matches());
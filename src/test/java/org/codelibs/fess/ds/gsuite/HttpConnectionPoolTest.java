@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import org.apache.http.HttpHost;
+
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+
+public class HttpConnectionPoolTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testNewTransport() throws Exception {
+        try (final HttpConnectionPool pool =
+                new HttpConnectionPool(GoogleUtils.getCertificateTrustStore(), 10, 1000L, new HttpHost("localhost", 8080))) {
+            assertTrue(pool.newTransport() instanceof ApacheHttpTransport);
+            assertEquals(0, pool.getLeasedConnections());
+            assertEquals(0, pool.getAvailableConnections());
+            assertEquals(0L, pool.getCreatedConnections());
+            assertEquals(0L, pool.getHandshakes());
+            assertEquals("HttpConnectionPool [leased=0, available=0, pending=0, max=10, created=0, handshakes=0]", pool.toString());
+        }
+    }
+}
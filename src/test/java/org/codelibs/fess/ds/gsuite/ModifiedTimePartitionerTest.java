@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.List;
+
+public class ModifiedTimePartitionerTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testSplit_Sparse() {
+        final ModifiedTimePartitioner partitioner = new ModifiedTimePartitioner(p -> false);
+        final List<ModifiedTimePartitioner.Partition> partitions = partitioner.split(0L, 1000L, 10, 1L);
+        assertEquals(3, partitions.size());
+        assertEquals(Long.MIN_VALUE, partitions.get(0).getStart());
+        assertEquals(0L, partitions.get(1).getStart());
+        assertEquals(1000L, partitions.get(1).getEnd());
+        assertEquals(Long.MAX_VALUE, partitions.get(2).getEnd());
+    }
+
+    public void testSplit_Dense() {
+        // files are dense only before 100
+        final ModifiedTimePartitioner partitioner = new ModifiedTimePartitioner(p -> p.getStart() < 100L);
+        final List<ModifiedTimePartitioner.Partition> partitions = partitioner.split(0L, 1600L, 6, 1L);
+        assertEquals(6, partitions.size());
+        assertEquals(0L, partitions.get(1).getStart());
+        assertEquals(200L, partitions.get(1).getEnd());
+        assertEquals(200L, partitions.get(2).getStart());
+        assertEquals(400L, partitions.get(2).getEnd());
+        assertEquals(400L, partitions.get(3).getStart());
+        assertEquals(800L, partitions.get(4).getStart());
+        assertEquals(1600L, partitions.get(5).getStart());
+    }
+
+    public void testSplit_MinInterval() {
+        final ModifiedTimePartitioner partitioner = new ModifiedTimePartitioner(p -> true);
+        final List<ModifiedTimePartitioner.Partition> partitions = partitioner.split(0L, 1000L, 100, 300L);
+        // 1000 is split into 500 x 2, which are narrower than 300 x 2
+        assertEquals(4, partitions.size());
+    }
+
+    public void testIsComplete() {
+        final ModifiedTimePartitioner partitioner = new ModifiedTimePartitioner(p -> {
+            p.setSampledCount(p.getStart() < 500L ? 10L : 3L);
+            return p.getStart() < 500L;
+        });
+        final List<ModifiedTimePartitioner.Partition> partitions = partitioner.split(0L, 1000L, 10, 300L);
+        assertEquals(4, partitions.size());
+        // the open partitions are not sampled
+        assertEquals(-1L, partitions.get(0).getSampledCount());
+        assertTrue(partitions.get(0).isComplete(0L));
+        assertEquals(10L, partitions.get(1).getSampledCount());
+        assertFalse(partitions.get(1).isComplete(9L));
+        assertTrue(partitions.get(1).isComplete(10L));
+        assertEquals(3L, partitions.get(2).getSampledCount());
+        assertTrue(partitions.get(2).isComplete(5L));
+        assertEquals(-1L, partitions.get(3).getSampledCount());
+    }
+
+    public void testToQuery() {
+        final ModifiedTimePartitioner.Partition partition = new ModifiedTimePartitioner.Partition(0L, 1000L);
+        assertEquals("(trashed = false) and modifiedTime >= '1970-01-01T00:00:00.000Z' and modifiedTime < '1970-01-01T00:00:01.000Z'",
+                partition.toQuery("trashed = false"));
+        assertEquals("modifiedTime < '1970-01-01T00:00:00.000Z'", new ModifiedTimePartitioner.Partition(Long.MIN_VALUE, 0L).toQuery(null));
+        assertEquals("", new ModifiedTimePartitioner.Partition(Long.MIN_VALUE, Long.MAX_VALUE).toQuery(""));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class OverlayMapTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testGet() {
+        final Map<String, Object> base = new LinkedHashMap<>();
+        base.put("a", "1");
+        base.put("b", "2");
+        final Map<String, Object> overlay = new HashMap<>();
+        overlay.put("b", "3");
+        overlay.put("c", null);
+        final OverlayMap map = new OverlayMap(base, overlay);
+
+        assertEquals("1", map.get("a"));
+        assertEquals("3", map.get("b"));
+        assertNull(map.get("c"));
+        assertTrue(map.containsKey("c"));
+        assertFalse(map.containsKey("d"));
+        assertEquals(3, map.size());
+        final Map<String, Object> copy = new HashMap<>(map);
+        assertEquals(3, copy.size());
+        assertEquals("3", copy.get("b"));
+
+        // the view follows the maps
+        overlay.put("d", "4");
+        assertEquals("4", map.get("d"));
+        assertEquals(4, map.size());
+        assertEquals("2", base.get("b"));
+    }
+
+    public void testPut() {
+        final OverlayMap map = new OverlayMap(Map.of("a", "1"), Map.of());
+        try {
+            map.put("a", "2");
+            fail();
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RangedDownloaderTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testDownload() throws Exception {
+        final byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        final List<String> ranges = new CopyOnWriteArrayList<>();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        final File file = File.createTempFile("test", ".out");
+        try {
+            new RangedDownloader(executor, 300, 3, 2).download((start, end, out) -> {
+                ranges.add(start + "-" + end);
+                if (start == 300 && failed.compareAndSet(false, true)) {
+                    // fail in the middle of a chunk
+                    out.write(data, 300, 100);
+                    throw new IOException("test");
+                }
+                out.write(data, (int) start, (int) (end - start + 1));
+            }, data.length, file);
+            assertTrue(Arrays.equals(data, Files.readAllBytes(file.toPath())));
+            assertEquals(5, ranges.size());
+            // the failed chunk is resumed after the written bytes
+            assertTrue(ranges.contains("400-599"));
+            assertTrue(ranges.contains("900-999"));
+        } finally {
+            executor.shutdownNow();
+            file.delete();
+        }
+    }
+
+    public void testDownload_WithError() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final File file = File.createTempFile("test", ".out");
+        try {
+            new RangedDownloader(executor, 100, 2, 1).download((start, end, out) -> {
+                if (start == 100) {
+                    throw new IOException("test");
+                }
+                out.write(new byte[(int) (end - start + 1)]);
+            }, 300, file);
+            fail();
+        } catch (final IOException e) {
+            assertEquals("test", e.getMessage());
+        } finally {
+            executor.shutdownNow();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+public class RateLimiterTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testTryAcquire() {
+        final RateLimiter limiter = new RateLimiter(2, 0);
+        final long now = System.currentTimeMillis();
+        assertEquals(0L, limiter.tryAcquire(now));
+        assertEquals(0L, limiter.tryAcquire(now));
+        final long wait = limiter.tryAcquire(now);
+        assertTrue(wait > 0 && wait <= 500);
+        assertEquals(0L, limiter.tryAcquire(now + 500));
+    }
+
+    public void testTryAcquire_Per100Seconds() {
+        final RateLimiter limiter = new RateLimiter(100, 1);
+        final long now = System.currentTimeMillis();
+        assertEquals(0L, limiter.tryAcquire(now));
+        final long wait = limiter.tryAcquire(now);
+        assertTrue(wait > 1000 && wait <= 100000);
+    }
+
+    public void testThrottle() {
+        final RateLimiter limiter = new RateLimiter(0, 0);
+        assertFalse(limiter.isThrottled());
+        assertEquals(0L, limiter.tryAcquire(System.currentTimeMillis()));
+        limiter.throttle(10000L);
+        assertTrue(limiter.isThrottled());
+        assertTrue(limiter.tryAcquire(System.currentTimeMillis()) > 0);
+        assertEquals(1L, limiter.getThrottleCount());
+        assertTrue(limiter.toString().startsWith("RateLimiter [throttled="));
+    }
+
+    public void testParseRetryAfter() {
+        final long now = System.currentTimeMillis();
+        assertEquals(-1L, GSuiteClient.BackoffHandler.parseRetryAfter(null, now));
+        assertEquals(-1L, GSuiteClient.BackoffHandler.parseRetryAfter("abc", now));
+        assertEquals(120000L, GSuiteClient.BackoffHandler.parseRetryAfter("120", now));
+        final ZonedDateTime date = ZonedDateTime.parse("Wed, 21 Oct 2015 07:28:00 GMT", DateTimeFormatter.RFC_1123_DATE_TIME);
+        assertEquals(5000L, GSuiteClient.BackoffHandler.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT",
+                date.toInstant().toEpochMilli() - 5000L));
+        assertEquals(0L, GSuiteClient.BackoffHandler.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT", now));
+    }
+
+    public void testGetDelay() {
+        final GSuiteClient.BackoffHandler handler = new GSuiteClient.BackoffHandler(new RateLimiter(0, 0), 5, 1000L, 64000L, null, null);
+        final long now = System.currentTimeMillis();
+        assertEquals(3000L, handler.getDelay("3", now));
+        long delay = handler.getDelay(null, now);
+        assertTrue(delay >= 500L && delay <= 1000L);
+        handler.retryCount = 3;
+        delay = handler.getDelay(null, now);
+        assertTrue(delay >= 4000L && delay <= 8000L);
+        handler.retryCount = 20;
+        delay = handler.getDelay(null, now);
+        assertTrue(delay >= 32000L && delay <= 64000L);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StagedPipelineTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testProcess() throws Exception {
+        final StagedPipeline pipeline = new StagedPipeline(4, 2, 1, 2, 0L, new GoogleDriveDataStore.CallerBlocksPolicy());
+        final AtomicInteger indexed = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 50; i++) {
+            final int n = i;
+            pipeline.process(() -> {
+                threads.add(Thread.currentThread().getName().replaceAll("-\\d+$", ""));
+                // skipped
+                return n % 5 != 0;
+            }, () -> {
+                threads.add(Thread.currentThread().getName().replaceAll("-\\d+$", ""));
+                if (n % 7 == 0) {
+                    throw new IllegalStateException("test");
+                }
+            }, () -> {
+                threads.add(Thread.currentThread().getName().replaceAll("-\\d+$", ""));
+                indexed.incrementAndGet();
+            }, t -> errors.incrementAndGet(), done::incrementAndGet);
+        }
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(pipeline.isTerminated());
+        // 10 skipped, and 7, 14, 21, 28, 42 and 49 failed
+        assertEquals(34, indexed.get());
+        assertEquals(6, errors.get());
+        assertEquals(50, done.get());
+        assertEquals(Set.of("StagedPipeline-download", "StagedPipeline-extraction", "StagedPipeline-indexing"), threads);
+        assertEquals(50L, pipeline.getDownloadStage().getCompletedCount());
+        assertEquals(40L, pipeline.getExtractionStage().getCompletedCount());
+        assertEquals(34L, pipeline.getIndexingStage().getCompletedCount());
+    }
+
+    public void testQueueDepth() throws Exception {
+        final StagedPipeline pipeline = new StagedPipeline(1, 1, 1, 10, 0L, new GoogleDriveDataStore.CallerBlocksPolicy());
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 4; i++) {
+                pipeline.process(() -> true, () -> {
+                    try {
+                        latch.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, () -> {}, t -> {}, () -> {});
+            }
+            // one file is extracted and the others wait in the queue of the extraction stage
+            for (int i = 0; i < 100 && pipeline.getExtractionStage().getQueueDepth() < 3; i++) {
+                Thread.sleep(10L);
+            }
+            assertEquals(3, pipeline.getExtractionStage().getQueueDepth());
+            assertEquals(0, pipeline.getDownloadStage().getQueueDepth());
+            assertTrue(pipeline.toString().contains("extraction[threads=1, active=1, queued=3/10"));
+        } finally {
+            latch.countDown();
+            pipeline.shutdown();
+            assertTrue(pipeline.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+}
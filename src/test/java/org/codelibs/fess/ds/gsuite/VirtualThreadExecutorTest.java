@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.gsuite;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreadExecutorTest extends UnitDsTestCase {
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    public void testExecute() throws Exception {
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor(3);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicBoolean virtual = new AtomicBoolean(true);
+        for (int i = 0; i < 30; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                if (!Thread.currentThread().isVirtual()) {
+                    virtual.set(false);
+                }
+                try {
+                    Thread.sleep(5L);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(virtual.get());
+        assertTrue(maxRunning.get() <= 3);
+        assertEquals(30L, executor.getCompletedCount());
+        assertEquals(0, executor.getActiveCount());
+        try {
+            executor.execute(() -> {});
+            fail();
+        } catch (final RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    public void testExecute_Blocking() throws Exception {
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    latch.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertEquals(1, executor.getActiveCount());
+            final Thread submitter = new Thread(() -> executor.execute(() -> {}));
+            submitter.start();
+            submitter.join(100L);
+            // the submitter waits for a permit
+            assertTrue(submitter.isAlive());
+            latch.countDown();
+            submitter.join(10000L);
+            assertFalse(submitter.isAlive());
+        } finally {
+            latch.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2L, executor.getCompletedCount());
+        assertTrue(executor.toString().startsWith("VirtualThreadExecutor [active=0, maxConcurrency=1"));
+    }
+}